@@ -0,0 +1,97 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures cleaning up a backlog of outdated snapshots across many
+ * directories with the SnapshotCleaner, against an in-memory store that
+ * simulates the latency of each NameNode call.
+ *
+ * Each invocation takes one more snapshot of every directory and deletes
+ * the one that falls out of retention, keeping the store at a steady size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class CleanupBenchmark {
+
+    private static final int RETENTION = 5;
+
+    @Param({"100", "1000"})
+    private int directories;
+
+    @Param({"0", "1"})
+    private long latency;
+
+    private ManualClock clock;
+    private InMemorySnapshotStore store;
+    private List<SnapshotManager> managers;
+    private SnapshotCleaner cleaner;
+
+    @Setup
+    public void setup() throws Exception {
+        Logger.getLogger("com.tarnfeld.hadoopit").setLevel(Level.WARN);
+
+        this.clock = new ManualClock(System.currentTimeMillis());
+        this.store = new InMemorySnapshotStore(this.clock);
+
+        List<Path> paths = new ArrayList<Path>();
+        for (int i = 0; i < this.directories; i++) {
+            Path dir = new Path("/data/" + i);
+            this.store.allowSnapshot(dir);
+            paths.add(dir);
+        }
+
+        SnapshottableDirectoryResolver resolver = new SnapshottableDirectoryResolver(
+            this.store, Long.MAX_VALUE);
+        this.managers = new ArrayList<SnapshotManager>();
+        for (Path dir : paths) {
+            SnapshotManager manager = new SnapshotManager(
+                resolver, dir, 1, new CountRetentionPolicy(RETENTION), "bench");
+            manager.setClock(this.clock);
+
+            for (int i = 0; i < RETENTION; i++) {
+                manager.createSnapshot(new DateTime(this.clock.currentTimeMillis()));
+                this.clock.advance(60 * 1000L);
+            }
+
+            this.managers.add(manager);
+        }
+
+        this.store.setLatency(this.latency);
+        this.cleaner = new SnapshotCleaner(8, 8, 0, 0L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cleaner.shutdown();
+    }
+
+    @Benchmark
+    public CleanupSummary cleanup() throws Exception {
+        for (SnapshotManager manager : this.managers) {
+            manager.createSnapshot(new DateTime(this.clock.currentTimeMillis()));
+        }
+
+        this.clock.advance(60 * 1000L);
+        return this.cleaner.cleanup(this.managers);
+    }
+}
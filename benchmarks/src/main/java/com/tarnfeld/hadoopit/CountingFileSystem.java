@@ -0,0 +1,46 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
+
+/**
+ * CountingFileSystem counts the snapshot related NameNode calls made
+ * through it.
+ */
+public class CountingFileSystem extends DistributedFileSystem {
+
+    private AtomicLong calls = new AtomicLong();
+
+    public long getCalls() {
+        return this.calls.get();
+    }
+
+    @Override
+    public FileStatus[] globStatus(Path pattern) throws IOException {
+        this.calls.incrementAndGet();
+        return super.globStatus(pattern);
+    }
+
+    @Override
+    public SnapshottableDirectoryStatus[] getSnapshottableDirListing() throws IOException {
+        this.calls.incrementAndGet();
+        return super.getSnapshottableDirListing();
+    }
+
+    @Override
+    public Path createSnapshot(Path path, String snapshotName) throws IOException {
+        this.calls.incrementAndGet();
+        return super.createSnapshot(path, snapshotName);
+    }
+
+    @Override
+    public void deleteSnapshot(Path path, String snapshotName) throws IOException {
+        this.calls.incrementAndGet();
+        super.deleteSnapshot(path, snapshotName);
+    }
+}
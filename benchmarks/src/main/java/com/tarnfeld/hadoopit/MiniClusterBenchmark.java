@@ -0,0 +1,92 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the wall time and number of NameNode calls of a full run (take a
+ * snapshot, clean up outdated ones) against a MiniDFSCluster. Every run
+ * takes and deletes one snapshot, keeping the directory at a steady size.
+ *
+ * This scenario starts a MiniDFSCluster and is much slower than the other
+ * benchmarks; skip it with `java -jar target/benchmarks.jar -e MiniCluster`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class MiniClusterBenchmark {
+
+    @Param({"10", "1000"})
+    private int retained;
+
+    private MiniDFSCluster cluster;
+    private CountingFileSystem filesystem;
+    private Path directory = new Path("/data");
+
+    /**
+     * Totals reported for each iteration; NameNode calls per run is
+     * rpcs / runs.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Calls {
+        public long rpcs;
+        public long runs;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Configuration conf = new Configuration();
+        this.cluster = new MiniDFSCluster(conf, 1, true, null);
+
+        this.filesystem = new CountingFileSystem();
+        this.filesystem.initialize(this.cluster.getURI(), conf);
+
+        this.filesystem.mkdirs(this.directory);
+        this.filesystem.allowSnapshot(this.directory);
+
+        long created = System.currentTimeMillis() - this.retained * 1000L;
+        for (int i = 0; i < this.retained; i++) {
+            String name = SnapshotNameCodec.encode(0, created + i * 1000L, null);
+            this.filesystem.createSnapshot(this.directory, name);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.filesystem.close();
+        this.cluster.shutdown();
+    }
+
+    @Benchmark
+    public Integer run(Calls calls) throws Exception {
+        long before = this.filesystem.getCalls();
+
+        // A frequency of 0 makes a snapshot due on every run
+        SnapshotManager manager = new SnapshotManager(this.filesystem, this.directory,
+                                                      0, this.retained, null);
+        manager.takeSnapshot();
+        Integer cleaned = manager.cleanupOutdatedSnapshots();
+
+        calls.rpcs += this.filesystem.getCalls() - before;
+        calls.runs++;
+        return cleaned;
+    }
+}
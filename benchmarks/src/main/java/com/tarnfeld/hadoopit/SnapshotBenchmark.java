@@ -0,0 +1,97 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures constructing, sorting and selecting snapshots for retention over
+ * synthetic listings of between 10 and 100k snapshots.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SnapshotBenchmark {
+
+    private static final int FREQUENCY = 60;
+    private static final int RETENTION = 24;
+
+    @Param({"10", "1000", "10000", "100000"})
+    private int snapshots;
+
+    private SnapshottableDirectoryStatus directoryStatus;
+    private FileStatus[] statuses;
+    private List<Snapshot> parsed;
+
+    private SnapshotIndex index;
+    private SnapshotManager manager;
+    private SnapshotManager retainForever;
+
+    @Setup
+    public void setup() throws Exception {
+        SyntheticFileSystem fs = new SyntheticFileSystem(new Path("/data"), this.snapshots, FREQUENCY);
+
+        this.directoryStatus = fs.getDirectoryStatus();
+        this.statuses = fs.getSnapshots();
+        this.parsed = construct();
+
+        this.index = new SnapshotIndex(fs, this.directoryStatus);
+        this.manager = new SnapshotManager(fs, this.index, FREQUENCY, RETENTION, "bench");
+        this.retainForever = new SnapshotManager(fs, this.index, FREQUENCY, 0, "bench");
+    }
+
+    @Benchmark
+    public List<Snapshot> construct() throws Exception {
+        List<Snapshot> snapshots = new ArrayList<Snapshot>(this.statuses.length);
+        for (FileStatus status : this.statuses) {
+            snapshots.add(new Snapshot(this.directoryStatus, status));
+        }
+
+        return snapshots;
+    }
+
+    @Benchmark
+    public List<Snapshot> sort() {
+        List<Snapshot> snapshots = new ArrayList<Snapshot>(this.parsed);
+        Collections.sort(snapshots, new SnapshotComparator());
+        Collections.reverse(snapshots);
+
+        return snapshots;
+    }
+
+    @Benchmark
+    public void listOutdated(Blackhole blackhole) throws Exception {
+        this.index.invalidate();
+        blackhole.consume(this.manager.listOutdatedSnapshots());
+    }
+
+    @Benchmark
+    public void listOutdatedCached(Blackhole blackhole) throws Exception {
+        blackhole.consume(this.manager.listOutdatedSnapshots());
+    }
+
+    @Benchmark
+    public void needToTakeSnapshotRetainForever(Blackhole blackhole) throws Exception {
+        this.index.invalidate();
+        blackhole.consume(this.retainForever.needToTakeSnapshot());
+    }
+
+    @Benchmark
+    public void generateName(Blackhole blackhole) {
+        blackhole.consume(SnapshotNameCodec.encode(FREQUENCY, System.currentTimeMillis(), "bench"));
+    }
+}
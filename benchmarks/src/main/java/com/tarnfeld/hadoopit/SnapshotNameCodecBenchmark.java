@@ -0,0 +1,71 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the throughput of parsing 100k snapshot names with the
+ * SnapshotNameCodec, against the formatter-per-name parsing it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SnapshotNameCodecBenchmark {
+
+    private static final int NAMES = 100000;
+
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        long now = System.currentTimeMillis();
+
+        this.names = new String[NAMES];
+        for (int i = 0; i < NAMES; i++) {
+            long created = now - (long) random.nextInt(Integer.MAX_VALUE) * 1000;
+            this.names[i] = SnapshotNameCodec.encode(60, created, i % 2 == 0 ? "hourly" : null);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES)
+    public void decode(Blackhole blackhole) throws Exception {
+        for (String name : this.names) {
+            blackhole.consume(SnapshotNameCodec.decode(name).getCreatedMillis());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES)
+    public void decodeWithFormatterPerName(Blackhole blackhole) throws Exception {
+        for (String name : this.names) {
+            DateTimeFormatter formatter = DateTimeFormat.forPattern(Snapshot.DATE_FORMAT);
+
+            String[] parts = name.split("-");
+            blackhole.consume(new Integer(parts[1]));
+            blackhole.consume(formatter.parseDateTime(parts[2]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES)
+    public void encode(Blackhole blackhole) {
+        long created = System.currentTimeMillis();
+        for (int i = 0; i < NAMES; i++) {
+            blackhole.consume(SnapshotNameCodec.encode(60, created + i, "hourly"));
+        }
+    }
+}
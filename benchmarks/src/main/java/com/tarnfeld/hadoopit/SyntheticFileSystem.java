@@ -0,0 +1,66 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
+
+/**
+ * SyntheticFileSystem answers snapshot listings from a generated array of
+ * FileStatus objects, so the listing and retention code paths can be
+ * measured without a NameNode.
+ */
+public class SyntheticFileSystem extends DistributedFileSystem {
+
+    private Path directory;
+    private FileStatus[] snapshots;
+
+    public SyntheticFileSystem(Path directory, int count, int frequency) {
+        this.directory = directory;
+        this.snapshots = generate(directory, count, frequency);
+    }
+
+    public SnapshottableDirectoryStatus getDirectoryStatus() {
+        return new SnapshottableDirectoryStatus(0, 0, null, null, null,
+                                                this.directory.toString().getBytes(),
+                                                0, 0, 1, 1, new byte[0]);
+    }
+
+    public FileStatus[] getSnapshots() {
+        return this.snapshots;
+    }
+
+    @Override
+    public FileStatus[] globStatus(Path pattern) throws IOException {
+        return this.snapshots;
+    }
+
+    /**
+     * Generate snapshots taken every `frequency` minutes going back from
+     * now, in a shuffled order as a listing would not be sorted by time.
+     */
+    public static FileStatus[] generate(Path directory, int count, int frequency) {
+        FileStatus[] statuses = new FileStatus[count];
+        long now = System.currentTimeMillis();
+        Random random = new Random(0);
+
+        for (int i = 0; i < count; i++) {
+            long created = now - i * frequency * 60L * 1000;
+            String name = SnapshotNameCodec.encode(frequency, created, "bench");
+            Path path = new Path(directory + "/.snapshot/" + name);
+            statuses[i] = new FileStatus(0, true, 0, 0, created, path);
+        }
+
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            FileStatus swap = statuses[i];
+            statuses[i] = statuses[j];
+            statuses[j] = swap;
+        }
+
+        return statuses;
+    }
+}
@@ -0,0 +1,85 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * AsyncSnapshotManager runs the operations of a SnapshotManager on an
+ * executor, returning a SnapshotFuture rather than blocking the caller.
+ * Many managers can share one small executor, so thousands of directories
+ * don't need a thread each.
+ *
+ * If a timeout is given operations that haven't completed in time are
+ * cancelled, interrupting the thread running them. A NameNode call that is
+ * already in flight may still complete in the background.
+ */
+public class AsyncSnapshotManager {
+
+    private SnapshotManager manager;
+    private ExecutorService executor;
+    private ScheduledExecutorService timer; // Cancels operations that time out
+    private long timeout; // Millis before an operation is cancelled, 0 for never
+
+    public AsyncSnapshotManager(SnapshotManager manager, ExecutorService executor) {
+        this(manager, executor, null, 0);
+    }
+
+    public AsyncSnapshotManager(SnapshotManager manager, ExecutorService executor,
+                                ScheduledExecutorService timer, long timeout) {
+        if (timeout > 0 && timer == null) {
+            throw new IllegalArgumentException("A timer is required to time out operations");
+        }
+
+        this.manager = manager;
+        this.executor = executor;
+        this.timer = timer;
+        this.timeout = timeout;
+    }
+
+    public SnapshotManager getManager() {
+        return this.manager;
+    }
+
+    public SnapshotFuture<Path> takeSnapshotAsync() {
+        return submit(new Callable<Path>() {
+            @Override
+            public Path call() throws IOException, InterruptedException {
+                return manager.takeSnapshot();
+            }
+        });
+    }
+
+    public SnapshotFuture<Integer> cleanupOutdatedSnapshotsAsync() {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return manager.cleanupOutdatedSnapshots();
+            }
+        });
+    }
+
+    public SnapshotFuture<List<Snapshot>> listAllSnapshotsAsync() {
+        return submit(new Callable<List<Snapshot>>() {
+            @Override
+            public List<Snapshot> call() throws IOException {
+                return manager.listAllSnapshots();
+            }
+        });
+    }
+
+    private <T> SnapshotFuture<T> submit(Callable<T> operation) {
+        SnapshotFuture<T> future = new SnapshotFuture<T>(operation);
+        if (this.timeout > 0) {
+            future.cancelAfter(this.timer, this.timeout, TimeUnit.MILLISECONDS);
+        }
+
+        this.executor.execute(future);
+        return future;
+    }
+}
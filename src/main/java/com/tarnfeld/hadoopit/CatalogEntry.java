@@ -0,0 +1,35 @@
+package com.tarnfeld.hadoopit;
+
+/**
+ * CatalogEntry is a snapshot as recorded in the SnapshotCatalog.
+ */
+public class CatalogEntry {
+
+    private String name;
+    private int frequency;
+    private long created;
+    private String label;
+
+    public CatalogEntry(String name, int frequency, long created, String label) {
+        this.name = name;
+        this.frequency = frequency;
+        this.created = created;
+        this.label = label;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getFrequency() {
+        return this.frequency;
+    }
+
+    public long getCreatedMillis() {
+        return this.created;
+    }
+
+    public String getLabel() {
+        return this.label;
+    }
+}
@@ -0,0 +1,68 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+
+/**
+ * ChangeDetector decides whether a snapshottable directory has changed
+ * since a snapshot was taken, so snapshots of quiet directories can be
+ * skipped.
+ *
+ * The modification time of the directory itself is compared with that of
+ * the root of the newest snapshot of the directory first (HDFS sets both
+ * when a snapshot is created), which catches children being added or
+ * removed directly under it. The newest snapshot of any tier is used, since
+ * creating it sets the modification time too. Otherwise a
+ * snapshot diff report against the current tree is requested, which costs
+ * the NameNode time proportional to the number of changes rather than the
+ * size of the tree.
+ */
+public class ChangeDetector {
+    private static final Log LOG = LogFactory.getLog(ChangeDetector.class);
+
+    private DistributedFileSystem filesystem;
+
+    public ChangeDetector(DistributedFileSystem fs) {
+        this.filesystem = fs;
+    }
+
+    public boolean hasChanged(Path directory, Snapshot snapshot) throws IOException {
+        return hasChanged(directory, snapshot, snapshot);
+    }
+
+    /**
+     * Check whether the directory has changed since the given snapshot,
+     * where `newest` is the newest snapshot of the directory of any tier.
+     */
+    public boolean hasChanged(Path directory, Snapshot snapshot, Snapshot newest)
+            throws IOException {
+        FileStatus live = this.filesystem.getFileStatus(directory);
+        FileStatus root = this.filesystem.getFileStatus(newest.getPath());
+        if (live.getModificationTime() != root.getModificationTime()) {
+            LOG.debug(directory + " was modified after " + newest.getName());
+            return true;
+        }
+
+        return countChanges(directory, snapshot) > 0;
+    }
+
+    /**
+     * Return the number of entries in a snapshot diff report between the
+     * snapshot and the current tree. Each is a file or directory created,
+     * deleted, renamed or modified, and everything under a created or
+     * deleted directory counts as one.
+     */
+    public int countChanges(Path directory, Snapshot snapshot) throws IOException {
+        // An empty "to" snapshot compares against the current tree
+        SnapshotDiffReport report = this.filesystem.getSnapshotDiffReport(
+            directory, snapshot.getName(), "");
+
+        return report.getDiffList().size();
+    }
+}
@@ -0,0 +1,94 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * ChangeWatcher triggers snapshots of a directory ahead of schedule once
+ * enough has changed since its latest snapshot.
+ *
+ * Each time a directory is polled the changes since its latest snapshot are
+ * counted with a ChangeDetector. A snapshot is triggered once the count has
+ * reached a tier's threshold and then stopped growing for the debounce
+ * period, so a bulk load produces one snapshot once it's finished rather
+ * than one for every poll while it's running. Counts are kept per tier of
+ * each directory, and start again from each new snapshot of the tier.
+ */
+public class ChangeWatcher {
+    private static final Log LOG = LogFactory.getLog(ChangeWatcher.class);
+
+    private ChangeDetector detector;
+    private long debounceMillis; // Time the count must be steady for
+    private Clock clock = Clock.SYSTEM;
+
+    private Map<String, Observation> observations = new HashMap<String, Observation>();
+
+    public ChangeWatcher(ChangeDetector detector, long debounceMillis) {
+        this.detector = detector;
+        this.debounceMillis = debounceMillis;
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Count the changes made to the directory since the latest snapshot of
+     * the tier, and decide whether the tier should take a snapshot now.
+     */
+    public boolean isTriggered(Path directory, Integer frequency, String label,
+                               Snapshot latestSnapshot, int threshold) throws IOException {
+        int changes = this.detector.countChanges(directory, latestSnapshot);
+        long now = this.clock.currentTimeMillis();
+
+        Observation observation;
+        synchronized (this) {
+            String key = directory.toUri().getPath() + ":" + frequency + ":" + label;
+            observation = this.observations.get(key);
+            if (observation == null || !observation.snapshot.equals(latestSnapshot.getName())) {
+                observation = new Observation(latestSnapshot.getName());
+                this.observations.put(key, observation);
+            }
+
+            if (changes != observation.changes) {
+                observation.changes = changes;
+                observation.changedAt = now;
+            }
+        }
+
+        if (changes < threshold) {
+            return false;
+        }
+
+        long quiet = now - observation.changedAt;
+        if (quiet < this.debounceMillis) {
+            LOG.debug(directory + " has " + changes + " changes since " +
+                      latestSnapshot.getName() + " and is still changing");
+            return false;
+        }
+
+        LOG.info(directory + " has " + changes + " changes since " +
+                 latestSnapshot.getName() + ", over the threshold of " + threshold);
+        return true;
+    }
+
+    /**
+     * Observation is the change count last seen for a tier, and when it was
+     * first seen.
+     */
+    private static class Observation {
+
+        private String snapshot; // Snapshot the changes were counted from
+        private int changes = 0;
+        private long changedAt;
+
+        public Observation(String snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+}
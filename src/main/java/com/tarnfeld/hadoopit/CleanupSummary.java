@@ -0,0 +1,72 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * CleanupSummary records the outcome of cleaning up outdated snapshots;
+ * which snapshots were deleted, which failed (and why), which were skipped
+ * because the cleanup was interrupted before reaching them, and which
+ * directories couldn't be cleaned up at all.
+ */
+public class CleanupSummary {
+
+    private List<Snapshot> deleted = new ArrayList<Snapshot>();
+    private Map<Snapshot, Exception> failed = new LinkedHashMap<Snapshot, Exception>();
+    private List<Snapshot> skipped = new ArrayList<Snapshot>();
+    private Map<Path, Throwable> failedDirectories = new LinkedHashMap<Path, Throwable>();
+
+    public synchronized void addDeleted(Snapshot snapshot) {
+        this.deleted.add(snapshot);
+    }
+
+    public synchronized void addFailed(Snapshot snapshot, Exception cause) {
+        this.failed.put(snapshot, cause);
+    }
+
+    public synchronized void addSkipped(Snapshot snapshot) {
+        this.skipped.add(snapshot);
+    }
+
+    /**
+     * Record a directory whose outdated snapshots couldn't be listed.
+     */
+    public synchronized void addFailedDirectory(Path directory, Throwable cause) {
+        this.failedDirectories.put(directory, cause);
+    }
+
+    public synchronized List<Snapshot> getDeleted() {
+        return new ArrayList<Snapshot>(this.deleted);
+    }
+
+    public synchronized Map<Snapshot, Exception> getFailed() {
+        return new LinkedHashMap<Snapshot, Exception>(this.failed);
+    }
+
+    public synchronized List<Snapshot> getSkipped() {
+        return new ArrayList<Snapshot>(this.skipped);
+    }
+
+    public synchronized Map<Path, Throwable> getFailedDirectories() {
+        return new LinkedHashMap<Path, Throwable>(this.failedDirectories);
+    }
+
+    /**
+     * Return true if any delete failed, or any directory couldn't be listed.
+     */
+    public synchronized boolean hasFailures() {
+        return !this.failed.isEmpty() || !this.failedDirectories.isEmpty();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "deleted=" + this.deleted.size() +
+               ", failed=" + this.failed.size() +
+               ", skipped=" + this.skipped.size() +
+               ", failedDirectories=" + this.failedDirectories.size();
+    }
+}
@@ -0,0 +1,17 @@
+package com.tarnfeld.hadoopit;
+
+/**
+ * Clock tells the time, so schedules can be tested without waiting for
+ * them.
+ */
+public interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    long currentTimeMillis();
+}
@@ -1,8 +1,21 @@
 
 package com.tarnfeld.hadoopit;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -10,6 +23,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.joda.time.DateTime;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
@@ -21,6 +35,15 @@ import com.beust.jcommander.Parameter;
 public class CommandLineTool {
     private static final Log LOG = LogFactory.getLog(CommandLineTool.class);
 
+    private static final Long CLEANUP_RETRY_BACKOFF = 1000L; // Millis before first retry
+    private static final Integer CATALOG_COMPACT_THRESHOLD = 10000; // Log records per checkpoint
+    private static final Integer METRICS_WRITE_INTERVAL = 60; // Seconds between metrics writes
+    private static final Long SNAPSHOTTABLE_LISTING_TTL = 10 * 60 * 1000L; // Millis to reuse the listing
+    private static final Integer COPY_BUFFER_SIZE = 64 * 1024; // Bytes buffered per file copied
+    private static final Long DEFER_WINDOW = 60 * 1000L; // Millis a slow NameNode call defers work for
+    private static final Integer JOURNAL_SYNC_BATCH = 100; // Journal records written between syncs
+    private static final int EXIT_LEASE_HELD = 3; // Nothing failed, but a tier was leased by another run
+
     @Parameter
     private List<String> parameters = new ArrayList<String>();
 
@@ -31,34 +54,175 @@ public class CommandLineTool {
                description="Don't modify snapshots, just print out details")
     private boolean dry = false;
 
+    @Parameter(names="--output",
+               description="Report the run as log lines, or as a stream of JSON objects (json)")
+    private String outputFormat = "log";
+
     @Parameter(names={"-d", "--snapshot-dir"},
-               description="Directory to in HDFS to snapshot",
-               required=true)
+               description="Directory to in HDFS to snapshot, or a pattern matching several")
     private String directory;
 
     @Parameter(names={"-f", "--snapshot-freq"},
-               description="Frequency to perform snapshots (in minutes)",
-               required=true)
+               description="Frequency to perform snapshots (in minutes)")
     private Integer frequency;
 
     @Parameter(names={"-r", "--snapshot-retention"},
-               description="Number of historic snapshots to retain",
-               required=true)
-    private Integer retention;
+               description="Number of historic snapshots to retain, or a retention policy")
+    private String retention;
 
     @Parameter(names={"-l", "--label"},
                description="Label for this snapshot frequency")
     private String label;
 
+    @Parameter(names="--only-if-changed",
+               description="Skip snapshots of directories unchanged since the latest one")
+    private boolean onlyIfChanged = false;
+
+    @Parameter(names={"-p", "--policy-file"},
+               description="File listing the directories and tiers to snapshot")
+    private String policyFile;
+
+    @Parameter(names="--policy-threads",
+               description="Number of directories to snapshot at once")
+    private Integer policyThreads = 4;
+
+    @Parameter(names="--daemon",
+               description="Keep running and schedule snapshots from the policy file")
+    private boolean daemon = false;
+
+    @Parameter(names="--daemon-threads",
+               description="Number of threads used to run scheduled snapshots")
+    private Integer daemonThreads = 4;
+
+    @Parameter(names="--daemon-startup-spread",
+               description="Window to spread the first runs over (in seconds)")
+    private Integer daemonStartupSpread = 300;
+
+    @Parameter(names="--watch-interval",
+               description="Time between polls of watched directories (in seconds)")
+    private Integer watchInterval = 60;
+
+    @Parameter(names="--watch-debounce",
+               description="Time changes must settle for before a watched directory " +
+                           "is snapshotted (in seconds)")
+    private Integer watchDebounce = 300;
+
+    @Parameter(names="--cleanup-threads",
+               description="Number of threads used to delete outdated snapshots")
+    private Integer cleanupThreads = 8;
+
+    @Parameter(names="--cleanup-namenode-concurrency",
+               description="Maximum number of deletes in flight per NameNode")
+    private Integer cleanupNameNodeConcurrency = 4;
+
+    @Parameter(names="--cleanup-retries",
+               description="Number of times to retry a failed delete")
+    private Integer cleanupRetries = 3;
+
+    @Parameter(names="--cleanup-time-limit",
+               description="Only start deletes within this long of starting cleanup (in seconds)")
+    private Integer cleanupTimeLimit = 0;
+
+    @Parameter(names="--journal-dir",
+               description="Local directory to journal each run in, so it can be resumed")
+    private String journalDir;
+
+    @Parameter(names="--lease-dir",
+               description="Directory on HDFS to keep leases in, so overlapping runs skip " +
+                           "each other's tiers")
+    private String leaseDir;
+
+    @Parameter(names="--lease-ttl",
+               description="Time after which the lease of a run that died is broken (in seconds)")
+    private Integer leaseTtl = 3600;
+
+    @Parameter(names="--snapshot-limit",
+               description="Refuse new snapshots of a directory with this many, 0 for no limit")
+    private Integer snapshotLimit = SnapshotLimitGuard.HDFS_SNAPSHOT_LIMIT;
+
+    @Parameter(names="--snapshot-soft-limit",
+               description="Delete the oldest snapshots of a directory with more than this many")
+    private Integer snapshotSoftLimit = 0;
+
+    @Parameter(names="--namespace-snapshot-limit",
+               description="Refuse new snapshots once every directory together has this many")
+    private Long namespaceSnapshotLimit = 0L;
+
+    @Parameter(names="--namespace-snapshot-soft-limit",
+               description="Delete the oldest snapshots once every directory together has more")
+    private Long namespaceSnapshotSoftLimit = 0L;
+
+    @Parameter(names="--catalog-dir",
+               description="Local directory to keep a catalog of snapshots in")
+    private String catalogDir;
+
+    @Parameter(names="--catalog-reconcile-interval",
+               description="How often to reconcile the catalog with HDFS (in minutes)")
+    private Integer catalogReconcileInterval = 60;
+
+    @Parameter(names="--metrics-file",
+               description="File to write metrics to in the Prometheus text format")
+    private String metricsFile;
+
+    @Parameter(names="--metrics-port",
+               description="Port to serve metrics on in the Prometheus text format")
+    private Integer metricsPort;
+
+    @Parameter(names="--spread-snapshots",
+               description="Give each tier its own slot within its frequency")
+    private boolean spreadSnapshots = false;
+
+    @Parameter(names="--max-snapshot-ops",
+               description="Most snapshot creates and deletes to make per second")
+    private Double maxSnapshotOps = 0.0;
+
+    @Parameter(names="--defer-latency",
+               description="Defer snapshot operations while NameNode calls take longer (in millis)")
+    private Long deferLatency = 0L;
+
+    @Parameter(names="--export-target",
+               description="Filesystem path to copy the changes in each new snapshot to")
+    private String exportTarget;
+
+    @Parameter(names="--export-threads",
+               description="Number of files to copy to the export target at once")
+    private Integer exportThreads = 8;
+
+    @Parameter(names="--as-of",
+               description="Restore the state as of this time (e.g 2014-06-01T12:00), default now")
+    private String asOf;
+
+    @Parameter(names="--restore-path",
+               description="File or directory to restore, default the whole snapshot directory")
+    private String restorePath;
+
+    @Parameter(names="--restore-to",
+               description="Where to restore to, default the original location")
+    private String restoreTo;
+
+    @Parameter(names="--restore-threads",
+               description="Number of threads restoring files at once")
+    private Integer restoreThreads = 8;
+
+    @Parameter(names="--report-format",
+               description="Format of the space report, csv or json")
+    private String reportFormat = SpaceReportWriter.CSV;
+
+    @Parameter(names="--report-threads",
+               description="Number of NameNode calls to make at once for the space report")
+    private Integer reportThreads = 8;
+
     public int run() throws Exception {
         if (this.help) {
-            System.err.println("Usage: hadoop com.tarnfeld.hadoopit.CommandLineTool [-hdfr]");
+            System.err.println("Usage: hadoop com.tarnfeld.hadoopit.CommandLineTool [list|restore|report] [-hdfrlp]");
             System.err.println("\nHadoopit is a CLI tool for automating HDFS directory snapshots.\n");
             System.err.println("You should schedule (e.g with cron) Hadoopit for each frequency and\n" +
                                "level of retention you desire. You can specify a label for each type\n" +
-                               "of snapshot you want to retain, which can help with human readability.");
+                               "of snapshot you want to retain, which can help with human readability.\n");
+            System.err.println("Alternatively list every directory and tier in a policy file, and run\n" +
+                               "Hadoopit once (e.g from cron) or as a long running daemon.");
 
-            System.err.println("\nRequired Options:");
+            System.err.println("\nRequired Options (unless --policy-file is given):");
             System.err.println("      --snapshot-dir(-d) DIRECTORY" +
                                "\n      --snapshot-freq(-f) FREQUENCY" +
                                "\n      --snapshot-retention(-r) RETENTION");
@@ -66,51 +230,813 @@ public class CommandLineTool {
             System.err.println("\nOptional Options:");
             System.err.println("      --help(-h)" +
                                "\n      --dry-run" +
-                               "\n      --snapshot-label(-l) LABEL");
+                               "\n      --output log|json" +
+                               "\n      --snapshot-label(-l) LABEL" +
+                               "\n      --only-if-changed" +
+                               "\n      --policy-file(-p) FILE" +
+                               "\n      --policy-threads THREADS" +
+                               "\n      --daemon" +
+                               "\n      --daemon-threads THREADS" +
+                               "\n      --daemon-startup-spread SECONDS" +
+                               "\n      --watch-interval SECONDS" +
+                               "\n      --watch-debounce SECONDS" +
+                               "\n      --cleanup-threads THREADS" +
+                               "\n      --cleanup-namenode-concurrency DELETES" +
+                               "\n      --cleanup-retries RETRIES" +
+                               "\n      --cleanup-time-limit SECONDS" +
+                               "\n      --journal-dir DIRECTORY" +
+                               "\n      --lease-dir PATH" +
+                               "\n      --lease-ttl SECONDS" +
+                               "\n      --snapshot-limit LIMIT" +
+                               "\n      --snapshot-soft-limit LIMIT" +
+                               "\n      --namespace-snapshot-limit LIMIT" +
+                               "\n      --namespace-snapshot-soft-limit LIMIT" +
+                               "\n      --catalog-dir DIRECTORY" +
+                               "\n      --catalog-reconcile-interval MINUTES" +
+                               "\n      --metrics-file FILE" +
+                               "\n      --metrics-port PORT" +
+                               "\n      --spread-snapshots" +
+                               "\n      --max-snapshot-ops OPS" +
+                               "\n      --defer-latency MILLIS" +
+                               "\n      --export-target PATH" +
+                               "\n      --export-threads THREADS");
+
+            System.err.println("\nCommands:");
+            System.err.println("      list       List every snapshot of --snapshot-dir" +
+                               "\n      restore    Restore --snapshot-dir from a snapshot, with" +
+                               "\n                 [--as-of TIME] [--restore-path PATH]" +
+                               "\n                 [--restore-to PATH] [--restore-threads THREADS] [--dry-run]" +
+                               "\n      report     Report the space held by the snapshots of every tier, with" +
+                               "\n                 [--report-format csv|json] [--report-threads THREADS]");
 
             System.err.println("\nExample (Snapshot /data every 24 hours and retain them for a week)");
             System.err.println("  $ hadoop com.tarnfeld.hadoopit.CommandLineTool -d /data -f 1440 -r 7 -l daily\n");
 
+            System.err.println("Example (Run as a daemon for every policy in /etc/hadoopit/policies)");
+            System.err.println("  $ hadoop com.tarnfeld.hadoopit.CommandLineTool -p /etc/hadoopit/policies --daemon\n");
+
+            System.err.println("Example (Preview restoring /data/reports as it was at noon on June 1st)");
+            System.err.println("  $ hadoop com.tarnfeld.hadoopit.CommandLineTool restore -d /data \\\n" +
+                               "      --restore-path reports --as-of 2014-06-01T12:00 --dry-run\n");
+
+            return 1;
+        }
+
+        String command = this.parameters.isEmpty() ? null : this.parameters.get(0);
+        boolean isReport = "report".equals(command);
+        if (command != null && !isReport) {
+            if (this.directory == null || DirectoryPattern.isPattern(this.directory)) {
+                LOG.error("The " + command + " command requires a single --snapshot-dir");
+                return 1;
+            } else if (command.equals("list")) {
+                return runList();
+            } else if (command.equals("restore")) {
+                return runRestore();
+            }
+
+            LOG.error("Unknown command " + command);
+            return 1;
+        }
+
+        List<SnapshotPolicy> policies;
+        if (this.policyFile != null) {
+            policies = PolicyFile.load(new File(this.policyFile));
+        } else if (this.directory != null && this.frequency != null && this.retention != null) {
+            RetentionPolicy retentionPolicy;
+            try {
+                retentionPolicy = RetentionPolicies.parse(this.retention);
+            } catch (IllegalArgumentException e) {
+                LOG.error(e.getMessage());
+                return 1;
+            }
+
+            policies = new ArrayList<SnapshotPolicy>();
+            if (DirectoryPattern.isPattern(this.directory)) {
+                DirectoryPattern pattern;
+                try {
+                    pattern = DirectoryPattern.compile(this.directory);
+                } catch (IllegalArgumentException e) {
+                    LOG.error(e.getMessage());
+                    return 1;
+                }
+
+                policies.add(new SnapshotPolicy(pattern, this.frequency, retentionPolicy,
+                                                this.label, this.onlyIfChanged, null));
+            } else {
+                policies.add(new SnapshotPolicy(new Path(this.directory), this.frequency,
+                                                retentionPolicy, this.label, this.onlyIfChanged));
+            }
+        } else {
+            LOG.error("Either --policy-file or all of --snapshot-dir, --snapshot-freq " +
+                      "and --snapshot-retention are required");
+            return 1;
+        }
+
+        if (isReport) {
+            return runReport(policies);
+        }
+
+        if (this.daemon && (this.policyFile == null || this.dry)) {
+            LOG.error("The --daemon option requires --policy-file and can't be a dry run");
+            return 1;
+        }
+
+        if (this.watchInterval <= 0 || this.watchDebounce < 0) {
+            LOG.error("The --watch-interval must be positive and --watch-debounce can't be negative");
+            return 1;
+        }
+
+        if (this.leaseTtl <= 0) {
+            LOG.error("The --lease-ttl must be positive");
+            return 1;
+        }
+
+        if (this.daemon && this.journalDir != null) {
+            LOG.error("The --journal-dir option journals single runs, not the daemon");
+            return 1;
+        }
+
+        if (!this.outputFormat.equals("log") && !this.outputFormat.equals(RunOutput.JSON)) {
+            LOG.error("Unknown --output " + this.outputFormat);
+            return 1;
+        } else if (this.daemon && this.outputFormat.equals(RunOutput.JSON)) {
+            LOG.error("The --output json option reports single runs, not the daemon");
+            return 1;
+        }
+
+        SnapshotLimitGuard guard;
+        try {
+            guard = new SnapshotLimitGuard(
+                this.snapshotSoftLimit,
+                this.snapshotLimit,
+                this.namespaceSnapshotSoftLimit,
+                this.namespaceSnapshotLimit
+            );
+        } catch (IllegalArgumentException e) {
+            LOG.error(e.getMessage());
             return 1;
         }
 
         // Get the HDFS filesystem
-        FileSystem filesystem = FileSystem.get(getHadoopConfiguration());
+        Configuration conf = getHadoopConfiguration();
+        FileSystem filesystem = FileSystem.get(conf);
         if (!(filesystem instanceof DistributedFileSystem)) {
             LOG.error("Can't create snapshots from filesystem that's not HDFS");
             return 1;
         }
 
-        SnapshotManager manager = new SnapshotManager(
-            (DistributedFileSystem) filesystem,
-            new Path(this.directory),
-            this.frequency,
-            this.retention,
-            this.label
+        final DistributedFileSystem fs = (DistributedFileSystem) filesystem;
+        final SnapshottableDirectoryResolver resolver = new SnapshottableDirectoryResolver(
+            fs, SNAPSHOTTABLE_LISTING_TTL);
+        if (PolicyDiscovery.hasPatterns(policies)) {
+            try {
+                policies = PolicyDiscovery.expand(policies, resolver.listDirectories());
+            } catch (IOException e) {
+                LOG.error("Failed to list snapshottable directories", e);
+                return 1;
+            }
+        }
+
+        SnapshotMetrics.get().registerMBean();
+        MetricsExporter exporter = new MetricsExporter(
+            SnapshotMetrics.get(),
+            this.metricsFile != null ? new File(this.metricsFile) : null,
+            this.metricsPort
         );
+        exporter.start(METRICS_WRITE_INTERVAL);
+
+        SnapshotCleaner cleaner = new SnapshotCleaner(
+            this.cleanupThreads,
+            this.cleanupNameNodeConcurrency,
+            this.cleanupRetries,
+            CLEANUP_RETRY_BACKOFF
+        );
+        cleaner.setTimeLimit(this.cleanupTimeLimit * 1000L);
+
+        SnapshotScheduler scheduler = null;
+        if (this.spreadSnapshots || this.maxSnapshotOps > 0 || this.deferLatency > 0) {
+            scheduler = new SnapshotScheduler(
+                this.spreadSnapshots,
+                this.maxSnapshotOps,
+                this.deferLatency,
+                DEFER_WINDOW,
+                SnapshotMetrics.get()
+            );
+            cleaner.setScheduler(scheduler);
+        }
+
+        SnapshotExporter snapshotExporter = null;
+        if (this.exportTarget != null) {
+            Path exportPath = new Path(this.exportTarget);
+            snapshotExporter = new SnapshotExporter(
+                exportPath.getFileSystem(conf),
+                exportPath,
+                this.exportThreads,
+                COPY_BUFFER_SIZE
+            );
+        }
+
+        SnapshotCatalog catalog = null;
+        if (this.catalogDir != null) {
+            catalog = SnapshotCatalog.open(
+                new File(this.catalogDir),
+                this.catalogReconcileInterval * 60 * 1000L,
+                CATALOG_COMPACT_THRESHOLD
+            );
+        }
+
+        DirectoryLeases leases = null;
+        if (this.leaseDir != null && !this.dry) {
+            leases = new DirectoryLeases(fs, new Path(this.leaseDir), this.leaseTtl * 1000L);
+        }
+
+        if (this.daemon) {
+            final SnapshotDaemon daemon = new SnapshotDaemon(
+                (DistributedFileSystem) filesystem,
+                policies,
+                cleaner,
+                catalog,
+                this.daemonThreads,
+                this.daemonStartupSpread
+            );
+            daemon.setExporter(snapshotExporter);
+            daemon.setScheduler(scheduler);
+            daemon.setGuard(guard);
+            daemon.setLeases(leases);
+            daemon.setWatch(this.watchInterval * 1000L, this.watchDebounce * 1000L);
+
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    daemon.stop();
+                }
+            });
+
+            daemon.start();
+            daemon.awaitTermination();
+            exporter.stop();
+
+            return 0;
+        }
+
+        RunJournal journal = null;
+        if (this.journalDir != null && !this.dry) {
+            journal = RunJournal.open(
+                new File(this.journalDir),
+                JOURNAL_SYNC_BATCH,
+                DateTime.now().getMillis()
+            );
+            cleaner.setJournal(journal);
+        }
+
+        RunOutput output = null;
+        if (this.outputFormat.equals(RunOutput.JSON)) {
+            output = new RunOutput(new OutputStreamWriter(System.out, "UTF-8"), this.dry);
+            cleaner.setOutput(output);
+        }
+
+        // Tiers of a directory run in order, and directories run at once
+        Map<Path, List<SnapshotPolicy>> directories = new LinkedHashMap<Path, List<SnapshotPolicy>>();
+        Map<String, List<SnapshotManager>> groups = new LinkedHashMap<String, List<SnapshotManager>>();
+        int exitCode = 0;
+
+        for (SnapshotPolicy policy : policies) {
+            if (policy.getGroup() == null) {
+                if (!directories.containsKey(policy.getDirectory())) {
+                    directories.put(policy.getDirectory(), new ArrayList<SnapshotPolicy>());
+                }
+
+                directories.get(policy.getDirectory()).add(policy);
+                continue;
+            }
+
+            // Groups are run once all of their members are known
+            long start = System.nanoTime();
+            try {
+                SnapshotManager manager = createManager(policy, resolver, fs, catalog, scheduler,
+                                                        null);
+                guard.registerGroupMember(manager);
+                if (!groups.containsKey(policy.getGroup())) {
+                    groups.put(policy.getGroup(), new ArrayList<SnapshotManager>());
+                }
+
+                groups.get(policy.getGroup()).add(manager);
+            } catch (Exception e) {
+                LOG.error("Failed to manage snapshots for " + policy, e);
+                exitCode = 1;
+
+                if (output != null) {
+                    output.tier(policy.getDirectory(), policy.getFrequency(), policy.getLabel(),
+                                RunOutput.ERROR, null, null, System.nanoTime() - start, e);
+                }
+            }
+        }
+
+        final SnapshotCatalog taskCatalog = catalog;
+        final SnapshotScheduler taskScheduler = scheduler;
+        final SnapshotLimitGuard taskGuard = guard;
+        final SnapshotExporter taskExporter = snapshotExporter;
+        final RunJournal taskJournal = journal;
+        final RunOutput taskOutput = output;
+        final DirectoryLeases taskLeases = leases;
+        final AtomicInteger leaseHeld = new AtomicInteger(); // Tiers and groups skipped
+
+        List<Future<List<SnapshotManager>>> results = new ArrayList<Future<List<SnapshotManager>>>();
+        ExecutorService pool = Executors.newFixedThreadPool(this.policyThreads);
+        try {
+            for (final List<SnapshotPolicy> tiers : directories.values()) {
+                results.add(pool.submit(new Callable<List<SnapshotManager>>() {
+                    @Override
+                    public List<SnapshotManager> call() {
+                        return runDirectory(tiers, resolver, fs, taskCatalog, taskScheduler,
+                                            taskGuard, taskExporter, taskJournal, taskOutput,
+                                            taskLeases, leaseHeld);
+                    }
+                }));
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // Whatever happens, leases are given up and the journal finished
+        try {
+            // Only tiers that were run successfully are cleaned up
+            List<SnapshotManager> managers = new ArrayList<SnapshotManager>();
+            int i = 0;
+            int run = 0;
+            for (List<SnapshotPolicy> tiers : directories.values()) {
+                run += tiers.size();
+                try {
+                    managers.addAll(results.get(i++).get());
+                } catch (ExecutionException e) {
+                    LOG.error("Failed to manage snapshots of " + tiers.get(0).getDirectory(),
+                              e.getCause());
+                }
+            }
+
+            if (managers.size() + leaseHeld.get() < run) {
+                exitCode = 1;
+            }
+
+            for (Map.Entry<String, List<SnapshotManager>> group : groups.entrySet()) {
+                long start = System.nanoTime();
+                try {
+                    if (leases != null && !acquireGroup(group.getKey(), group.getValue(), leases,
+                                                        output)) {
+                        leaseHeld.incrementAndGet();
+                        continue;
+                    }
+
+                    runGroup(new SnapshotGroup(group.getKey(), group.getValue()), snapshotExporter,
+                             journal, output);
+                } catch (Exception e) {
+                    LOG.error("Failed to manage snapshots for group " + group.getKey(), e);
+                    exitCode = 1;
+
+                    if (output != null) {
+                        List<Path> members = new ArrayList<Path>();
+                        for (SnapshotManager member : group.getValue()) {
+                            members.add(member.getDirectory());
+                        }
+
+                        output.group(group.getKey(), members, RunOutput.ERROR, null, null, 0,
+                                     System.nanoTime() - start, e);
+                    }
+                }
+            }
+
+            // Clean up every directory at once, so large backlogs run in parallel
+            if (!this.dry) {
+                CleanupSummary summary = cleaner.cleanup(managers);
+                LOG.info("Cleaned up outdated snapshots: " + summary);
+
+                if (summary.hasFailures()) {
+                    exitCode = 1;
+                }
+            }
+        } finally {
+            cleaner.shutdown();
+            exporter.stop();
+
+            if (snapshotExporter != null) {
+                snapshotExporter.shutdown();
+            }
 
+            if (catalog != null) {
+                catalog.close();
+            }
+
+            if (leases != null) {
+                leases.releaseAll();
+            }
+
+            if (journal != null) {
+                RunReport report = journal.finish(DateTime.now().getMillis());
+                LOG.info("Finished run: " + report);
+            }
+        }
+
+        // Let cron see runs that didn't do everything they were asked to
+        if (leaseHeld.get() > 0) {
+            LOG.warn("Skipped " + leaseHeld.get() + " tiers and groups another run holds " +
+                     "the lease on");
+            if (exitCode == 0) {
+                exitCode = EXIT_LEASE_HELD;
+            }
+        }
+
+        if (output != null) {
+            output.summary(exitCode);
+        }
+
+        return exitCode;
+    }
+
+    /**
+     * Run every tier of a single directory in turn, returning the managers of
+     * those that succeeded. Tiers another run holds the lease on are skipped
+     * and counted in leaseHeld. Failures are logged rather than thrown, so
+     * they can't hold up other directories. Leases are held until every
+     * directory has been cleaned up.
+     */
+    private List<SnapshotManager> runDirectory(List<SnapshotPolicy> tiers,
+                                               SnapshottableDirectoryResolver resolver,
+                                               DistributedFileSystem fs,
+                                               SnapshotCatalog catalog,
+                                               SnapshotScheduler scheduler,
+                                               SnapshotLimitGuard guard,
+                                               SnapshotExporter snapshotExporter,
+                                               RunJournal journal,
+                                               RunOutput output,
+                                               DirectoryLeases leases,
+                                               AtomicInteger leaseHeld) {
+        // Tiers share the first one's index, so the directory is listed once
+        List<SnapshotManager> managers = new ArrayList<SnapshotManager>();
+        SnapshotIndex index = null;
+        for (SnapshotPolicy policy : tiers) {
+            long start = System.nanoTime();
+            try {
+                if (leases != null && !leases.tryAcquire(policy.getDirectory(),
+                                                         policy.getFrequency(),
+                                                         policy.getLabel())) {
+                    LOG.warn("Skipping " + policy + ", another run holds its lease");
+                    leaseHeld.incrementAndGet();
+
+                    if (output != null) {
+                        output.tier(policy.getDirectory(), policy.getFrequency(),
+                                    policy.getLabel(), RunOutput.SKIP, null, null,
+                                    System.nanoTime() - start, null);
+                    }
+
+                    continue;
+                }
+
+                SnapshotManager manager = createManager(policy, resolver, fs, catalog, scheduler,
+                                                        index);
+                index = manager.getSnapshotIndex();
+                guard.register(manager);
+                runPolicy(manager, snapshotExporter, journal, output);
+                managers.add(manager);
+            } catch (Exception e) {
+                LOG.error("Failed to manage snapshots for " + policy, e);
+
+                if (output != null) {
+                    output.tier(policy.getDirectory(), policy.getFrequency(), policy.getLabel(),
+                                RunOutput.ERROR, null, null, System.nanoTime() - start, e);
+                }
+            }
+        }
+
+        return managers;
+    }
+
+    /**
+     * Take the lease on every member of a group, returning false (and
+     * holding none of them) if another run holds any.
+     */
+    private boolean acquireGroup(String name, List<SnapshotManager> members,
+                                 DirectoryLeases leases, RunOutput output) throws IOException {
+        List<Path> directories = new ArrayList<Path>();
+        for (SnapshotManager member : members) {
+            directories.add(member.getDirectory());
+        }
+
+        List<SnapshotManager> acquired = new ArrayList<SnapshotManager>();
+        for (SnapshotManager member : members) {
+            if (leases.tryAcquire(member.getDirectory(), member.getFrequency(),
+                                  member.getLabel())) {
+                acquired.add(member);
+            } else {
+                LOG.warn("Skipping group " + name + ", another run holds the lease on " +
+                         member.getDirectory());
+                for (SnapshotManager release : acquired) {
+                    leases.release(release.getDirectory(), release.getFrequency(),
+                                   release.getLabel());
+                }
+
+                if (output != null) {
+                    output.group(name, directories, RunOutput.SKIP, null, null, 0, 0L, null);
+                }
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private SnapshotManager createManager(SnapshotPolicy policy,
+                                          SnapshottableDirectoryResolver resolver,
+                                          DistributedFileSystem fs,
+                                          SnapshotCatalog catalog,
+                                          SnapshotScheduler scheduler,
+                                          SnapshotIndex index) throws IOException {
+        SnapshotManager manager;
+        if (index != null) {
+            manager = new SnapshotManager(
+                fs,
+                index,
+                policy.getFrequency(),
+                policy.getRetention(),
+                policy.getLabel()
+            );
+        } else {
+            manager = new SnapshotManager(
+                resolver,
+                policy.getDirectory(),
+                policy.getFrequency(),
+                policy.getRetention(),
+                policy.getLabel()
+            );
+        }
+
+        if (catalog != null && index == null) {
+            manager.getSnapshotIndex().setCatalog(catalog);
+        }
+
+        if (policy.isOnlyIfChanged()) {
+            manager.setChangeDetector(new ChangeDetector(fs));
+        }
+
+        manager.setScheduler(scheduler);
+        return manager;
+    }
+
+    private void runPolicy(SnapshotManager manager, SnapshotExporter snapshotExporter,
+                           RunJournal journal, RunOutput output) throws Exception {
+        long start = System.nanoTime();
         if (this.dry) {
+            String planned = null;
             if (manager.needToTakeSnapshot()) {
-                LOG.info("Would take snapshot of " + this.directory);
+                if (manager.isUnchanged()) {
+                    LOG.info("Would skip unchanged snapshot of " + manager.getDirectory());
+                } else {
+                    LOG.info("Would take snapshot of " + manager.getDirectory());
+                    planned = SnapshotNameCodec.encode(manager.getFrequency(),
+                                                       manager.getClock().currentTimeMillis(),
+                                                       manager.getLabel());
+                }
             }
 
-            for (Snapshot s : manager.listOutdatedSnapshots()) {
+            List<Snapshot> outdated = manager.listOutdatedSnapshots();
+            for (Snapshot s : outdated) {
                 LOG.info("Would clean out old snapshot: " + s.toString());
             }
+
+            if (output != null) {
+                output.tier(manager.getDirectory(), manager.getFrequency(), manager.getLabel(),
+                            planned != null ? RunOutput.CREATE : RunOutput.SKIP, planned,
+                            outdated, System.nanoTime() - start, null);
+            }
         } else {
-            if (manager.takeSnapshot() != null) {
-                LOG.info("Skipped creating a snapshot of " + this.directory);
+            Path snapshot = manager.takeSnapshot();
+            if (output != null) {
+                output.tier(manager.getDirectory(), manager.getFrequency(), manager.getLabel(),
+                            snapshot != null ? RunOutput.CREATE : RunOutput.SKIP,
+                            snapshot != null ? snapshot.getName() : null,
+                            null, System.nanoTime() - start, null);
+            }
+
+            if (snapshot != null) {
+                LOG.info("Created snapshot of " + manager.getDirectory());
+
+                if (journal != null) {
+                    journal.recordCreated(manager.getDirectory(), snapshot.getName());
+                }
+
+                if (snapshotExporter != null) {
+                    snapshotExporter.export(manager, manager.getLatestSnapshot());
+                }
             } else {
-                LOG.info("Created snapshot of " + this.directory);
+                LOG.info("Skipped creating a snapshot of " + manager.getDirectory());
             }
+        }
+    }
 
-            Integer cleaned = manager.cleanupOutdatedSnapshots();
-            LOG.info("Cleaned up " + cleaned + " outdated snapshots");
+    private void runGroup(SnapshotGroup group, SnapshotExporter snapshotExporter,
+                          RunJournal journal, RunOutput output) throws Exception {
+        List<Path> directories = new ArrayList<Path>();
+        for (SnapshotManager member : group.getMembers()) {
+            directories.add(member.getDirectory());
+        }
+
+        long start = System.nanoTime();
+        if (this.dry) {
+            String planned = null;
+            if (group.needToTakeSnapshot()) {
+                LOG.info("Would take snapshot of group " + group);
+
+                SnapshotManager member = group.getMembers().get(0);
+                planned = SnapshotNameCodec.encode(member.getFrequency(),
+                                                   member.getClock().currentTimeMillis(),
+                                                   member.getLabel());
+            }
+
+            List<String> outdated = group.listOutdatedSnapshots();
+            for (String name : outdated) {
+                LOG.info("Would clean out old group snapshot: " + name);
+            }
+
+            if (output != null) {
+                output.group(group.getName(), directories,
+                             planned != null ? RunOutput.CREATE : RunOutput.SKIP, planned,
+                             outdated, 0, System.nanoTime() - start, null);
+            }
+
+            return;
+        }
+
+        String name = group.takeSnapshot();
+        if (name != null) {
+            LOG.info("Created snapshot " + name + " of group " + group);
+
+            if (journal != null) {
+                for (SnapshotManager member : group.getMembers()) {
+                    journal.recordCreated(member.getDirectory(), name);
+                }
+            }
+
+            if (snapshotExporter != null) {
+                for (SnapshotManager member : group.getMembers()) {
+                    snapshotExporter.export(member, member.getLatestSnapshot());
+                }
+            }
+        } else {
+            LOG.info("Skipped creating a snapshot of group " + group);
+        }
+
+        Integer removed = group.cleanupOutdatedSnapshots();
+        LOG.info("Cleaned up " + removed + " outdated snapshots of group " + group);
+
+        if (output != null) {
+            output.group(group.getName(), directories,
+                         name != null ? RunOutput.CREATE : RunOutput.SKIP, name,
+                         null, removed, System.nanoTime() - start, null);
+        }
+    }
+
+    private int runList() throws Exception {
+        SnapshotIndex index = getSnapshotIndex();
+        for (Snapshot snapshot : index.getAllSnapshots()) {
+            System.out.println(snapshot.getCreatedTime() + "\t" + snapshot.getPath());
         }
 
         return 0;
     }
 
+    private int runRestore() throws Exception {
+        DateTime time;
+        try {
+            time = this.asOf == null ? DateTime.now() : DateTime.parse(this.asOf);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid --as-of time " + this.asOf);
+            return 1;
+        }
+
+        Path directory = new Path(this.directory);
+        String path = this.restorePath == null ? "" : this.restorePath;
+        if (path.startsWith("/")) {
+            // Accept absolute paths inside the snapshotted directory
+            String prefix = directory.toUri().getPath() + "/";
+            if (!path.startsWith(prefix)) {
+                LOG.error("The path " + path + " is not inside " + directory);
+                return 1;
+            }
+
+            path = path.substring(prefix.length());
+        }
+
+        SnapshotIndex index = getSnapshotIndex();
+        Snapshot snapshot = index.getSnapshotAsOf(time.getMillis());
+        if (snapshot == null) {
+            LOG.error("There is no snapshot of " + directory + " as of " + time);
+            return 1;
+        }
+
+        Path destination;
+        if (this.restoreTo != null) {
+            destination = new Path(this.restoreTo);
+        } else {
+            destination = path.isEmpty() ? directory : new Path(directory, path);
+        }
+
+        SnapshotRestorer restorer = new SnapshotRestorer(this.restoreThreads, COPY_BUFFER_SIZE);
+        RestoreSummary summary;
+        try {
+            summary = restorer.restore(FileSystem.get(getHadoopConfiguration()), snapshot,
+                                       path, destination, this.dry);
+        } finally {
+            restorer.shutdown();
+        }
+
+        if (this.dry) {
+            for (Path copied : summary.getCopied()) {
+                LOG.info("Would restore " + copied);
+            }
+
+            for (Path extra : summary.getExtra()) {
+                LOG.info("Not in the snapshot, would be left alone: " + extra);
+            }
+        }
+
+        LOG.info("Restored " + destination + " from " + snapshot.getName() + ": " + summary);
+        return summary.getFailed().isEmpty() ? 0 : 1;
+    }
+
+    private int runReport(List<SnapshotPolicy> policies) throws Exception {
+        if (!this.reportFormat.equals(SpaceReportWriter.CSV) &&
+                !this.reportFormat.equals(SpaceReportWriter.JSON)) {
+            LOG.error("Unknown --report-format " + this.reportFormat);
+            return 1;
+        }
+
+        FileSystem filesystem = FileSystem.get(getHadoopConfiguration());
+        if (!(filesystem instanceof DistributedFileSystem)) {
+            LOG.error("Can't report on snapshots from filesystem that's not HDFS");
+            return 1;
+        }
+
+        DistributedFileSystem fs = (DistributedFileSystem) filesystem;
+        SnapshottableDirectoryResolver resolver = new SnapshottableDirectoryResolver(
+            fs, SNAPSHOTTABLE_LISTING_TTL);
+        if (PolicyDiscovery.hasPatterns(policies)) {
+            policies = PolicyDiscovery.expand(policies, resolver.listDirectories());
+        }
+
+        SpaceAccountant accountant = new SpaceAccountant(this.reportThreads);
+
+        // Every tier of a directory is served from the same accounting
+        Map<Path, SpaceReport> reports = new HashMap<Path, SpaceReport>();
+
+        int exitCode = 0;
+        Writer out = new OutputStreamWriter(System.out, "UTF-8");
+        try {
+            SpaceReportWriter writer = new SpaceReportWriter(out, this.reportFormat);
+            for (SnapshotPolicy policy : policies) {
+                try {
+                    SnapshotManager manager = new SnapshotManager(
+                        resolver,
+                        policy.getDirectory(),
+                        policy.getFrequency(),
+                        policy.getRetention(),
+                        policy.getLabel()
+                    );
+
+                    SnapshotIndex index = manager.getSnapshotIndex();
+                    SpaceReport spaceReport = reports.get(index.getDirectory());
+                    if (spaceReport == null) {
+                        spaceReport = accountant.account(index, fs);
+                        reports.put(index.getDirectory(), spaceReport);
+                    }
+
+                    writer.write(manager.getDirectory(), policy.getFrequency(),
+                                 policy.getLabel(), spaceReport);
+                } catch (IOException e) {
+                    LOG.error("Failed to report on the snapshots of " + policy, e);
+                    exitCode = 1;
+                }
+            }
+
+            writer.close();
+        } finally {
+            accountant.shutdown();
+        }
+
+        return exitCode;
+    }
+
+    private SnapshotIndex getSnapshotIndex() throws Exception {
+        FileSystem filesystem = FileSystem.get(getHadoopConfiguration());
+        if (!(filesystem instanceof DistributedFileSystem)) {
+            throw new Exception("Can't read snapshots from filesystem that's not HDFS");
+        }
+
+        DistributedFileSystem fs = (DistributedFileSystem) filesystem;
+        SnapshottableDirectoryResolver resolver = new SnapshottableDirectoryResolver(fs, 0);
+
+        return new SnapshotIndex(fs, resolver.resolve(new Path(this.directory)));
+    }
+
     private Configuration getHadoopConfiguration() throws Exception {
         String hadoopConfDir = System.getenv("HADOOP_CONF_DIR");
         if (hadoopConfDir == null) {
@@ -0,0 +1,36 @@
+package com.tarnfeld.hadoopit;
+
+/**
+ * CountRetentionPolicy keeps the newest N snapshots, or every snapshot if N
+ * is zero.
+ */
+public class CountRetentionPolicy implements RetentionPolicy {
+
+    private int retain;
+
+    public CountRetentionPolicy(int retain) {
+        if (retain < 0) {
+            throw new IllegalArgumentException("Retention can't be negative");
+        }
+
+        this.retain = retain;
+    }
+
+    public int getRetain() {
+        return this.retain;
+    }
+
+    @Override
+    public int[] selectOutdated(long[] created, int size, long now) {
+        if (this.retain == 0) {
+            return new int[0];
+        }
+
+        return RetentionSelector.selectOutdated(created, size, this.retain);
+    }
+
+    @Override
+    public String toString() {
+        return "count:" + this.retain;
+    }
+}
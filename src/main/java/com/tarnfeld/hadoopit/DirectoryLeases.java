@@ -0,0 +1,201 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * DirectoryLeases stops separate hadoopit processes, such as overlapping
+ * cron runs, snapshotting or cleaning up the same tier of a directory at
+ * once.
+ *
+ * Before working on a tier a process creates a lease file for it in a
+ * shared directory on the cluster, failing if the file already exists, and
+ * deletes it once the work is done. Leases are per tier (directory,
+ * frequency and label), so runs of different tiers of a directory, such
+ * as hourly and daily cron entries that fire together, don't hold each
+ * other up. The file holds its owner and when it
+ * expires, so the lease of a process that died is broken once it's older
+ * than the TTL. Leases aren't renewed, so the TTL should be longer than
+ * the longest run. Breaking a lease isn't atomic, two processes breaking
+ * the same one at the same moment could both end up holding it.
+ */
+public class DirectoryLeases {
+    private static final Log LOG = LogFactory.getLog(DirectoryLeases.class);
+
+    private FileSystem filesystem;
+    private Path leaseDir; // Directory holding the lease files
+    private long ttl; // Millis a lease is held for
+    private String owner; // Identifies this process in lease files
+    private Clock clock = Clock.SYSTEM;
+
+    private Map<String, Path> held = new HashMap<String, Path>(); // Lease files by tier
+
+    public DirectoryLeases(FileSystem fs, Path leaseDir, long ttl) {
+        this.filesystem = fs;
+        this.leaseDir = leaseDir;
+        this.ttl = ttl;
+        this.owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Take the lease on a tier of a directory, returning false if another
+     * process holds it.
+     */
+    public boolean tryAcquire(Path directory, Integer frequency, String label)
+            throws IOException {
+        String key = key(directory, frequency, label);
+        if (isHeld(directory, frequency, label)) {
+            return true;
+        }
+
+        Path lease = new Path(this.leaseDir, URLEncoder.encode(key, "UTF-8") + ".lease");
+        if (!create(lease)) {
+            if (!isExpired(lease)) {
+                return false;
+            }
+
+            LOG.warn("Breaking the expired lease " + lease);
+            this.filesystem.delete(lease, false);
+            if (!create(lease)) {
+                return false;
+            }
+        }
+
+        synchronized (this) {
+            this.held.put(key, lease);
+        }
+
+        return true;
+    }
+
+    public synchronized boolean isHeld(Path directory, Integer frequency, String label) {
+        return this.held.containsKey(key(directory, frequency, label));
+    }
+
+    /**
+     * Give up the lease on a tier of a directory, if this process holds it.
+     */
+    public void release(Path directory, Integer frequency, String label) {
+        Path lease;
+        synchronized (this) {
+            lease = this.held.remove(key(directory, frequency, label));
+        }
+
+        release(lease);
+    }
+
+    public void releaseAll() {
+        List<Path> held;
+        synchronized (this) {
+            held = new ArrayList<Path>(this.held.values());
+            this.held.clear();
+        }
+
+        for (Path lease : held) {
+            release(lease);
+        }
+    }
+
+    private void release(Path lease) {
+        if (lease == null) {
+            return;
+        }
+
+        try {
+            // A lease broken by another process is theirs now
+            String[] contents = read(lease);
+            if (contents != null && contents[0].equals(this.owner)) {
+                this.filesystem.delete(lease, false);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to release the lease " + lease + ", it'll expire", e);
+        }
+    }
+
+    private static String key(Path directory, Integer frequency, String label) {
+        return directory.toUri().getPath() + "@" + frequency + (label == null ? "" : "@" + label);
+    }
+
+    private boolean create(Path lease) throws IOException {
+        long expires = this.clock.currentTimeMillis() + this.ttl;
+
+        OutputStream out;
+        try {
+            out = this.filesystem.create(lease, false);
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (IOException e) {
+            if (this.filesystem.exists(lease)) {
+                return false;
+            }
+
+            throw e;
+        }
+
+        try {
+            out.write((this.owner + "\n" + expires + "\n").getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        return true;
+    }
+
+    private boolean isExpired(Path lease) throws IOException {
+        long now = this.clock.currentTimeMillis();
+        try {
+            String[] contents = read(lease);
+            if (contents != null) {
+                return Long.parseLong(contents[1]) < now;
+            }
+
+            // Left empty by a process that died while creating it
+            FileStatus status = this.filesystem.getFileStatus(lease);
+            return status.getModificationTime() + this.ttl < now;
+        } catch (FileNotFoundException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Return the owner and expiry written to a lease file, or null if it
+     * doesn't hold both.
+     */
+    private String[] read(Path lease) throws IOException {
+        FSDataInputStream in = this.filesystem.open(lease);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            String owner = reader.readLine();
+            String expires = reader.readLine();
+            if (owner == null || expires == null || !expires.matches("[0-9]+")) {
+                return null;
+            }
+
+            return new String[] { owner, expires };
+        } finally {
+            in.close();
+        }
+    }
+}
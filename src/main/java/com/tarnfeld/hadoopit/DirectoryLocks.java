@@ -0,0 +1,59 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * DirectoryLocks stops threads of one process working on the same
+ * directory at once, without serializing every directory behind a single
+ * lock.
+ *
+ * Directories are hashed to a fixed number of lock stripes, so unrelated
+ * directories only rarely wait for each other. Several directories are
+ * locked in stripe order, so threads locking overlapping sets (a group and
+ * one of its members) can't deadlock.
+ */
+public class DirectoryLocks {
+
+    private Lock[] stripes;
+
+    public DirectoryLocks(int stripes) {
+        this.stripes = new Lock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public Lock get(Path directory) {
+        return this.stripes[getStripe(directory)];
+    }
+
+    /**
+     * Return the locks covering every given directory, each once, in the
+     * order they should be locked.
+     */
+    public List<Lock> getAll(Collection<Path> directories) {
+        TreeSet<Integer> indexes = new TreeSet<Integer>();
+        for (Path directory : directories) {
+            indexes.add(getStripe(directory));
+        }
+
+        List<Lock> locks = new ArrayList<Lock>();
+        for (Integer index : indexes) {
+            locks.add(this.stripes[index]);
+        }
+
+        return locks;
+    }
+
+    private int getStripe(Path directory) {
+        int hash = directory.toUri().getPath().hashCode();
+        return (hash & Integer.MAX_VALUE) % this.stripes.length;
+    }
+}
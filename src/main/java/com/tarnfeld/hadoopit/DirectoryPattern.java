@@ -0,0 +1,100 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * DirectoryPattern matches the paths of snapshottable directories, either
+ * with a glob or (prefixed with `regex:`) a regular expression matched
+ * against the whole path.
+ *
+ * In a glob `*` matches within a single path component, `**` matches across
+ * components, `?` matches one character, and `[abc]` and `{a,b}` match one
+ * of a set of characters or alternatives.
+ */
+public class DirectoryPattern {
+
+    private static final String REGEX_PREFIX = "regex:";
+
+    private String source;
+    private Pattern pattern;
+
+    private DirectoryPattern(String source, Pattern pattern) {
+        this.source = source;
+        this.pattern = pattern;
+    }
+
+    /**
+     * Return true if the value is a pattern, rather than a plain path.
+     */
+    public static boolean isPattern(String value) {
+        return value.startsWith(REGEX_PREFIX) || value.matches(".*[*?\\[{].*");
+    }
+
+    public static DirectoryPattern compile(String value) {
+        try {
+            if (value.startsWith(REGEX_PREFIX)) {
+                return new DirectoryPattern(value, Pattern.compile(value.substring(REGEX_PREFIX.length())));
+            }
+
+            return new DirectoryPattern(value, Pattern.compile(globToRegex(value)));
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid directory pattern '" + value + "': " +
+                                               e.getDescription());
+        }
+    }
+
+    public boolean matches(Path directory) {
+        return this.pattern.matcher(directory.toUri().getPath()).matches();
+    }
+
+    @Override
+    public String toString() {
+        return this.source;
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inAlternatives = false;
+
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else {
+                    regex.append("[^/]*");
+                }
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if (c == '[') {
+                int end = glob.indexOf(']', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed [ in directory pattern '" + glob + "'");
+                }
+
+                regex.append(glob, i, end + 1);
+                i = end;
+            } else if (c == '{') {
+                regex.append("(?:");
+                inAlternatives = true;
+            } else if (c == '}' && inAlternatives) {
+                regex.append(')');
+                inAlternatives = false;
+            } else if (c == ',' && inAlternatives) {
+                regex.append('|');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+
+        if (inAlternatives) {
+            throw new IllegalArgumentException("Unclosed { in directory pattern '" + glob + "'");
+        }
+
+        return regex.toString();
+    }
+}
@@ -0,0 +1,107 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joda.time.Chronology;
+import org.joda.time.DateTimeField;
+import org.joda.time.chrono.ISOChronology;
+
+/**
+ * GfsRetentionPolicy thins a single stream of snapshots grandfather-father-
+ * son style; it keeps the newest snapshot of each of the last N hours, days,
+ * weeks and months that have snapshots. A snapshot is kept if any period
+ * keeps it.
+ *
+ * For example "hourly=24,daily=7,weekly=4,monthly=12" on an hourly tier
+ * keeps a day of hourly snapshots, a week of daily snapshots and so on,
+ * from a single createSnapshot per hour. Periods follow the calendar in the
+ * default time zone.
+ */
+public class GfsRetentionPolicy implements RetentionPolicy {
+
+    private int hourly;
+    private int daily;
+    private int weekly;
+    private int monthly;
+
+    public GfsRetentionPolicy(int hourly, int daily, int weekly, int monthly) {
+        if (hourly < 0 || daily < 0 || weekly < 0 || monthly < 0) {
+            throw new IllegalArgumentException("Retention can't be negative");
+        }
+        if (hourly + daily + weekly + monthly == 0) {
+            throw new IllegalArgumentException("At least one period must be retained");
+        }
+
+        this.hourly = hourly;
+        this.daily = daily;
+        this.weekly = weekly;
+        this.monthly = monthly;
+    }
+
+    @Override
+    public int[] selectOutdated(long[] created, int size, long now) {
+        Chronology chronology = ISOChronology.getInstance();
+        boolean[] keep = new boolean[size];
+
+        retain(keep, created, size, chronology.hourOfDay(), this.hourly);
+        retain(keep, created, size, chronology.dayOfMonth(), this.daily);
+        retain(keep, created, size, chronology.weekOfWeekyear(), this.weekly);
+        retain(keep, created, size, chronology.monthOfYear(), this.monthly);
+
+        int found = 0;
+        for (int i = 0; i < size; i++) {
+            if (!keep[i]) {
+                found++;
+            }
+        }
+
+        int[] outdated = new int[found];
+        found = 0;
+        for (int i = 0; i < size; i++) {
+            if (!keep[i]) {
+                outdated[found++] = i;
+            }
+        }
+
+        return outdated;
+    }
+
+    /**
+     * Mark the newest snapshot in each of the `periods` newest periods of
+     * the given field as kept.
+     */
+    private void retain(boolean[] keep, long[] created, int size,
+                        DateTimeField field, int periods) {
+        if (periods == 0) {
+            return;
+        }
+
+        Map<Long, Integer> newest = new HashMap<Long, Integer>();
+        for (int i = 0; i < size; i++) {
+            Long period = field.roundFloor(created[i]);
+            Integer current = newest.get(period);
+            if (current == null || created[current] < created[i]) {
+                newest.put(period, i);
+            }
+        }
+
+        long[] starts = new long[newest.size()];
+        int i = 0;
+        for (Long start : newest.keySet()) {
+            starts[i++] = start;
+        }
+
+        Arrays.sort(starts);
+        for (int j = starts.length - 1; j >= 0 && j >= starts.length - periods; j--) {
+            keep[newest.get(starts[j])] = true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "gfs:hourly=" + this.hourly + ",daily=" + this.daily +
+               ",weekly=" + this.weekly + ",monthly=" + this.monthly;
+    }
+}
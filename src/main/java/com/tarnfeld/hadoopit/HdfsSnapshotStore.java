@@ -0,0 +1,73 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
+
+/**
+ * HdfsSnapshotStore makes snapshot calls against an HDFS NameNode.
+ */
+public class HdfsSnapshotStore implements SnapshotStore {
+
+    private DistributedFileSystem filesystem;
+
+    public HdfsSnapshotStore(DistributedFileSystem fs) {
+        this.filesystem = fs;
+    }
+
+    public DistributedFileSystem getFileSystem() {
+        return this.filesystem;
+    }
+
+    /**
+     * Return the filesystem behind the store, or null if it isn't HDFS.
+     */
+    public static DistributedFileSystem getFileSystem(SnapshotStore store) {
+        if (store instanceof HdfsSnapshotStore) {
+            return ((HdfsSnapshotStore) store).getFileSystem();
+        }
+
+        return null;
+    }
+
+    @Override
+    public URI getUri() {
+        return this.filesystem.getUri();
+    }
+
+    @Override
+    public SnapshottableDirectoryStatus[] getSnapshottableDirListing() throws IOException {
+        return this.filesystem.getSnapshottableDirListing();
+    }
+
+    @Override
+    public FileStatus[] listSnapshots(Path directory) throws IOException {
+        FileStatus[] files = null;
+        try {
+            files = this.filesystem.globStatus(new Path(directory + "/.snapshot/*"));
+        } catch (FileNotFoundException e) {
+        }
+
+        return files == null ? new FileStatus[0] : files;
+    }
+
+    @Override
+    public Path createSnapshot(Path directory, String name) throws IOException {
+        return this.filesystem.createSnapshot(directory, name);
+    }
+
+    @Override
+    public void deleteSnapshot(Path directory, String name) throws IOException {
+        this.filesystem.deleteSnapshot(directory, name);
+    }
+
+    @Override
+    public boolean exists(Path path) throws IOException {
+        return this.filesystem.exists(path);
+    }
+}
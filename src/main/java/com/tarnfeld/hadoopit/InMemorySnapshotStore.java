@@ -0,0 +1,194 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.SnapshotException;
+import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
+
+/**
+ * InMemorySnapshotStore simulates a NameNode holding snapshots, so hadoopit
+ * can be tested and benchmarked at the scale of thousands of directories
+ * without a cluster.
+ *
+ * Every call can be made to take a fixed time, simulating RPC latency, and
+ * a random fraction of them to fail with an IOException. Snapshots are
+ * timestamped by the given clock.
+ */
+public class InMemorySnapshotStore implements SnapshotStore {
+
+    private static final URI STORE_URI = URI.create("memory://namenode");
+    private static final int SNAPSHOT_QUOTA = 65536; // Snapshots allowed per directory
+
+    private Clock clock;
+    private volatile long latency = 0; // Millis each call takes
+    private double failureRate = 0; // Fraction of calls that fail
+    private Random random = new Random(0);
+    private AtomicLong calls = new AtomicLong();
+
+    // Snapshots of every snapshottable directory, keyed by path and name
+    private Map<String, Map<String, FileStatus>> directories =
+        new LinkedHashMap<String, Map<String, FileStatus>>();
+
+    public InMemorySnapshotStore(Clock clock) {
+        this.clock = clock;
+    }
+
+    public synchronized void allowSnapshot(Path directory) {
+        if (!this.directories.containsKey(key(directory))) {
+            this.directories.put(key(directory), new HashMap<String, FileStatus>());
+        }
+    }
+
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Make a fraction of calls fail, chosen by a random generator seeded
+     * with the given seed so runs can be repeated.
+     */
+    public synchronized void setFailureRate(double failureRate, long seed) {
+        this.failureRate = failureRate;
+        this.random = new Random(seed);
+    }
+
+    public long getCalls() {
+        return this.calls.get();
+    }
+
+    public synchronized int getSnapshotCount(Path directory) {
+        Map<String, FileStatus> snapshots = this.directories.get(key(directory));
+        return snapshots == null ? 0 : snapshots.size();
+    }
+
+    @Override
+    public URI getUri() {
+        return STORE_URI;
+    }
+
+    @Override
+    public SnapshottableDirectoryStatus[] getSnapshottableDirListing() throws IOException {
+        call();
+
+        synchronized (this) {
+            List<SnapshottableDirectoryStatus> listing = new ArrayList<SnapshottableDirectoryStatus>();
+            for (Map.Entry<String, Map<String, FileStatus>> dir : this.directories.entrySet()) {
+                listing.add(new SnapshottableDirectoryStatus(
+                    0, 0, null, null, null, dir.getKey().getBytes("UTF-8"), 0, 0,
+                    dir.getValue().size(), SNAPSHOT_QUOTA, new byte[0]));
+            }
+
+            return listing.toArray(new SnapshottableDirectoryStatus[listing.size()]);
+        }
+    }
+
+    @Override
+    public FileStatus[] listSnapshots(Path directory) throws IOException {
+        call();
+
+        synchronized (this) {
+            Map<String, FileStatus> snapshots = this.directories.get(key(directory));
+            if (snapshots == null) {
+                return new FileStatus[0];
+            }
+
+            return snapshots.values().toArray(new FileStatus[snapshots.size()]);
+        }
+    }
+
+    @Override
+    public Path createSnapshot(Path directory, String name) throws IOException {
+        call();
+
+        synchronized (this) {
+            Map<String, FileStatus> snapshots = getSnapshots(directory);
+            if (snapshots.containsKey(name)) {
+                throw new SnapshotException("The snapshot " + name + " already exists for " + directory);
+            } else if (snapshots.size() >= SNAPSHOT_QUOTA) {
+                throw new SnapshotException("Failed to add snapshot: there are already " +
+                                            snapshots.size() + " snapshot(s)");
+            }
+
+            Path path = new Path(key(directory) + "/.snapshot/" + name);
+            snapshots.put(name, new FileStatus(0, true, 0, 0, this.clock.currentTimeMillis(), path));
+
+            return path;
+        }
+    }
+
+    @Override
+    public void deleteSnapshot(Path directory, String name) throws IOException {
+        call();
+
+        synchronized (this) {
+            if (getSnapshots(directory).remove(name) == null) {
+                throw new SnapshotException("Cannot delete snapshot " + name + " from path " +
+                                            directory + ": the snapshot does not exist.");
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(Path path) throws IOException {
+        call();
+
+        String key = key(path);
+        int snapshotDir = key.indexOf("/.snapshot/");
+
+        synchronized (this) {
+            if (snapshotDir < 0) {
+                return this.directories.containsKey(key);
+            }
+
+            Map<String, FileStatus> snapshots = this.directories.get(key.substring(0, snapshotDir));
+            return snapshots != null && snapshots.containsKey(key.substring(snapshotDir + 11));
+        }
+    }
+
+    private Map<String, FileStatus> getSnapshots(Path directory) throws SnapshotException {
+        Map<String, FileStatus> snapshots = this.directories.get(key(directory));
+        if (snapshots == null) {
+            throw new SnapshotException("Directory is not a snapshottable directory: " + directory);
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * Simulate making a call, taking the configured latency and failing at
+     * the configured rate.
+     */
+    private void call() throws IOException {
+        this.calls.incrementAndGet();
+
+        if (this.latency > 0) {
+            try {
+                Thread.sleep(this.latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted during a simulated call");
+            }
+        }
+
+        synchronized (this) {
+            if (this.failureRate > 0 && this.random.nextDouble() < this.failureRate) {
+                throw new IOException("Simulated failure");
+            }
+        }
+    }
+
+    private static String key(Path path) {
+        return new Path(path.toUri().getPath()).toString();
+    }
+}
@@ -0,0 +1,23 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+
+/**
+ * InvalidSnapshotNameException is thrown when a snapshot name doesn't follow
+ * the `hadoopit-FREQUENCY-TIMESTAMP[-LABEL]` naming scheme.
+ */
+public class InvalidSnapshotNameException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+
+    public InvalidSnapshotNameException(String name, String reason) {
+        super("Invalid snapshot name " + name + ": " + reason);
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+}
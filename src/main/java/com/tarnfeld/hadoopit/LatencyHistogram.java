@@ -0,0 +1,88 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts operation latencies into fixed buckets, cheaply
+ * and without locking, for export as a Prometheus style histogram.
+ */
+public class LatencyHistogram {
+
+    // Upper bounds of each bucket in millis, the last bucket is unbounded
+    private static final long[] BOUNDS = {
+        1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000
+    };
+
+    private static final double RECENT_WEIGHT = 0.2; // Weight of each new latency in the average
+
+    private AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private AtomicLong count = new AtomicLong();
+    private AtomicLong sum = new AtomicLong(); // Total latency in micros
+
+    // Moving average of recent latencies, updates may race and lose samples
+    private volatile double recent = 0;
+    private volatile long lastRecorded = 0; // When the last latency was recorded
+
+    public void record(long nanos) {
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (bucket < BOUNDS.length && millis >= BOUNDS[bucket]) {
+            bucket++;
+        }
+
+        this.buckets.incrementAndGet(bucket);
+        this.count.incrementAndGet();
+        this.sum.addAndGet(nanos / 1000);
+
+        double sample = nanos / 1e6;
+        this.recent = this.count.get() == 1 ? sample : this.recent + RECENT_WEIGHT * (sample - this.recent);
+        this.lastRecorded = System.currentTimeMillis();
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public double getSumMillis() {
+        return this.sum.get() / 1000.0;
+    }
+
+    public double getMeanMillis() {
+        long count = this.count.get();
+        return count == 0 ? 0 : getSumMillis() / count;
+    }
+
+    /**
+     * Return an exponentially weighted average of recent latencies.
+     */
+    public double getRecentMillis() {
+        return this.recent;
+    }
+
+    public long getLastRecorded() {
+        return this.lastRecorded;
+    }
+
+    /**
+     * Append the histogram in the Prometheus text format, with cumulative
+     * buckets labelled by their upper bound in seconds.
+     */
+    public void writeText(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+
+        long cumulative = 0;
+        for (int i = 0; i <= BOUNDS.length; i++) {
+            cumulative += this.buckets.get(i);
+            String bound = i < BOUNDS.length ? Double.toString(BOUNDS[i] / 1000.0) : "+Inf";
+            out.append(name).append("_bucket{").append(prefix)
+               .append("le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+        }
+
+        String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(suffix).append(' ')
+           .append(getSumMillis() / 1000.0).append('\n');
+        out.append(name).append("_count").append(suffix).append(' ')
+           .append(getCount()).append('\n');
+    }
+}
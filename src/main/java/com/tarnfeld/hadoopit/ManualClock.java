@@ -0,0 +1,26 @@
+package com.tarnfeld.hadoopit;
+
+/**
+ * ManualClock only moves when it's told to.
+ */
+public class ManualClock implements Clock {
+
+    private volatile long now;
+
+    public ManualClock(long now) {
+        this.now = now;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return this.now;
+    }
+
+    public void set(long now) {
+        this.now = now;
+    }
+
+    public synchronized void advance(long millis) {
+        this.now += millis;
+    }
+}
@@ -0,0 +1,48 @@
+package com.tarnfeld.hadoopit;
+
+/**
+ * MaxAgeRetentionPolicy keeps every snapshot younger than a maximum age. The
+ * newest snapshot is always kept, so a directory that stops being
+ * snapshotted doesn't lose its last snapshot.
+ */
+public class MaxAgeRetentionPolicy implements RetentionPolicy {
+
+    private long maxAge; // Maximum age in millis
+    private String spec;
+
+    public MaxAgeRetentionPolicy(long maxAge, String spec) {
+        if (maxAge <= 0) {
+            throw new IllegalArgumentException("Maximum age must be positive");
+        }
+
+        this.maxAge = maxAge;
+        this.spec = spec;
+    }
+
+    public long getMaxAge() {
+        return this.maxAge;
+    }
+
+    @Override
+    public int[] selectOutdated(long[] created, int size, long now) {
+        int newest = RetentionSelector.selectNewest(created, size);
+        long cutoff = now - this.maxAge;
+
+        int[] outdated = new int[size];
+        int found = 0;
+        for (int i = 0; i < size; i++) {
+            if (i != newest && created[i] < cutoff) {
+                outdated[found++] = i;
+            }
+        }
+
+        int[] result = new int[found];
+        System.arraycopy(outdated, 0, result, 0, found);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "age:" + this.spec;
+    }
+}
@@ -0,0 +1,118 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * MetricsExporter publishes SnapshotMetrics in the Prometheus text format,
+ * either by writing them to a file (e.g for the node exporter's textfile
+ * collector) or by serving them over HTTP at `/metrics`.
+ */
+public class MetricsExporter {
+    private static final Log LOG = LogFactory.getLog(MetricsExporter.class);
+
+    private SnapshotMetrics metrics;
+    private File file; // Optional file to write metrics to
+    private Integer port; // Optional port to serve metrics on
+
+    private HttpServer server;
+    private ScheduledExecutorService writer;
+
+    public MetricsExporter(SnapshotMetrics metrics, File file, Integer port) {
+        this.metrics = metrics;
+        this.file = file;
+        this.port = port;
+    }
+
+    /**
+     * Start serving metrics over HTTP, and writing them to the file every
+     * `interval` seconds.
+     */
+    public synchronized void start(int interval) throws IOException {
+        if (this.port != null) {
+            this.server = HttpServer.create(new InetSocketAddress(this.port), 0);
+            this.server.createContext("/metrics", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    byte[] body = metrics.toText().getBytes("UTF-8");
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+                    exchange.sendResponseHeaders(200, body.length);
+
+                    OutputStream out = exchange.getResponseBody();
+                    try {
+                        out.write(body);
+                    } finally {
+                        out.close();
+                    }
+                }
+            });
+            this.server.start();
+
+            LOG.info("Serving metrics on port " + this.port);
+        }
+
+        if (this.file != null) {
+            this.writer = Executors.newSingleThreadScheduledExecutor();
+            this.writer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        write();
+                    } catch (IOException e) {
+                        LOG.warn("Failed to write metrics to " + file, e);
+                    }
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stop serving metrics, and write them out one last time.
+     */
+    public synchronized void stop() throws IOException {
+        if (this.server != null) {
+            this.server.stop(0);
+        }
+
+        if (this.writer != null) {
+            this.writer.shutdownNow();
+        }
+
+        write();
+    }
+
+    /**
+     * Write the metrics to the file, replacing it atomically so a scraper
+     * never sees a partial file.
+     */
+    public void write() throws IOException {
+        if (this.file == null) {
+            return;
+        }
+
+        File temporary = new File(this.file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            out.write(this.metrics.toText().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        if (!temporary.renameTo(this.file)) {
+            throw new IOException("Failed to replace metrics file " + this.file);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * NotSnapshottableException is thrown when a directory to be managed hasn't
+ * had snapshots allowed on it. If the directory lives below a snapshottable
+ * directory, that directory is available from getSnapshottableRoot().
+ */
+public class NotSnapshottableException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private Path directory;
+    private Path snapshottableRoot;
+
+    public NotSnapshottableException(Path directory, Path snapshottableRoot) {
+        super(snapshottableRoot == null ?
+              "The directory " + directory + " is not snapshottable" :
+              "The directory " + directory + " is not snapshottable, but is inside " +
+              "the snapshottable directory " + snapshottableRoot);
+        this.directory = directory;
+        this.snapshottableRoot = snapshottableRoot;
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    public Path getSnapshottableRoot() {
+        return this.snapshottableRoot;
+    }
+}
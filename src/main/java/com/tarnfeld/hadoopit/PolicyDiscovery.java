@@ -0,0 +1,83 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * PolicyDiscovery expands policies with a DirectoryPattern into a policy
+ * for every snapshottable directory the pattern matches.
+ *
+ * A directory given its own policy is left out of every pattern, so a
+ * broad rule can be overridden for a single directory. A directory matching
+ * several patterns gets a tier from each of them. Snapshottable directories
+ * that no policy covers are logged, so they don't go unprotected unnoticed.
+ */
+public class PolicyDiscovery {
+    private static final Log LOG = LogFactory.getLog(PolicyDiscovery.class);
+
+    public static boolean hasPatterns(List<SnapshotPolicy> policies) {
+        for (SnapshotPolicy policy : policies) {
+            if (policy.isPattern()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Expand the patterns, failing if a group member ends up with another
+     * tier at the group's frequency.
+     */
+    public static List<SnapshotPolicy> expand(List<SnapshotPolicy> policies,
+                                              List<Path> directories) throws IOException {
+        Set<String> explicit = new HashSet<String>();
+        for (SnapshotPolicy policy : policies) {
+            if (!policy.isPattern()) {
+                explicit.add(policy.getDirectory().toUri().getPath());
+            }
+        }
+
+        List<SnapshotPolicy> expanded = new ArrayList<SnapshotPolicy>();
+        Set<String> covered = new HashSet<String>(explicit);
+        for (SnapshotPolicy policy : policies) {
+            if (!policy.isPattern()) {
+                expanded.add(policy);
+                continue;
+            }
+
+            int matched = 0;
+            for (Path directory : directories) {
+                String key = directory.toUri().getPath();
+                if (!explicit.contains(key) && policy.getPattern().matches(directory)) {
+                    expanded.add(policy.forDirectory(directory));
+                    covered.add(key);
+                    matched++;
+                }
+            }
+
+            if (matched == 0) {
+                LOG.warn("No snapshottable directories match " + policy.getPattern());
+            } else {
+                LOG.info("Found " + matched + " snapshottable directories matching " +
+                         policy.getPattern());
+            }
+        }
+
+        for (Path directory : directories) {
+            if (!covered.contains(directory.toUri().getPath())) {
+                LOG.warn("Snapshottable directory " + directory + " isn't covered by any policy");
+            }
+        }
+
+        PolicyFile.checkGroups(expanded);
+        return expanded;
+    }
+}
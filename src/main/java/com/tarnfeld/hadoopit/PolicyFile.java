@@ -0,0 +1,181 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * PolicyFile reads a list of snapshot policies from a plain text file, one
+ * tier per line, in the form;
+ *
+ *   DIRECTORY FREQUENCY RETENTION [LABEL] [KEY=VALUE ...]
+ *
+ * Blank lines and lines starting with `#` are ignored. A directory can be
+ * listed more than once to give it several tiers, and DIRECTORY can be a
+ * glob or `regex:PATTERN` matching every snapshottable directory it
+ * should apply to (see DirectoryPattern). RETENTION is any spec
+ * accepted by RetentionPolicies.parse(), such as `24`, `age:7d` or
+ * `gfs:hourly=24,daily=7`.
+ *
+ * Options are `only-if-changed=true`, which skips snapshots when the
+ * directory hasn't changed since the latest one, and `group=NAME`, which
+ * snapshots every directory in the named group together. Every member of
+ * a group must have the same frequency and retention, and the label
+ * defaults to the group name. A member can't have another tier at the
+ * group's frequency, as the two would share snapshots. `watch=CHANGES` has the daemon take the
+ * snapshot early once the directory has that many changes (see
+ * ChangeWatcher), and can't be used with a group.
+ */
+public class PolicyFile {
+
+    public static List<SnapshotPolicy> load(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            return parse(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static List<SnapshotPolicy> parse(Reader input) throws IOException {
+        BufferedReader reader = new BufferedReader(input);
+        List<SnapshotPolicy> policies = new ArrayList<SnapshotPolicy>();
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            List<String> parts = new ArrayList<String>();
+            Map<String, String> options = new HashMap<String, String>();
+            for (String token : line.split("\\s+")) {
+                int equals = token.indexOf('=');
+                if (parts.size() >= 3 && equals > 0) {
+                    options.put(token.substring(0, equals), token.substring(equals + 1));
+                } else if (options.isEmpty()) {
+                    parts.add(token);
+                } else {
+                    throw new IOException("Line " + lineNumber + ": options must " +
+                                          "come after the label");
+                }
+            }
+
+            if (parts.size() < 3 || parts.size() > 4) {
+                throw new IOException("Line " + lineNumber + ": expected " +
+                                      "DIRECTORY FREQUENCY RETENTION [LABEL] [KEY=VALUE ...]");
+            }
+
+            Integer frequency = parseInteger(parts.get(1), "frequency", lineNumber);
+            if (frequency <= 0) {
+                throw new IOException("Line " + lineNumber + ": frequency must be positive");
+            }
+
+            RetentionPolicy retention;
+            try {
+                retention = RetentionPolicies.parse(parts.get(2));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+            }
+
+            boolean onlyIfChanged = false;
+            String group = null;
+            Integer watchThreshold = null;
+            for (Map.Entry<String, String> option : options.entrySet()) {
+                if (option.getKey().equals("only-if-changed")) {
+                    onlyIfChanged = parseBoolean(option.getValue(), option.getKey(), lineNumber);
+                } else if (option.getKey().equals("group") && !option.getValue().isEmpty()) {
+                    group = option.getValue();
+                } else if (option.getKey().equals("watch")) {
+                    watchThreshold = parseInteger(option.getValue(), option.getKey(), lineNumber);
+                    if (watchThreshold <= 0) {
+                        throw new IOException("Line " + lineNumber + ": watch must be positive");
+                    }
+                } else {
+                    throw new IOException("Line " + lineNumber + ": unknown option '" +
+                                          option.getKey() + "'");
+                }
+            }
+
+            if (group != null && watchThreshold != null) {
+                throw new IOException("Line " + lineNumber + ": snapshot groups can't be watched");
+            }
+
+            String label = parts.size() > 3 ? parts.get(3) : group;
+            String directory = parts.get(0);
+            if (DirectoryPattern.isPattern(directory)) {
+                DirectoryPattern pattern;
+                try {
+                    pattern = DirectoryPattern.compile(directory);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+                }
+
+                policies.add(new SnapshotPolicy(pattern, frequency, retention,
+                                                label, onlyIfChanged, group, watchThreshold));
+            } else {
+                policies.add(new SnapshotPolicy(new Path(directory), frequency, retention,
+                                                label, onlyIfChanged, group, watchThreshold));
+            }
+        }
+
+        checkGroups(policies);
+        return policies;
+    }
+
+    /**
+     * Reject a group member with another tier at the group's frequency. The
+     * tiers of a directory are indexed by frequency, so the other tier would
+     * count the group's snapshots as its own and delete them from just this
+     * member.
+     */
+    static void checkGroups(List<SnapshotPolicy> policies) throws IOException {
+        Map<String, SnapshotPolicy> tiers = new HashMap<String, SnapshotPolicy>();
+        for (SnapshotPolicy policy : policies) {
+            if (policy.isPattern()) {
+                continue;
+            }
+
+            String key = policy.getDirectory().toUri().getPath() + ":" + policy.getFrequency();
+            SnapshotPolicy other = tiers.put(key, policy);
+            if (other != null && (policy.getGroup() != null || other.getGroup() != null)) {
+                String group = policy.getGroup() != null ? policy.getGroup() : other.getGroup();
+                throw new IOException(policy.getDirectory() + " has another tier every " +
+                                      policy.getFrequency() + " minutes besides group " +
+                                      group + ", they would share snapshots");
+            }
+        }
+    }
+
+    private static Integer parseInteger(String value, String field, int lineNumber)
+            throws IOException {
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Line " + lineNumber + ": invalid " + field +
+                                  " '" + value + "'");
+        }
+    }
+
+    private static boolean parseBoolean(String value, String field, int lineNumber)
+            throws IOException {
+        if (value.equals("true") || value.equals("false")) {
+            return Boolean.parseBoolean(value);
+        }
+
+        throw new IOException("Line " + lineNumber + ": invalid " + field +
+                              " '" + value + "'");
+    }
+}
@@ -0,0 +1,69 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * RestoreSummary records the outcome of restoring files from a snapshot;
+ * which files were copied (or would be, for a dry run), which were left
+ * alone because they already matched, which failed (and why) and which
+ * exist at the destination but not in the snapshot.
+ */
+public class RestoreSummary {
+
+    private List<Path> copied = new ArrayList<Path>();
+    private List<Path> unchanged = new ArrayList<Path>();
+    private Map<Path, Exception> failed = new LinkedHashMap<Path, Exception>();
+    private List<Path> extra = new ArrayList<Path>();
+    private long bytesCopied = 0;
+
+    public synchronized void addCopied(Path destination, long bytes) {
+        this.copied.add(destination);
+        this.bytesCopied += bytes;
+    }
+
+    public synchronized void addUnchanged(Path destination) {
+        this.unchanged.add(destination);
+    }
+
+    public synchronized void addFailed(Path destination, Exception cause) {
+        this.failed.put(destination, cause);
+    }
+
+    public synchronized void addExtra(Path destination) {
+        this.extra.add(destination);
+    }
+
+    public synchronized List<Path> getCopied() {
+        return new ArrayList<Path>(this.copied);
+    }
+
+    public synchronized List<Path> getUnchanged() {
+        return new ArrayList<Path>(this.unchanged);
+    }
+
+    public synchronized Map<Path, Exception> getFailed() {
+        return new LinkedHashMap<Path, Exception>(this.failed);
+    }
+
+    public synchronized List<Path> getExtra() {
+        return new ArrayList<Path>(this.extra);
+    }
+
+    public synchronized long getBytesCopied() {
+        return this.bytesCopied;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "copied=" + this.copied.size() +
+               " (" + this.bytesCopied + " bytes)" +
+               ", unchanged=" + this.unchanged.size() +
+               ", failed=" + this.failed.size() +
+               ", extra=" + this.extra.size();
+    }
+}
@@ -0,0 +1,77 @@
+package com.tarnfeld.hadoopit;
+
+/**
+ * RetentionPolicies creates retention policies from their textual spec;
+ *
+ *   24                                   keep the newest 24 (0 keeps all)
+ *   count:24                             the same as above
+ *   age:7d                               keep a week, units are m, h, d, w
+ *   gfs:hourly=24,daily=7,weekly=4,monthly=12
+ *                                        grandfather-father-son thinning
+ */
+public class RetentionPolicies {
+
+    public static RetentionPolicy parse(String spec) {
+        try {
+            if (spec.startsWith("count:")) {
+                return new CountRetentionPolicy(Integer.parseInt(spec.substring(6)));
+            } else if (spec.startsWith("age:")) {
+                return parseAge(spec.substring(4));
+            } else if (spec.startsWith("gfs:")) {
+                return parseGfs(spec.substring(4));
+            }
+
+            return new CountRetentionPolicy(Integer.parseInt(spec));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid retention '" + spec + "'");
+        }
+    }
+
+    private static RetentionPolicy parseAge(String age) {
+        if (age.length() < 2) {
+            throw new IllegalArgumentException("Invalid age '" + age + "'");
+        }
+
+        long value = Long.parseLong(age.substring(0, age.length() - 1));
+        long unit;
+        switch (age.charAt(age.length() - 1)) {
+            case 'm': unit = 60 * 1000L; break;
+            case 'h': unit = 60 * 60 * 1000L; break;
+            case 'd': unit = 24 * 60 * 60 * 1000L; break;
+            case 'w': unit = 7 * 24 * 60 * 60 * 1000L; break;
+            default:
+                throw new IllegalArgumentException("Invalid age unit in '" + age + "'");
+        }
+
+        return new MaxAgeRetentionPolicy(value * unit, age);
+    }
+
+    private static RetentionPolicy parseGfs(String periods) {
+        int hourly = 0;
+        int daily = 0;
+        int weekly = 0;
+        int monthly = 0;
+
+        for (String period : periods.split(",")) {
+            String[] parts = period.split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid period '" + period + "'");
+            }
+
+            int count = Integer.parseInt(parts[1]);
+            if (parts[0].equals("hourly")) {
+                hourly = count;
+            } else if (parts[0].equals("daily")) {
+                daily = count;
+            } else if (parts[0].equals("weekly")) {
+                weekly = count;
+            } else if (parts[0].equals("monthly")) {
+                monthly = count;
+            } else {
+                throw new IllegalArgumentException("Unknown period '" + parts[0] + "'");
+            }
+        }
+
+        return new GfsRetentionPolicy(hourly, daily, weekly, monthly);
+    }
+}
@@ -0,0 +1,18 @@
+package com.tarnfeld.hadoopit;
+
+/**
+ * RetentionPolicy decides which snapshots of a tier are outdated and should
+ * be cleaned up. Policies work on the creation times of the snapshots alone,
+ * so they can be applied without building Snapshot objects.
+ *
+ * Policies are created from a textual spec with RetentionPolicies.parse().
+ */
+public interface RetentionPolicy {
+
+    /**
+     * Return the indices of every entry of `created` (up to `size`) that is
+     * outdated at time `now`, in no particular order. Creation times are in
+     * epoch millis and are not sorted.
+     */
+    int[] selectOutdated(long[] created, int size, long now);
+}
@@ -0,0 +1,111 @@
+package com.tarnfeld.hadoopit;
+
+/**
+ * RetentionSelector picks which snapshots fall outside of a count based
+ * retention from their creation times alone, without sorting them.
+ *
+ * Only the cutoff (the creation time of the newest outdated snapshot) is
+ * found, with a quickselect over a copy of the times, so selection is
+ * linear in the number of snapshots on average.
+ */
+public class RetentionSelector {
+
+    /**
+     * Return the indices of every entry of `created` (up to `size`) other
+     * than the `retain` newest, in no particular order.
+     */
+    public static int[] selectOutdated(long[] created, int size, int retain) {
+        int outdated = size - retain;
+        if (retain < 0 || outdated <= 0) {
+            return new int[0];
+        }
+
+        long[] times = new long[size];
+        System.arraycopy(created, 0, times, 0, size);
+        long cutoff = select(times, outdated - 1);
+
+        // Take everything strictly older than the cutoff, then as many
+        // snapshots created exactly at the cutoff as are still needed
+        int[] indices = new int[outdated];
+        int found = 0;
+        for (int i = 0; i < size; i++) {
+            if (created[i] < cutoff) {
+                indices[found++] = i;
+            }
+        }
+
+        for (int i = 0; i < size && found < outdated; i++) {
+            if (created[i] == cutoff) {
+                indices[found++] = i;
+            }
+        }
+
+        return indices;
+    }
+
+    /**
+     * Return the index of the largest value of `created` (up to `size`), or
+     * -1 if there are none.
+     */
+    public static int selectNewest(long[] created, int size) {
+        int newest = -1;
+        for (int i = 0; i < size; i++) {
+            if (newest < 0 || created[i] > created[newest]) {
+                newest = i;
+            }
+        }
+
+        return newest;
+    }
+
+    /**
+     * Return the k-th smallest value (from zero) of the array, reordering
+     * it in the process.
+     */
+    static long select(long[] values, int k) {
+        int left = 0;
+        int right = values.length - 1;
+
+        while (left < right) {
+            // Median of three pivot, listings are often already ordered
+            int middle = (left + right) >>> 1;
+            long pivot = median(values[left], values[middle], values[right]);
+
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    long swap = values[i];
+                    values[i] = values[j];
+                    values[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return values[k];
+            }
+        }
+
+        return values[k];
+    }
+
+    private static long median(long a, long b, long c) {
+        if (a < b) {
+            return b < c ? b : (a < c ? c : a);
+        }
+
+        return a < c ? a : (b < c ? c : b);
+    }
+}
@@ -0,0 +1,400 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * RunJournal is a local write-ahead log of the snapshot operations made by
+ * a single run, so a run that dies part way through can be resumed.
+ *
+ * Deletes are recorded as planned, and the journal synced, before any of
+ * them are made. Their outcomes are synced in batches, so a crash can lose
+ * the last few, in which case the delete is retried and finds the snapshot
+ * already gone. When the journal is opened every delete planned by the
+ * previous run that didn't complete is carried over to the new run.
+ *
+ * Only one run can have a journal open at a time, it's held with a lock on
+ * a file in the journal directory until the run finishes.
+ *
+ * Records are tab separated lines;
+ *
+ *   S STARTED_MILLIS           (run started)
+ *   P DIRECTORY NAME           (delete planned)
+ *   C DIRECTORY NAME           (snapshot created)
+ *   D DIRECTORY NAME           (snapshot deleted)
+ *   F DIRECTORY NAME           (delete failed)
+ *   A DIRECTORY NAME           (carried delete abandoned)
+ *   E FINISHED_MILLIS          (run finished)
+ */
+public class RunJournal {
+    private static final Log LOG = LogFactory.getLog(RunJournal.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String JOURNAL_FILE = "journal.log";
+    private static final String REPORT_FILE = "last-run.report";
+    private static final String LOCK_FILE = "journal.lock";
+
+    private File directory;
+    private int syncBatch; // Records written between syncs
+    private FileLock lock;
+
+    // Deletes planned but not yet completed, keyed by directory
+    private Map<String, Set<String>> pending = new LinkedHashMap<String, Set<String>>();
+
+    // Deletes carried over from the previous run and not yet claimed
+    private Map<String, Set<String>> carried = new LinkedHashMap<String, Set<String>>();
+
+    private FileOutputStream stream;
+    private Writer journal;
+    private int unsynced = 0;
+
+    private long started;
+    private boolean resumed = false;
+    private int carriedCount = 0;
+    private int created = 0;
+    private int deleted = 0;
+    private int failed = 0;
+
+    public RunJournal(File directory, int syncBatch, long started) throws IOException {
+        this(directory, syncBatch, started, tryLock(directory));
+    }
+
+    private RunJournal(File directory, int syncBatch, long started,
+                       FileLock lock) throws IOException {
+        if (lock == null) {
+            throw new IOException("Journal " + directory + " is in use by another run");
+        }
+
+        this.directory = directory;
+        this.syncBatch = syncBatch;
+        this.started = started;
+        this.lock = lock;
+
+        try {
+            load();
+        } catch (IOException e) {
+            unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Open the journal in the given directory, or return null if another run
+     * has it open.
+     */
+    public static RunJournal open(File directory, int syncBatch, long started)
+            throws IOException {
+        FileLock lock = tryLock(directory);
+        if (lock == null) {
+            LOG.warn("Run journal " + directory + " is in use by another run, " +
+                     "running without it");
+            return null;
+        }
+
+        return new RunJournal(directory, syncBatch, started, lock);
+    }
+
+    private static FileLock tryLock(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create journal directory " + directory);
+        }
+
+        RandomAccessFile file = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+        FileLock lock = null;
+        try {
+            lock = file.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another journal in this process
+        } finally {
+            if (lock == null) {
+                file.close();
+            }
+        }
+
+        return lock;
+    }
+
+    private void load() throws IOException {
+        replay(new File(this.directory, JOURNAL_FILE));
+
+        for (Map.Entry<String, Set<String>> dir : this.pending.entrySet()) {
+            this.carried.put(dir.getKey(), new LinkedHashSet<String>(dir.getValue()));
+            this.carriedCount += dir.getValue().size();
+        }
+
+        if (this.carriedCount > 0) {
+            LOG.info("Resuming " + this.carriedCount + " deletes left by the previous run");
+        }
+
+        start();
+    }
+
+    /**
+     * Return true if the previous run didn't finish, it was killed or
+     * crashed part way through.
+     */
+    public synchronized boolean isResumed() {
+        return this.resumed;
+    }
+
+    public synchronized boolean hasCarried(Path dir) {
+        return this.carried.containsKey(key(dir));
+    }
+
+    /**
+     * Return the deletes of the directory carried over from the previous run,
+     * which are then the responsibility of the caller.
+     */
+    public synchronized List<String> claimCarried(Path dir) {
+        Set<String> names = this.carried.remove(key(dir));
+        if (names == null) {
+            return new ArrayList<String>();
+        }
+
+        return new ArrayList<String>(names);
+    }
+
+    public synchronized void recordPlanned(Path dir, String name) throws IOException {
+        String key = key(dir);
+        if (!this.pending.containsKey(key)) {
+            this.pending.put(key, new LinkedHashSet<String>());
+        }
+
+        if (this.pending.get(key).add(name)) {
+            append("P\t" + key + "\t" + name);
+        }
+    }
+
+    public synchronized void recordCreated(Path dir, String name) throws IOException {
+        this.created++;
+        append("C\t" + key(dir) + "\t" + name);
+    }
+
+    public synchronized void recordDeleted(Path dir, String name) throws IOException {
+        this.deleted++;
+        complete("D", key(dir), name);
+    }
+
+    public synchronized void recordFailed(Path dir, String name) throws IOException {
+        this.failed++;
+        complete("F", key(dir), name);
+    }
+
+    /**
+     * Flush and sync everything recorded so far to disk.
+     */
+    public synchronized void sync() throws IOException {
+        this.journal.flush();
+        this.stream.getFD().sync();
+        this.unsynced = 0;
+    }
+
+    /**
+     * Record the end of the run and write out its report. Carried deletes
+     * that were never claimed (their directory is no longer managed) are
+     * abandoned, while deletes still pending are left for the next run.
+     */
+    public synchronized RunReport finish(long finished) throws IOException {
+        int abandoned = 0;
+        for (Map.Entry<String, Set<String>> dir : this.carried.entrySet()) {
+            for (String name : dir.getValue()) {
+                LOG.warn("Abandoning delete of " + dir.getKey() + "/.snapshot/" + name +
+                         ", the directory is no longer managed");
+                complete("A", dir.getKey(), name);
+                abandoned++;
+            }
+        }
+
+        this.carried.clear();
+
+        int remaining = 0;
+        for (Set<String> names : this.pending.values()) {
+            remaining += names.size();
+        }
+
+        RunReport report = new RunReport(this.started, finished, this.resumed, this.carriedCount,
+                                         this.created, this.deleted, this.failed,
+                                         abandoned, remaining);
+        try {
+            append("E\t" + finished);
+            sync();
+            this.journal.close();
+            writeReport(report);
+        } finally {
+            unlock();
+        }
+
+        return report;
+    }
+
+    /**
+     * Close the journal without recording the end of the run, so the next
+     * run resumes its pending deletes as if it had died.
+     */
+    public synchronized void close() throws IOException {
+        try {
+            this.journal.close();
+        } finally {
+            unlock();
+        }
+    }
+
+    private void unlock() throws IOException {
+        try {
+            this.lock.release();
+        } finally {
+            this.lock.channel().close();
+        }
+    }
+
+    private void complete(String type, String key, String name) throws IOException {
+        Set<String> names = this.pending.get(key);
+        if (names != null) {
+            names.remove(name);
+            if (names.isEmpty()) {
+                this.pending.remove(key);
+            }
+        }
+
+        append(type + "\t" + key + "\t" + name);
+    }
+
+    private void append(String record) throws IOException {
+        this.journal.write(record);
+        this.journal.write('\n');
+        this.unsynced++;
+
+        if (this.unsynced >= this.syncBatch) {
+            sync();
+        }
+    }
+
+    /**
+     * Replace the journal of the previous run with a new one, holding only
+     * the deletes it left pending.
+     */
+    private void start() throws IOException {
+        File file = new File(this.directory, JOURNAL_FILE);
+        File temporary = new File(this.directory, JOURNAL_FILE + ".tmp");
+
+        FileOutputStream output = new FileOutputStream(temporary);
+        try {
+            Writer writer = new OutputStreamWriter(output, UTF8);
+            writer.write("S\t" + this.started + "\n");
+            for (Map.Entry<String, Set<String>> dir : this.pending.entrySet()) {
+                for (String name : dir.getValue()) {
+                    writer.write("P\t" + dir.getKey() + "\t" + name + "\n");
+                }
+            }
+
+            writer.flush();
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+
+        if (!temporary.renameTo(file)) {
+            file.delete();
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Failed to replace run journal " + file);
+            }
+        }
+
+        this.stream = new FileOutputStream(file, true);
+        this.journal = new BufferedWriter(new OutputStreamWriter(this.stream, UTF8));
+    }
+
+    /**
+     * Replay the journal of the previous run. A truncated final record (from
+     * a crash mid-write) is ignored.
+     */
+    private void replay(File file) throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return;
+        }
+
+        byte[] contents = new byte[(int) file.length()];
+        FileInputStream input = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < contents.length) {
+                int n = input.read(contents, read, contents.length - read);
+                if (n < 0) {
+                    break;
+                }
+
+                read += n;
+            }
+        } finally {
+            input.close();
+        }
+
+        boolean finished = false;
+        String[] records = new String(contents, UTF8).split("\n", -1);
+
+        // The last element follows the final newline, so is empty or truncated
+        for (int i = 0; i < records.length - 1; i++) {
+            String[] parts = records[i].split("\t", -1);
+            String type = parts[0];
+
+            if (type.equals("E")) {
+                finished = true;
+            } else if (type.equals("P") && parts.length == 3) {
+                if (!this.pending.containsKey(parts[1])) {
+                    this.pending.put(parts[1], new LinkedHashSet<String>());
+                }
+
+                this.pending.get(parts[1]).add(parts[2]);
+            } else if ((type.equals("D") || type.equals("F") || type.equals("A")) &&
+                       parts.length == 3) {
+                Set<String> names = this.pending.get(parts[1]);
+                if (names != null) {
+                    names.remove(parts[2]);
+                    if (names.isEmpty()) {
+                        this.pending.remove(parts[1]);
+                    }
+                }
+            } else if (!type.equals("S") && !type.equals("C")) {
+                LOG.warn("Ignoring malformed journal record in " + file + ": " + records[i]);
+            }
+        }
+
+        if (!finished) {
+            LOG.warn("The previous run didn't finish, resuming its unfinished work");
+            this.resumed = true;
+        }
+    }
+
+    private void writeReport(RunReport report) throws IOException {
+        Writer writer = new OutputStreamWriter(
+            new FileOutputStream(new File(this.directory, REPORT_FILE)), UTF8);
+        try {
+            writer.write(report.toString().replace(", ", "\n") + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String key(Path dir) {
+        return Path.getPathWithoutSchemeAndAuthority(dir).toString();
+    }
+}
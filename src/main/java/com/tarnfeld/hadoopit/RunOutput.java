@@ -0,0 +1,189 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * RunOutput writes what a run plans or does as newline delimited JSON, one
+ * object per line, flushed as each line is written so a controller can
+ * follow a run that covers many directories while it's in progress.
+ *
+ * Every object has a `type`;
+ *
+ *   tier     A tier of a directory was run. `action` is `create`, `skip` or
+ *            `error`, and in a dry run `delete` lists the snapshots that
+ *            would be deleted.
+ *   group    The same for a snapshot group, with the number of its
+ *            snapshots `deleted` from every member.
+ *   delete   An outdated snapshot was deleted, or failed to be.
+ *   summary  The last line, with counts of everything above.
+ *
+ * Latencies are in milliseconds, and errors are the message of the failure
+ * or null.
+ */
+public class RunOutput {
+    private static final Log LOG = LogFactory.getLog(RunOutput.class);
+
+    public static final String JSON = "json";
+
+    public static final String CREATE = "create";
+    public static final String SKIP = "skip";
+    public static final String ERROR = "error";
+
+    private Writer out;
+    private boolean dry;
+    private long started; // Nanos when the run started
+
+    private int created = 0;
+    private int skipped = 0;
+    private int errors = 0;
+    private int deleted = 0;
+    private int deleteFailures = 0;
+
+    public RunOutput(Writer out, boolean dry) {
+        this.out = out;
+        this.dry = dry;
+        this.started = System.nanoTime();
+    }
+
+    /**
+     * Record a tier that was run. `snapshot` is the snapshot created (or that
+     * would be), and `deletes` the snapshots a dry run would delete.
+     */
+    public void tier(Path directory, Integer frequency, String label, String action,
+                     String snapshot, List<Snapshot> deletes, long latency, Throwable error) {
+        StringBuilder record = new StringBuilder();
+        record.append("{\"type\": \"tier\"")
+              .append(", \"directory\": ").append(json(directory.toUri().getPath()))
+              .append(", \"frequency\": ").append(frequency)
+              .append(", \"label\": ").append(json(label));
+        appendResult(record, action, snapshot, latency, error);
+
+        if (deletes != null) {
+            record.append(", \"delete\": [");
+            for (int i = 0; i < deletes.size(); i++) {
+                record.append(i == 0 ? "" : ", ").append(json(deletes.get(i).getName()));
+            }
+
+            record.append("]");
+        }
+
+        write(record.append("}"));
+    }
+
+    /**
+     * Record a snapshot group that was run. `deletes` are the snapshots a dry
+     * run would delete from every member, and `deleted` the number that were.
+     */
+    public void group(String name, List<Path> directories, String action, String snapshot,
+                      List<String> deletes, int deleted, long latency, Throwable error) {
+        synchronized (this) {
+            this.deleted += deleted;
+        }
+
+        StringBuilder record = new StringBuilder();
+        record.append("{\"type\": \"group\"")
+              .append(", \"group\": ").append(json(name))
+              .append(", \"directories\": [");
+        for (int i = 0; i < directories.size(); i++) {
+            record.append(i == 0 ? "" : ", ").append(json(directories.get(i).toUri().getPath()));
+        }
+
+        record.append("]");
+        appendResult(record, action, snapshot, latency, error);
+        record.append(", \"deleted\": ").append(deleted);
+
+        if (deletes != null) {
+            record.append(", \"delete\": [");
+            for (int i = 0; i < deletes.size(); i++) {
+                record.append(i == 0 ? "" : ", ").append(json(deletes.get(i)));
+            }
+
+            record.append("]");
+        }
+
+        write(record.append("}"));
+    }
+
+    /**
+     * Record the delete of an outdated snapshot, or its failure if `error` is
+     * set.
+     */
+    public void delete(Path directory, String snapshot, long latency, Throwable error) {
+        synchronized (this) {
+            if (error == null) {
+                this.deleted++;
+            } else {
+                this.deleteFailures++;
+            }
+        }
+
+        write(new StringBuilder()
+            .append("{\"type\": \"delete\"")
+            .append(", \"directory\": ").append(json(directory.toUri().getPath()))
+            .append(", \"snapshot\": ").append(json(snapshot))
+            .append(", \"latency_ms\": ").append(millis(latency))
+            .append(", \"error\": ").append(error == null ? "null" : json(message(error)))
+            .append("}"));
+    }
+
+    /**
+     * Record the end of the run, with the exit code it finished with.
+     */
+    public synchronized void summary(int exitCode) {
+        write(new StringBuilder()
+            .append("{\"type\": \"summary\"")
+            .append(", \"dry_run\": ").append(this.dry)
+            .append(", \"created\": ").append(this.created)
+            .append(", \"skipped\": ").append(this.skipped)
+            .append(", \"errors\": ").append(this.errors)
+            .append(", \"deleted\": ").append(this.deleted)
+            .append(", \"delete_failures\": ").append(this.deleteFailures)
+            .append(", \"elapsed_ms\": ").append(millis(System.nanoTime() - this.started))
+            .append(", \"exit_code\": ").append(exitCode)
+            .append("}"));
+    }
+
+    private synchronized void appendResult(StringBuilder record, String action, String snapshot,
+                                           long latency, Throwable error) {
+        if (action.equals(CREATE)) {
+            this.created++;
+        } else if (action.equals(SKIP)) {
+            this.skipped++;
+        } else {
+            this.errors++;
+        }
+
+        record.append(", \"dry_run\": ").append(this.dry)
+              .append(", \"action\": ").append(json(action))
+              .append(", \"snapshot\": ").append(json(snapshot))
+              .append(", \"latency_ms\": ").append(millis(latency))
+              .append(", \"error\": ").append(error == null ? "null" : json(message(error)));
+    }
+
+    private synchronized void write(StringBuilder record) {
+        try {
+            this.out.write(record.append('\n').toString());
+            this.out.flush();
+        } catch (IOException e) {
+            LOG.error("Failed to write run output", e);
+        }
+    }
+
+    private static String message(Throwable error) {
+        return error.getMessage() == null ? error.getClass().getName() : error.getMessage();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000 / 1000.0;
+    }
+
+    private static String json(String value) {
+        return value == null ? "null" : SpaceReportWriter.json(value);
+    }
+}
@@ -0,0 +1,81 @@
+package com.tarnfeld.hadoopit;
+
+/**
+ * RunReport summarises a single run recorded in a RunJournal; what was
+ * created, deleted and failed, how much work was resumed from an earlier
+ * interrupted run and how much is still left for the next one.
+ */
+public class RunReport {
+
+    private long started;
+    private long finished;
+    private boolean resumed; // Whether the previous run was interrupted
+    private int carried; // Deletes carried over from the previous run
+    private int created;
+    private int deleted;
+    private int failed;
+    private int abandoned; // Carried deletes of directories no longer managed
+    private int remaining; // Deletes still pending for the next run
+
+    public RunReport(long started, long finished, boolean resumed, int carried,
+                     int created, int deleted, int failed, int abandoned, int remaining) {
+        this.started = started;
+        this.finished = finished;
+        this.resumed = resumed;
+        this.carried = carried;
+        this.created = created;
+        this.deleted = deleted;
+        this.failed = failed;
+        this.abandoned = abandoned;
+        this.remaining = remaining;
+    }
+
+    public long getStarted() {
+        return this.started;
+    }
+
+    public long getFinished() {
+        return this.finished;
+    }
+
+    public boolean isResumed() {
+        return this.resumed;
+    }
+
+    public int getCarried() {
+        return this.carried;
+    }
+
+    public int getCreated() {
+        return this.created;
+    }
+
+    public int getDeleted() {
+        return this.deleted;
+    }
+
+    public int getFailed() {
+        return this.failed;
+    }
+
+    public int getAbandoned() {
+        return this.abandoned;
+    }
+
+    public int getRemaining() {
+        return this.remaining;
+    }
+
+    @Override
+    public String toString() {
+        return "started=" + this.started +
+               ", finished=" + this.finished +
+               ", resumed=" + this.resumed +
+               ", carried=" + this.carried +
+               ", created=" + this.created +
+               ", deleted=" + this.deleted +
+               ", failed=" + this.failed +
+               ", abandoned=" + this.abandoned +
+               ", remaining=" + this.remaining;
+    }
+}
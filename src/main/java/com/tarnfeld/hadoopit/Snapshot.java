@@ -1,55 +1,66 @@
-
 package com.tarnfeld.hadoopit;
 
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 
 /**
  * Snapshot is an object that represents a single snapshot of a snapshottable
  * directory in HDFS.
+ *
+ * Only the name and what's parsed from it are kept, not the FileStatus of
+ * the snapshot, so listings of many snapshots stay small. The path is
+ * worked out from the directory when it's asked for.
  */
 public class Snapshot {
 
     private SnapshottableDirectoryStatus snapshottableDir;
-    private FileStatus directoryStatus;
+    private Path path; // Null until asked for, unless given
 
     private String name;
-    private DateTime created;
-    private Integer frequency;
+    private long created;
+    private int frequency;
     private String label;
 
     public static String DATE_FORMAT = "yyyy.MM.dd.H.m.s.SSS";
 
     public Snapshot(SnapshottableDirectoryStatus dir, FileStatus status)
-            throws Exception {
+            throws InvalidSnapshotNameException {
+        this(dir, status.getPath().getName());
+        this.path = status.getPath();
+    }
+
+    public Snapshot(SnapshottableDirectoryStatus dir, String name)
+            throws InvalidSnapshotNameException {
         this.snapshottableDir = dir;
-        this.directoryStatus = status;
+        this.name = name;
 
-        parseStatus();
+        parseName();
     }
 
     public SnapshottableDirectoryStatus getSnapshottableDirectoryStatus() {
         return this.snapshottableDir;
     }
 
-    public FileStatus getDirectoryStatus() {
-        return this.directoryStatus;
-    }
-
     public String getName() {
         return this.name;
     }
 
     public DateTime getCreatedTime() {
+        return new DateTime(this.created);
+    }
+
+    public long getCreatedMillis() {
         return this.created;
     }
 
     public Path getPath() {
-        return this.directoryStatus.getPath();
+        if (this.path == null) {
+            this.path = new Path(this.snapshottableDir.getFullPath(), ".snapshot/" + this.name);
+        }
+
+        return this.path;
     }
 
     public Integer getSnapshotFrequency() {
@@ -62,29 +73,13 @@ public class Snapshot {
 
     @Override
     public String toString() {
-        return this.snapshottableDir.getFullPath() + "[" + this.created + "]";
+        return getPath().toString();
     }
 
-    private void parseStatus() throws Exception {
-        this.name = this.directoryStatus.getPath().getName();
-
-        DateTimeFormatter formatter = DateTimeFormat.forPattern(Snapshot.DATE_FORMAT);
-
-        String[] parts = this.name.split("-");
-        if (parts.length < 3) {
-            throw new Exception("Expected at least three parts from the snapshot name");
-        }
-
-        this.frequency = new Integer(parts[1]);
-        if (parts.length > 3) {
-            this.label = parts[3];
-        }
-
-        String timestamp = parts[2];
-        this.created = formatter.parseDateTime(timestamp);
-
-        if (this.created == null) {
-            throw new Exception("Failed to parse date from snapshot " + this.name);
-        }
+    private void parseName() throws InvalidSnapshotNameException {
+        SnapshotName parsed = SnapshotNameCodec.decode(this.name);
+        this.frequency = parsed.getFrequency();
+        this.created = parsed.getCreatedMillis();
+        this.label = parsed.getLabel();
     }
 }
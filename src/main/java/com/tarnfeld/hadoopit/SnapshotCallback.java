@@ -0,0 +1,13 @@
+package com.tarnfeld.hadoopit;
+
+/**
+ * SnapshotCallback is notified when an asynchronous snapshot operation
+ * completes. Failures include cancellation, as a CancellationException, and
+ * timeouts, as a TimeoutException.
+ */
+public interface SnapshotCallback<T> {
+
+    void onSuccess(T result);
+
+    void onFailure(Throwable cause);
+}
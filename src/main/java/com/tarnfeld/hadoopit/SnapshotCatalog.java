@@ -0,0 +1,430 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * SnapshotCatalog is a local, on-disk record of the snapshots hadoopit has
+ * created and deleted, so the state of a directory can be known without
+ * listing its .snapshot directory on every run.
+ *
+ * The catalog is an append-only log plus a compacted checkpoint, both of
+ * which are memory-mapped and replayed when the catalog is opened. Each
+ * directory is reconciled against HDFS when its reconcile interval has
+ * passed, or sooner if drift has been detected (for example a delete that
+ * failed because the snapshot was already gone).
+ *
+ * Only one process can have a catalog open at a time, it's held with a lock
+ * on a file in the catalog directory until the catalog is closed.
+ *
+ * Records are tab separated lines;
+ *
+ *   C DIRECTORY NAME FREQUENCY CREATED_MILLIS LABEL    (created)
+ *   D DIRECTORY NAME                                   (deleted)
+ *   R DIRECTORY RECONCILED_MILLIS FOREIGN              (reconciled)
+ *   U DIRECTORY FREQUENCY CHECKED_MILLIS               (found unchanged)
+ */
+public class SnapshotCatalog {
+    private static final Log LOG = LogFactory.getLog(SnapshotCatalog.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String LOG_FILE = "catalog.log";
+    private static final String CHECKPOINT_FILE = "catalog.checkpoint";
+    private static final String LOCK_FILE = "catalog.lock";
+
+    private File directory;
+    private long reconcileInterval; // Millis between reconciliations
+    private int compactThreshold; // Log records written before compacting
+    private FileLock lock;
+
+    private Map<String, CatalogDirectory> directories = new HashMap<String, CatalogDirectory>();
+    private Writer log;
+    private int logRecords = 0;
+
+    public SnapshotCatalog(File directory, long reconcileInterval,
+                           int compactThreshold) throws IOException {
+        this(directory, reconcileInterval, compactThreshold, tryLock(directory));
+    }
+
+    private SnapshotCatalog(File directory, long reconcileInterval,
+                            int compactThreshold, FileLock lock) throws IOException {
+        if (lock == null) {
+            throw new IOException("Catalog " + directory + " is in use by another process");
+        }
+
+        this.directory = directory;
+        this.reconcileInterval = reconcileInterval;
+        this.compactThreshold = compactThreshold;
+        this.lock = lock;
+
+        try {
+            load();
+        } catch (IOException e) {
+            unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Open the catalog in the given directory, or return null if another
+     * process has it open.
+     */
+    public static SnapshotCatalog open(File directory, long reconcileInterval,
+                                       int compactThreshold) throws IOException {
+        FileLock lock = tryLock(directory);
+        if (lock == null) {
+            LOG.warn("Snapshot catalog " + directory + " is in use by another process, " +
+                     "running without it");
+            return null;
+        }
+
+        return new SnapshotCatalog(directory, reconcileInterval, compactThreshold, lock);
+    }
+
+    private static FileLock tryLock(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create catalog directory " + directory);
+        }
+
+        RandomAccessFile file = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+        FileLock lock = null;
+        try {
+            lock = file.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another catalog in this process
+        } finally {
+            if (lock == null) {
+                file.close();
+            }
+        }
+
+        return lock;
+    }
+
+    private void load() throws IOException {
+        replay(new File(this.directory, CHECKPOINT_FILE));
+        this.logRecords = replay(new File(this.directory, LOG_FILE));
+
+        // Start from a fresh checkpoint, dropping any truncated record left
+        // at the end of the log so new records aren't appended to it
+        compact();
+    }
+
+    /**
+     * Return true if the catalog can be trusted for the given directory, it
+     * has been reconciled recently and no drift has been seen since.
+     */
+    public synchronized boolean isFresh(Path dir, long now) {
+        CatalogDirectory entry = this.directories.get(key(dir));
+        return entry != null && !entry.drift &&
+               now - entry.reconciled < this.reconcileInterval;
+    }
+
+    /**
+     * Return every snapshot recorded for the given directory.
+     */
+    public synchronized List<CatalogEntry> getSnapshots(Path dir) {
+        CatalogDirectory entry = this.directories.get(key(dir));
+        if (entry == null) {
+            return new ArrayList<CatalogEntry>();
+        }
+
+        return new ArrayList<CatalogEntry>(entry.snapshots.values());
+    }
+
+    public synchronized void recordCreated(Path dir, String name, int frequency,
+                                           long created, String label) throws IOException {
+        CatalogEntry entry = new CatalogEntry(name, frequency, created, label);
+        apply(key(dir), entry);
+        append(createdRecord(key(dir), entry));
+    }
+
+    public synchronized void recordDeleted(Path dir, String name) throws IOException {
+        getDirectory(key(dir)).snapshots.remove(name);
+        append("D\t" + key(dir) + "\t" + name);
+    }
+
+    /**
+     * Return the number of snapshots of the directory not made by hadoopit,
+     * as of the last reconciliation.
+     */
+    public synchronized int getForeignCount(Path dir) {
+        CatalogDirectory entry = this.directories.get(key(dir));
+        return entry == null ? 0 : entry.foreign;
+    }
+
+    /**
+     * Return when the tier was last found unchanged since its newest
+     * snapshot, or 0 if it never was.
+     */
+    public synchronized long getLastUnchanged(Path dir, int frequency) {
+        CatalogDirectory entry = this.directories.get(key(dir));
+        if (entry == null || !entry.unchanged.containsKey(frequency)) {
+            return 0;
+        }
+
+        return entry.unchanged.get(frequency);
+    }
+
+    public synchronized void recordUnchanged(Path dir, int frequency, long checked)
+            throws IOException {
+        getDirectory(key(dir)).unchanged.put(frequency, checked);
+        append("U\t" + key(dir) + "\t" + frequency + "\t" + checked);
+    }
+
+    /**
+     * Mark the directory as having drifted from HDFS, forcing the next
+     * lookup to reconcile it.
+     */
+    public synchronized void markDrift(Path dir) {
+        LOG.warn("Snapshot catalog has drifted from HDFS for " + dir);
+        getDirectory(key(dir)).drift = true;
+    }
+
+    /**
+     * Replace everything recorded for the directory with what was found in
+     * HDFS, along with the number of snapshots found that weren't made by
+     * hadoopit. Only the differences are logged, and if there are more than the
+     * log has room for the catalog is compacted once instead.
+     */
+    public synchronized void reconcile(Path dir, List<CatalogEntry> snapshots,
+                                       int foreign, long now) throws IOException {
+        String key = key(dir);
+        CatalogDirectory entry = getDirectory(key);
+
+        Map<String, CatalogEntry> found = new HashMap<String, CatalogEntry>();
+        for (CatalogEntry snapshot : snapshots) {
+            found.put(snapshot.getName(), snapshot);
+        }
+
+        List<String> records = new ArrayList<String>();
+        for (String name : entry.snapshots.keySet()) {
+            if (!found.containsKey(name)) {
+                records.add("D\t" + key + "\t" + name);
+            }
+        }
+
+        for (CatalogEntry snapshot : found.values()) {
+            CatalogEntry known = entry.snapshots.get(snapshot.getName());
+            if (known == null || !createdRecord(key, known).equals(createdRecord(key, snapshot))) {
+                records.add(createdRecord(key, snapshot));
+            }
+        }
+
+        entry.snapshots = found;
+        entry.foreign = foreign;
+        entry.reconciled = now;
+        entry.drift = false;
+        records.add(reconciledRecord(key, entry));
+
+        if (this.logRecords + records.size() >= this.compactThreshold) {
+            compact();
+            return;
+        }
+
+        for (String record : records) {
+            this.log.write(record);
+            this.log.write('\n');
+        }
+
+        this.logRecords += records.size();
+        this.log.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        try {
+            this.log.close();
+        } finally {
+            unlock();
+        }
+    }
+
+    private void unlock() throws IOException {
+        try {
+            this.lock.release();
+        } finally {
+            this.lock.channel().close();
+        }
+    }
+
+    private CatalogDirectory getDirectory(String key) {
+        CatalogDirectory entry = this.directories.get(key);
+        if (entry == null) {
+            entry = new CatalogDirectory();
+            this.directories.put(key, entry);
+        }
+
+        return entry;
+    }
+
+    private void apply(String key, CatalogEntry snapshot) {
+        getDirectory(key).snapshots.put(snapshot.getName(), snapshot);
+    }
+
+    private void append(String record) throws IOException {
+        this.log.write(record);
+        this.log.write('\n');
+        this.logRecords++;
+
+        if (this.logRecords >= this.compactThreshold) {
+            compact();
+        } else {
+            this.log.flush();
+        }
+    }
+
+    /**
+     * Write the current state out as a new checkpoint and truncate the log.
+     */
+    private void compact() throws IOException {
+        if (this.log != null) {
+            this.log.close();
+        }
+
+        File checkpoint = new File(this.directory, CHECKPOINT_FILE);
+        File temporary = new File(this.directory, CHECKPOINT_FILE + ".tmp");
+
+        FileOutputStream stream = new FileOutputStream(temporary);
+        try {
+            Writer writer = new OutputStreamWriter(stream, UTF8);
+            for (Map.Entry<String, CatalogDirectory> dir : this.directories.entrySet()) {
+                for (CatalogEntry snapshot : dir.getValue().snapshots.values()) {
+                    writer.write(createdRecord(dir.getKey(), snapshot));
+                    writer.write('\n');
+                }
+
+                for (Map.Entry<Integer, Long> unchanged : dir.getValue().unchanged.entrySet()) {
+                    writer.write("U\t" + dir.getKey() + "\t" + unchanged.getKey() +
+                                 "\t" + unchanged.getValue() + "\n");
+                }
+
+                writer.write(reconciledRecord(dir.getKey(), dir.getValue()));
+                writer.write('\n');
+            }
+
+            writer.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+
+        if (!temporary.renameTo(checkpoint)) {
+            checkpoint.delete();
+            if (!temporary.renameTo(checkpoint)) {
+                throw new IOException("Failed to replace catalog checkpoint " + checkpoint);
+            }
+        }
+
+        this.log = openLog(false);
+        this.logRecords = 0;
+    }
+
+    private Writer openLog(boolean append) throws IOException {
+        return new OutputStreamWriter(
+            new FileOutputStream(new File(this.directory, LOG_FILE), append), UTF8);
+    }
+
+    /**
+     * Replay the records in the given file, returning the number of records
+     * read. A truncated final record (from a crash mid-write) is ignored.
+     */
+    private int replay(File file) throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return 0;
+        }
+
+        CharBuffer contents;
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            contents = UTF8.decode(buffer);
+        } finally {
+            input.close();
+        }
+
+        int records = 0;
+        int start = 0;
+        for (int i = 0; i < contents.length(); i++) {
+            if (contents.charAt(i) != '\n') {
+                continue;
+            }
+
+            String record = contents.subSequence(start, i).toString();
+            start = i + 1;
+
+            try {
+                replayRecord(record);
+                records++;
+            } catch (RuntimeException e) {
+                LOG.warn("Ignoring malformed catalog record in " + file + ": " + record);
+            }
+        }
+
+        return records;
+    }
+
+    private void replayRecord(String record) {
+        String[] parts = record.split("\t", -1);
+        String key = parts[1];
+
+        if (parts[0].equals("C") && parts.length == 6) {
+            String label = parts[5].isEmpty() ? null : parts[5];
+            apply(key, new CatalogEntry(parts[2], Integer.parseInt(parts[3]),
+                                        Long.parseLong(parts[4]), label));
+        } else if (parts[0].equals("D") && parts.length == 3) {
+            getDirectory(key).snapshots.remove(parts[2]);
+        } else if (parts[0].equals("R") && (parts.length == 3 || parts.length == 4)) {
+            // Catalogs written before the foreign count was kept lack it
+            getDirectory(key).reconciled = Long.parseLong(parts[2]);
+            getDirectory(key).foreign = parts.length == 4 ? Integer.parseInt(parts[3]) : 0;
+        } else if (parts[0].equals("U") && parts.length == 4) {
+            getDirectory(key).unchanged.put(Integer.parseInt(parts[2]), Long.parseLong(parts[3]));
+        } else {
+            throw new IllegalArgumentException("Unknown record " + record);
+        }
+    }
+
+    private static String createdRecord(String key, CatalogEntry snapshot) {
+        String label = snapshot.getLabel() == null ? "" : snapshot.getLabel();
+        return "C\t" + key + "\t" + snapshot.getName() + "\t" +
+               snapshot.getFrequency() + "\t" + snapshot.getCreatedMillis() + "\t" + label;
+    }
+
+    private static String reconciledRecord(String key, CatalogDirectory entry) {
+        return "R\t" + key + "\t" + entry.reconciled + "\t" + entry.foreign;
+    }
+
+    private static String key(Path dir) {
+        return Path.getPathWithoutSchemeAndAuthority(dir).toString();
+    }
+
+    /**
+     * CatalogDirectory holds the catalog state of a single directory.
+     */
+    private static class CatalogDirectory {
+        private Map<String, CatalogEntry> snapshots = new HashMap<String, CatalogEntry>();
+        private Map<Integer, Long> unchanged = new HashMap<Integer, Long>();
+        private long reconciled = 0;
+        private int foreign = 0; // Snapshots not made by hadoopit
+        private boolean drift = false;
+    }
+}
@@ -0,0 +1,320 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.SnapshotException;
+import org.apache.hadoop.security.AccessControlException;
+
+/**
+ * SnapshotCleaner deletes outdated snapshots of many directories in
+ * parallel on a pool of worker threads.
+ *
+ * The number of deletes in flight against a single NameNode is capped, and
+ * deletes that fail with a transient IOException are retried with an
+ * exponential backoff.
+ *
+ * If a RunJournal is set every delete is journaled before it is made, and
+ * directories with deletes left over from an interrupted run resume those
+ * rather than being listed again. With a time limit, deletes not started
+ * in time are skipped and left in the journal for the next run. If a
+ * RunOutput is set every delete is written to it as it completes.
+ */
+public class SnapshotCleaner {
+    private static final Log LOG = LogFactory.getLog(SnapshotCleaner.class);
+
+    private Integer maxPerNameNode; // Deletes in flight per NameNode
+    private Integer retries; // Number of times to retry a failed delete
+    private Long retryBackoff; // Delay before the first retry in millis
+
+    private SnapshotScheduler scheduler; // Rate limits deletes, if set
+    private RunJournal journal; // Records deletes for resuming, if set
+    private RunOutput output; // Reports each delete as it completes, if set
+    private long timeLimit = 0; // Millis to start deletes within, 0 for no limit
+    private ExecutorService executor;
+    private Map<String, Semaphore> nameNodeLimits = new HashMap<String, Semaphore>();
+
+    public SnapshotCleaner(Integer threads, Integer maxPerNameNode,
+                           Integer retries, Long retryBackoff) {
+        this.maxPerNameNode = maxPerNameNode;
+        this.retries = retries;
+        this.retryBackoff = retryBackoff;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Rate limit deletes with the given scheduler, and skip them while the
+     * NameNode is slow. Pass null to delete as fast as the limits allow.
+     */
+    public void setScheduler(SnapshotScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void setJournal(RunJournal journal) {
+        this.journal = journal;
+    }
+
+    public void setOutput(RunOutput output) {
+        this.output = output;
+    }
+
+    /**
+     * Only start deletes within the given number of millis of starting a
+     * cleanup, so a large backlog can be worked through over several runs.
+     */
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Delete the outdated snapshots of every given manager, blocking until
+     * all of the deletes have completed or failed.
+     */
+    public CleanupSummary cleanup(List<SnapshotManager> managers) throws InterruptedException {
+        CleanupSummary summary = new CleanupSummary();
+        long deadline = this.timeLimit > 0 ? System.currentTimeMillis() + this.timeLimit : 0;
+
+        // List the outdated snapshots of every directory in parallel, except
+        // those resuming deletes left over from an interrupted run
+        List<Future<List<Snapshot>>> listings = new ArrayList<Future<List<Snapshot>>>();
+        for (final SnapshotManager manager : managers) {
+            if (this.journal != null && this.journal.hasCarried(manager.getDirectory())) {
+                listings.add(null);
+                continue;
+            }
+
+            listings.add(this.executor.submit(new Callable<List<Snapshot>>() {
+                @Override
+                public List<Snapshot> call() throws Exception {
+                    return manager.listOutdatedSnapshots();
+                }
+            }));
+        }
+
+        List<DeleteTask> tasks = new ArrayList<DeleteTask>();
+        for (int i = 0; i < managers.size(); i++) {
+            SnapshotManager manager = managers.get(i);
+
+            if (listings.get(i) == null) {
+                for (Snapshot snapshot : getCarried(manager)) {
+                    tasks.add(new DeleteTask(manager, snapshot, summary, deadline));
+                }
+
+                continue;
+            }
+
+            List<Snapshot> outdated;
+            try {
+                outdated = listings.get(i).get();
+            } catch (ExecutionException e) {
+                LOG.error("Failed to list outdated snapshots of " + manager.getDirectory(),
+                          e.getCause());
+                summary.addFailedDirectory(manager.getDirectory(), e.getCause());
+                continue;
+            }
+
+            for (Snapshot snapshot : outdated) {
+                tasks.add(new DeleteTask(manager, snapshot, summary, deadline));
+            }
+        }
+
+        // Make sure the plan is on disk before any of it is carried out
+        if (this.journal != null) {
+            try {
+                for (DeleteTask task : tasks) {
+                    this.journal.recordPlanned(task.manager.getDirectory(), task.snapshot.getName());
+                }
+
+                this.journal.sync();
+            } catch (IOException e) {
+                LOG.error("Failed to journal planned deletes, not deleting any snapshots", e);
+                for (DeleteTask task : tasks) {
+                    summary.addSkipped(task.snapshot);
+                }
+
+                return summary;
+            }
+        }
+
+        List<Future<?>> deletes = new ArrayList<Future<?>>();
+        for (DeleteTask task : tasks) {
+            deletes.add(this.executor.submit(task));
+        }
+
+        for (Future<?> delete : deletes) {
+            try {
+                delete.get();
+            } catch (ExecutionException e) {
+                // Failures are recorded in the summary by the task itself
+            }
+        }
+
+        return summary;
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    private synchronized Semaphore getNameNodeLimit(SnapshotManager manager) {
+        String nameNode = manager.getStore().getUri().getAuthority();
+        Semaphore limit = this.nameNodeLimits.get(nameNode);
+        if (limit == null) {
+            limit = new Semaphore(this.maxPerNameNode);
+            this.nameNodeLimits.put(nameNode, limit);
+        }
+
+        return limit;
+    }
+
+    /**
+     * Return the snapshots of the manager left to delete by an interrupted
+     * run.
+     */
+    private List<Snapshot> getCarried(SnapshotManager manager) {
+        SnapshotIndex index = manager.getSnapshotIndex();
+        List<Snapshot> snapshots = new ArrayList<Snapshot>();
+
+        for (String name : this.journal.claimCarried(manager.getDirectory())) {
+            try {
+                snapshots.add(new Snapshot(index.getSnapshottableDirectoryStatus(), name));
+            } catch (InvalidSnapshotNameException e) {
+                LOG.warn("Ignoring journaled delete of " + name + " of " + manager.getDirectory() +
+                         ": " + e.getMessage());
+            }
+        }
+
+        return snapshots;
+    }
+
+    private boolean isTransient(IOException e) {
+        return !(e instanceof FileNotFoundException ||
+                 e instanceof SnapshotException ||
+                 e instanceof AccessControlException);
+    }
+
+    /**
+     * DeleteTask deletes a single snapshot, retrying transient failures.
+     */
+    private class DeleteTask implements Runnable {
+
+        private SnapshotManager manager;
+        private Snapshot snapshot;
+        private CleanupSummary summary;
+        private long deadline; // Millis to start by, 0 for no limit
+        private long started; // Nanos when the first attempt was made
+
+        public DeleteTask(SnapshotManager manager, Snapshot snapshot, CleanupSummary summary,
+                          long deadline) {
+            this.manager = manager;
+            this.snapshot = snapshot;
+            this.summary = summary;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            if (this.deadline > 0 && System.currentTimeMillis() > this.deadline) {
+                this.summary.addSkipped(this.snapshot);
+                return;
+            }
+
+            delete(getNameNodeLimit(this.manager));
+        }
+
+        private void delete(Semaphore limit) {
+            long backoff = retryBackoff;
+            this.started = System.nanoTime();
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    limit.acquire();
+                } catch (InterruptedException e) {
+                    this.summary.addSkipped(this.snapshot);
+                    return;
+                }
+
+                try {
+                    if (scheduler != null && !scheduler.acquire()) {
+                        LOG.info("Deferring delete of " + this.snapshot.getPath() +
+                                 ", the NameNode is slow");
+                        this.summary.addSkipped(this.snapshot);
+                        return;
+                    }
+
+                    this.manager.deleteSnapshot(this.snapshot);
+                    deleted();
+                    return;
+                } catch (InterruptedException e) {
+                    this.summary.addSkipped(this.snapshot);
+                    return;
+                } catch (IOException e) {
+                    if (attempt >= retries || !isTransient(e)) {
+                        LOG.error("Failed to delete snapshot " + this.snapshot.getPath(), e);
+                        this.summary.addFailed(this.snapshot, e);
+                        journal(false);
+                        output(e);
+                        return;
+                    }
+
+                    LOG.warn("Failed to delete snapshot " + this.snapshot.getPath() +
+                             ", retrying in " + backoff + "ms: " + e.getMessage());
+                } finally {
+                    limit.release();
+                }
+
+                // Back off without the permit, so other deletes can use it
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    this.summary.addSkipped(this.snapshot);
+                    return;
+                }
+
+                backoff *= 2;
+            }
+        }
+
+        private void deleted() {
+            this.summary.addDeleted(this.snapshot);
+            journal(true);
+            output(null);
+        }
+
+        private void output(IOException error) {
+            if (output != null) {
+                output.delete(this.manager.getDirectory(), this.snapshot.getName(),
+                              System.nanoTime() - this.started, error);
+            }
+        }
+
+        private void journal(boolean deleted) {
+            if (journal == null) {
+                return;
+            }
+
+            Path dir = this.manager.getDirectory();
+            try {
+                if (deleted) {
+                    journal.recordDeleted(dir, this.snapshot.getName());
+                } else {
+                    journal.recordFailed(dir, this.snapshot.getName());
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to journal the delete of " + this.snapshot.getPath(), e);
+            }
+        }
+    }
+}
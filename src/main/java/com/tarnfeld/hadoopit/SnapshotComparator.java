@@ -10,6 +10,9 @@ import java.util.Comparator;
 public class SnapshotComparator implements Comparator<Snapshot> {
     @Override
     public int compare(Snapshot s1, Snapshot s2) {
-        return s1.getCreatedTime().compareTo(s2.getCreatedTime());
+        long c1 = s1.getCreatedMillis();
+        long c2 = s2.getCreatedMillis();
+
+        return c1 < c2 ? -1 : (c1 == c2 ? 0 : 1);
     }
 }
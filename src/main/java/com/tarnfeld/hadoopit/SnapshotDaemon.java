@@ -0,0 +1,464 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.joda.time.DateTime;
+
+/**
+ * SnapshotDaemon is a long running process that manages snapshots for many
+ * directories and tiers from a single JVM, sharing one filesystem handle.
+ *
+ * Every directory is scheduled independently on an in-process timer. Each
+ * time a directory is run all of its tiers are processed from a shared
+ * SnapshotIndex, and the directory is rescheduled for when the next of its
+ * tiers is due. Snapshot groups are scheduled as a single task. First runs are
+ * spread across a startup window so the NameNode doesn't receive every
+ * request at once. Policies with a DirectoryPattern are matched against the
+ * snapshottable directories as the daemon starts.
+ *
+ * Directories with a watched tier are also polled every watch interval, and
+ * snapshotted early when their ChangeWatcher is triggered.
+ *
+ * A directory is only worked on by one task at a time, so a group and a
+ * directory with a tier of its own don't overlap, and with DirectoryLeases
+ * set it's skipped while another process holds the lease on any of its
+ * tiers.
+ */
+public class SnapshotDaemon {
+    private static final Log LOG = LogFactory.getLog(SnapshotDaemon.class);
+
+    private static final long MIN_DELAY_MILLIS = 1000; // Shortest reschedule
+    private static final long RETRY_DELAY_MILLIS = 60 * 1000; // Delay after a failed run
+    private static final int LOCK_STRIPES = 64;
+
+    private DistributedFileSystem filesystem;
+    private List<SnapshotPolicy> policies;
+    private Integer threads;
+    private Integer startupSpread; // Window to spread first runs over, in seconds
+    private long watchIntervalMillis = 60 * 1000; // Time between polls of watched directories
+    private long watchDebounceMillis = 5 * 60 * 1000; // Time watched changes must settle for
+
+    private SnapshotCleaner cleaner;
+    private SnapshotCatalog catalog; // Optional, may be null
+    private SnapshotExporter exporter; // Optional, may be null
+    private SnapshotScheduler scheduler; // Optional, may be null
+    private SnapshotLimitGuard guard; // Optional, may be null
+    private DirectoryLeases leases; // Optional, may be null
+    private DirectoryLocks locks = new DirectoryLocks(LOCK_STRIPES);
+    private ScheduledExecutorService executor;
+
+    public SnapshotDaemon(DistributedFileSystem fs, List<SnapshotPolicy> policies,
+                          SnapshotCleaner cleaner, SnapshotCatalog catalog,
+                          Integer threads, Integer startupSpread) {
+        this.filesystem = fs;
+        this.policies = policies;
+        this.cleaner = cleaner;
+        this.catalog = catalog;
+        this.threads = threads;
+        this.startupSpread = startupSpread;
+    }
+
+    /**
+     * Export every new snapshot with the given exporter, or pass null to
+     * keep snapshots on the cluster only.
+     */
+    public void setExporter(SnapshotExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    /**
+     * Spread and rate limit snapshots with the given scheduler, or pass null
+     * to take snapshots as soon as they're due.
+     */
+    public void setScheduler(SnapshotScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Keep the number of snapshots under the limits of the given guard, or
+     * pass null to only be limited by retention.
+     */
+    public void setGuard(SnapshotLimitGuard guard) {
+        this.guard = guard;
+    }
+
+    /**
+     * Hold the lease on a directory while it's being worked on, or pass null
+     * if no other process manages the same directories.
+     */
+    public void setLeases(DirectoryLeases leases) {
+        this.leases = leases;
+    }
+
+    /**
+     * Poll directories with a watched tier every interval, and take their
+     * snapshot once the changes have settled for the debounce period.
+     */
+    public void setWatch(long intervalMillis, long debounceMillis) {
+        this.watchIntervalMillis = intervalMillis;
+        this.watchDebounceMillis = debounceMillis;
+    }
+
+    public synchronized void start() throws Exception {
+        if (this.executor != null) {
+            throw new IllegalStateException("The daemon has already been started");
+        }
+
+        List<Runnable> tasks = createTasks();
+        this.executor = Executors.newScheduledThreadPool(this.threads);
+
+        long spreadMillis = this.startupSpread * 1000L;
+        for (int i = 0; i < tasks.size(); i++) {
+            long delay = spreadMillis * i / tasks.size();
+            this.executor.schedule(tasks.get(i), delay, TimeUnit.MILLISECONDS);
+        }
+
+        LOG.info("Scheduled " + tasks.size() + " directories and groups with " +
+                 this.policies.size() + " policies");
+    }
+
+    public synchronized void stop() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+
+        this.cleaner.shutdown();
+
+        if (this.exporter != null) {
+            this.exporter.shutdown();
+        }
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        while (!this.executor.awaitTermination(1, TimeUnit.MINUTES)) { }
+    }
+
+    private List<Runnable> createTasks() throws Exception {
+        ChangeDetector changeDetector = new ChangeDetector(this.filesystem);
+        ChangeWatcher watcher = new ChangeWatcher(changeDetector, this.watchDebounceMillis);
+
+        // Tasks are only built on start, so the listing is fetched once
+        SnapshottableDirectoryResolver resolver = new SnapshottableDirectoryResolver(
+            this.filesystem, Long.MAX_VALUE);
+
+        List<SnapshotPolicy> policies = this.policies;
+        if (PolicyDiscovery.hasPatterns(policies)) {
+            policies = PolicyDiscovery.expand(policies, resolver.listDirectories());
+        }
+
+        Map<Path, List<SnapshotManager>> managers = new LinkedHashMap<Path, List<SnapshotManager>>();
+        Map<String, List<SnapshotManager>> groups = new LinkedHashMap<String, List<SnapshotManager>>();
+        for (SnapshotPolicy policy : policies) {
+            try {
+                addPolicy(policy, resolver, changeDetector, watcher, managers, groups);
+            } catch (Exception e) {
+                // A directory that's gone or can't be snapshotted is left out
+                LOG.error("Failed to manage snapshots for " + policy + ", skipping it", e);
+            }
+        }
+
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (Map.Entry<Path, List<SnapshotManager>> entry : managers.entrySet()) {
+            tasks.add(new DirectoryTask(entry.getKey(), entry.getValue()));
+        }
+
+        for (Map.Entry<String, List<SnapshotManager>> entry : groups.entrySet()) {
+            tasks.add(new GroupTask(new SnapshotGroup(entry.getKey(), entry.getValue())));
+        }
+
+        return tasks;
+    }
+
+    /**
+     * Create the manager for a single policy, adding it to the tiers of its
+     * directory or the members of its group.
+     */
+    private void addPolicy(SnapshotPolicy policy, SnapshottableDirectoryResolver resolver,
+                           ChangeDetector changeDetector, ChangeWatcher watcher,
+                           Map<Path, List<SnapshotManager>> managers,
+                           Map<String, List<SnapshotManager>> groups) throws IOException {
+        if (policy.getGroup() != null) {
+            SnapshotManager member = new SnapshotManager(
+                resolver,
+                policy.getDirectory(),
+                policy.getFrequency(),
+                policy.getRetention(),
+                policy.getLabel()
+            );
+
+            if (this.catalog != null) {
+                member.getSnapshotIndex().setCatalog(this.catalog);
+            }
+
+            if (this.guard != null) {
+                this.guard.registerGroupMember(member);
+            }
+
+            if (!groups.containsKey(policy.getGroup())) {
+                groups.put(policy.getGroup(), new ArrayList<SnapshotManager>());
+            }
+
+            groups.get(policy.getGroup()).add(member);
+            return;
+        }
+
+        List<SnapshotManager> tiers = managers.get(policy.getDirectory());
+        if (tiers == null) {
+            SnapshotManager manager = new SnapshotManager(
+                resolver,
+                policy.getDirectory(),
+                policy.getFrequency(),
+                policy.getRetention(),
+                policy.getLabel()
+            );
+
+            if (this.catalog != null) {
+                manager.getSnapshotIndex().setCatalog(this.catalog);
+            }
+
+            tiers = new ArrayList<SnapshotManager>();
+            tiers.add(manager);
+            managers.put(policy.getDirectory(), tiers);
+        } else {
+            tiers.add(new SnapshotManager(
+                this.filesystem,
+                tiers.get(0).getSnapshotIndex(),
+                policy.getFrequency(),
+                policy.getRetention(),
+                policy.getLabel()
+            ));
+        }
+
+        if (policy.isOnlyIfChanged()) {
+            tiers.get(tiers.size() - 1).setChangeDetector(changeDetector);
+        }
+
+        if (policy.getWatchThreshold() != null) {
+            tiers.get(tiers.size() - 1).setWatcher(watcher, policy.getWatchThreshold());
+        }
+
+        tiers.get(tiers.size() - 1).setScheduler(this.scheduler);
+        if (this.guard != null) {
+            this.guard.register(tiers.get(tiers.size() - 1));
+        }
+    }
+
+    /**
+     * Lock the directories of the given tiers and take their leases,
+     * returning the locks to release with unlock(), or null if another
+     * process holds a lease.
+     */
+    private List<Lock> lock(List<SnapshotManager> tiers) throws IOException {
+        List<Path> directories = new ArrayList<Path>();
+        for (SnapshotManager tier : tiers) {
+            directories.add(tier.getDirectory());
+        }
+
+        List<Lock> held = this.locks.getAll(directories);
+        for (Lock lock : held) {
+            lock.lock();
+        }
+
+        if (this.leases != null) {
+            try {
+                for (SnapshotManager tier : tiers) {
+                    if (!this.leases.tryAcquire(tier.getDirectory(), tier.getFrequency(),
+                                                tier.getLabel())) {
+                        LOG.info("Skipping " + tier.getDirectory() + ", another process " +
+                                 "holds the lease on a tier of it");
+                        unlock(tiers, held);
+                        return null;
+                    }
+                }
+            } catch (IOException e) {
+                unlock(tiers, held);
+                throw e;
+            }
+        }
+
+        return held;
+    }
+
+    private void unlock(List<SnapshotManager> tiers, List<Lock> held) {
+        if (this.leases != null) {
+            for (SnapshotManager tier : tiers) {
+                this.leases.release(tier.getDirectory(), tier.getFrequency(), tier.getLabel());
+            }
+        }
+
+        for (Lock lock : held) {
+            lock.unlock();
+        }
+    }
+
+    private void reschedule(Runnable task, long delay) {
+        try {
+            this.executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Not rescheduling " + task + ", daemon is stopping");
+        }
+    }
+
+    /**
+     * DirectoryTask processes every tier of a single directory and then
+     * reschedules itself for when the next tier is due.
+     */
+    private class DirectoryTask implements Runnable {
+
+        private Path directory;
+        private List<SnapshotManager> managers;
+
+        private SnapshotIndex index;
+
+        public DirectoryTask(Path directory, List<SnapshotManager> managers) {
+            this.directory = directory;
+            this.managers = managers;
+            this.index = managers.get(0).getSnapshotIndex();
+        }
+
+        @Override
+        public void run() {
+            long delay;
+            List<Lock> held = null;
+            try {
+                held = lock(this.managers);
+                if (held == null) {
+                    reschedule(this, RETRY_DELAY_MILLIS);
+                    return;
+                }
+
+                // Pick up any changes made outside of the daemon (or reload
+                // from the catalog), then serve every tier from one listing
+                this.index.invalidate();
+
+                for (SnapshotManager manager : this.managers) {
+                    if (manager.takeSnapshot() != null) {
+                        LOG.info("Created snapshot of " + this.directory);
+
+                        if (exporter != null) {
+                            exporter.export(manager, manager.getLatestSnapshot());
+                        }
+                    }
+                }
+
+                CleanupSummary summary = cleaner.cleanup(this.managers);
+                LOG.info("Cleaned up outdated snapshots of " + this.directory + ": " + summary);
+
+                delay = getNextRunDelay();
+            } catch (Exception e) {
+                LOG.error("Failed to manage snapshots of " + this.directory, e);
+                delay = RETRY_DELAY_MILLIS;
+            } finally {
+                if (held != null) {
+                    unlock(this.managers, held);
+                }
+            }
+
+            reschedule(this, delay);
+        }
+
+        private long getNextRunDelay() throws Exception {
+            DateTime next = null;
+            boolean watched = false;
+            for (SnapshotManager manager : this.managers) {
+                watched |= manager.isWatched();
+                DateTime due = manager.getNextSnapshotTime();
+                if (next == null || due.isBefore(next)) {
+                    next = due;
+                }
+            }
+
+            long delay = next.getMillis() - DateTime.now().getMillis();
+
+            // A snapshot that's still due was deferred, so back off
+            if (delay <= 0 && scheduler != null) {
+                return scheduler.getDeferDelay();
+            }
+
+            if (watched) {
+                delay = Math.min(delay, watchIntervalMillis);
+            }
+
+            return Math.max(delay, MIN_DELAY_MILLIS);
+        }
+
+        @Override
+        public String toString() {
+            return this.directory.toString();
+        }
+    }
+
+    /**
+     * GroupTask snapshots every member of a group together, cleans up
+     * outdated group snapshots and reschedules itself for the next one.
+     */
+    private class GroupTask implements Runnable {
+
+        private SnapshotGroup group;
+
+        public GroupTask(SnapshotGroup group) {
+            this.group = group;
+        }
+
+        @Override
+        public void run() {
+            long delay;
+            List<Lock> held = null;
+            try {
+                held = lock(this.group.getMembers());
+                if (held == null) {
+                    reschedule(this, RETRY_DELAY_MILLIS);
+                    return;
+                }
+
+                for (SnapshotManager member : this.group.getMembers()) {
+                    member.getSnapshotIndex().invalidate();
+                }
+
+                String name = this.group.takeSnapshot();
+                if (name != null) {
+                    LOG.info("Created snapshot " + name + " of group " + this.group);
+
+                    if (exporter != null) {
+                        for (SnapshotManager member : this.group.getMembers()) {
+                            exporter.export(member, member.getLatestSnapshot());
+                        }
+                    }
+                }
+
+                Integer removed = this.group.cleanupOutdatedSnapshots();
+                LOG.info("Cleaned up " + removed + " outdated snapshots of group " + this.group);
+
+                delay = Math.max(this.group.getNextSnapshotTime().getMillis() -
+                                 DateTime.now().getMillis(), MIN_DELAY_MILLIS);
+            } catch (Exception e) {
+                LOG.error("Failed to manage snapshots of group " + this.group, e);
+                delay = RETRY_DELAY_MILLIS;
+            } finally {
+                if (held != null) {
+                    unlock(this.group.getMembers(), held);
+                }
+            }
+
+            reschedule(this, delay);
+        }
+
+        @Override
+        public String toString() {
+            return this.group.toString();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffType;
+
+/**
+ * SnapshotExporter copies snapshots to a second filesystem, such as another
+ * HDFS cluster, to protect against losing more than a single directory.
+ *
+ * Each directory is exported to `ROOT/DIRECTORY`, which holds;
+ *
+ *   data/                 A mirror of the directory as of the latest export
+ *   manifests/SNAPSHOT    The changes applied by each export
+ *   LATEST                The name of the latest exported snapshot
+ *
+ * Only the files that differ between the latest exported snapshot and the
+ * new one are copied, found with a snapshot diff report. If the latest
+ * exported snapshot no longer exists the whole snapshot is copied. Files
+ * are copied in parallel, each streamed through a fixed size buffer.
+ */
+public class SnapshotExporter {
+    private static final Log LOG = LogFactory.getLog(SnapshotExporter.class);
+
+    private FileSystem target;
+    private Path root; // Directory on the target to export into
+    private Integer bufferSize; // Bytes buffered for each file being copied
+
+    private ExecutorService executor;
+
+    public SnapshotExporter(FileSystem target, Path root, Integer threads, Integer bufferSize) {
+        this.target = target;
+        this.root = root;
+        this.bufferSize = bufferSize;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Export the given snapshot of the manager's directory, returning the
+     * number of files copied.
+     */
+    public int export(SnapshotManager manager, Snapshot snapshot) throws IOException {
+        DistributedFileSystem fs = manager.getFileSystem();
+        Path exportDir = new Path(this.root, manager.getDirectory().toUri().getPath().substring(1));
+        Path data = new Path(exportDir, "data");
+        Path latest = new Path(exportDir, "LATEST");
+
+        String previous = readLatest(latest);
+        if (snapshot.getName().equals(previous)) {
+            return 0;
+        }
+
+        List<String> manifest = new ArrayList<String>();
+        List<FileCopy> copies = new ArrayList<FileCopy>();
+
+        Path previousPath = previous == null ? null : new Path(snapshot.getPath().getParent(), previous);
+        if (previousPath != null && fs.exists(previousPath) && planDiff(
+                fs, manager.getDirectory(), previous, snapshot, data, manifest, copies)) {
+            LOG.info("Exporting changes to " + manager.getDirectory() + " from " +
+                     previous + " to " + snapshot.getName());
+        } else {
+            LOG.info("Exporting all of " + snapshot.getPath());
+            manifest.clear();
+            copies.clear();
+
+            this.target.delete(data, true);
+            planTree(fs, snapshot.getPath(), data, "", manifest, copies);
+            previous = null;
+        }
+
+        copy(fs, copies);
+        writeManifest(new Path(exportDir, "manifests/" + snapshot.getName()),
+                      previous, snapshot.getName(), manifest);
+        writeLatest(latest, snapshot.getName());
+
+        LOG.info("Exported " + copies.size() + " files of " + snapshot.getPath());
+        return copies.size();
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Plan the copies needed to bring the mirror from one snapshot to the
+     * next, applying deletes as they're found. Returns false if the diff
+     * can't be applied, in which case the whole snapshot must be copied.
+     */
+    private boolean planDiff(DistributedFileSystem fs, Path directory, String previous,
+                             Snapshot snapshot, Path data, List<String> manifest,
+                             List<FileCopy> copies) throws IOException {
+        SnapshotDiffReport report = fs.getSnapshotDiffReport(directory, previous, snapshot.getName());
+
+        List<DiffReportEntry> changes = new ArrayList<DiffReportEntry>();
+        for (DiffReportEntry entry : report.getDiffList()) {
+            // Renames don't carry their target here, so they can't be replayed
+            if (entry.getType() == DiffType.RENAME) {
+                LOG.warn("Can't apply rename of " + entry.getRelativePathString() +
+                         " incrementally");
+                return false;
+            } else if (entry.getType() == DiffType.DELETE) {
+                String path = DFSUtil.bytes2String(entry.getRelativePath());
+                this.target.delete(child(data, path), true);
+                manifest.add("- " + path);
+            } else {
+                changes.add(entry);
+            }
+        }
+
+        for (DiffReportEntry entry : changes) {
+            String path = DFSUtil.bytes2String(entry.getRelativePath());
+            FileStatus status = fs.getFileStatus(child(snapshot.getPath(), path));
+
+            if (status.isDirectory()) {
+                // Modified directories only had their children changed, which
+                // are listed separately. Created ones are copied in full.
+                if (entry.getType() == DiffType.CREATE) {
+                    planTree(fs, status.getPath(), child(data, path), path, manifest, copies);
+                }
+            } else {
+                manifest.add(entry.getType().getLabel() + " " + path);
+                copies.add(new FileCopy(status.getPath(), child(data, path)));
+            }
+        }
+
+        return true;
+    }
+
+    private void planTree(DistributedFileSystem fs, Path source, Path destination,
+                          String path, List<String> manifest, List<FileCopy> copies)
+                                  throws IOException {
+        this.target.mkdirs(destination);
+
+        for (FileStatus status : fs.listStatus(source)) {
+            String childPath = path.isEmpty() ? status.getPath().getName() :
+                                                path + "/" + status.getPath().getName();
+            Path childDestination = new Path(destination, status.getPath().getName());
+
+            if (status.isDirectory()) {
+                planTree(fs, status.getPath(), childDestination, childPath, manifest, copies);
+            } else {
+                manifest.add("+ " + childPath);
+                copies.add(new FileCopy(status.getPath(), childDestination));
+            }
+        }
+    }
+
+    private void copy(final DistributedFileSystem fs, List<FileCopy> copies) throws IOException {
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final FileCopy copy : copies) {
+            futures.add(this.executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    copyFile(fs, copy.source, copy.destination);
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while exporting", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to export " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private void copyFile(DistributedFileSystem fs, Path source, Path destination)
+            throws IOException {
+        byte[] buffer = new byte[this.bufferSize];
+
+        InputStream in = fs.open(source);
+        try {
+            OutputStream out = this.target.create(destination, true);
+            try {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private String readLatest(Path latest) throws IOException {
+        if (!this.target.exists(latest)) {
+            return null;
+        }
+
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(this.target.open(latest), "UTF-8"));
+        try {
+            String name = reader.readLine();
+            return name == null || name.trim().isEmpty() ? null : name.trim();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void writeLatest(Path latest, String name) throws IOException {
+        Writer writer = new OutputStreamWriter(this.target.create(latest, true), "UTF-8");
+        try {
+            writer.write(name + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeManifest(Path path, String previous, String name, List<String> manifest)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(this.target.create(path, true), "UTF-8");
+        try {
+            writer.write("# " + (previous == null ? "full" : previous) + " -> " + name + "\n");
+            for (String entry : manifest) {
+                writer.write(entry + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static Path child(Path parent, String path) {
+        return path.isEmpty() ? parent : new Path(parent, path);
+    }
+
+    /**
+     * A single file to copy from a snapshot into the mirror.
+     */
+    private static class FileCopy {
+        private Path source;
+        private Path destination;
+
+        public FileCopy(Path source, Path destination) {
+            this.source = source;
+            this.destination = destination;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * SnapshotFuture is the pending result of an asynchronous snapshot
+ * operation. Callbacks can be added to react to the result without
+ * blocking a thread, and getResult() waits for it with failures rethrown
+ * as the IOException that caused them.
+ */
+public class SnapshotFuture<T> extends FutureTask<T> {
+
+    private List<SnapshotCallback<? super T>> callbacks = new ArrayList<SnapshotCallback<? super T>>();
+    private volatile boolean timedOut = false;
+
+    public SnapshotFuture(Callable<T> callable) {
+        super(callable);
+    }
+
+    /**
+     * Run the callback once the operation completes, straight away (on the
+     * calling thread) if it already has.
+     */
+    public void addCallback(SnapshotCallback<? super T> callback) {
+        // get() can return before done() has run, so check the task itself
+        synchronized (this) {
+            if (!isDone()) {
+                this.callbacks.add(callback);
+                return;
+            }
+        }
+
+        runCallback(callback);
+    }
+
+    /**
+     * Cancel the operation if it hasn't completed after the given timeout.
+     */
+    public void cancelAfter(ScheduledExecutorService timer, long timeout, TimeUnit unit) {
+        final ScheduledFuture<?> cancel = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                timedOut = true;
+                if (!cancel(true)) {
+                    timedOut = false;
+                }
+            }
+        }, timeout, unit);
+
+        addCallback(new SnapshotCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                cancel.cancel(false);
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                cancel.cancel(false);
+            }
+        });
+    }
+
+    public boolean isTimedOut() {
+        return this.timedOut && isCancelled();
+    }
+
+    /**
+     * Wait for the result of the operation. Failures are rethrown as the
+     * IOException that caused them, and cancellation or timeouts as an
+     * InterruptedIOException.
+     */
+    public T getResult() throws IOException, InterruptedException {
+        try {
+            return get();
+        } catch (CancellationException e) {
+            throw new InterruptedIOException(isTimedOut() ? "Timed out" : "Cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    protected void done() {
+        List<SnapshotCallback<? super T>> pending;
+        synchronized (this) {
+            pending = new ArrayList<SnapshotCallback<? super T>>(this.callbacks);
+            this.callbacks.clear();
+        }
+
+        for (SnapshotCallback<? super T> callback : pending) {
+            runCallback(callback);
+        }
+    }
+
+    private void runCallback(SnapshotCallback<? super T> callback) {
+        T result;
+        try {
+            result = get();
+        } catch (CancellationException e) {
+            callback.onFailure(isTimedOut() ? new TimeoutException() : e);
+            return;
+        } catch (ExecutionException e) {
+            callback.onFailure(e.getCause());
+            return;
+        } catch (InterruptedException e) {
+            // The operation has completed, so get() doesn't block
+            Thread.currentThread().interrupt();
+            callback.onFailure(e);
+            return;
+        }
+
+        callback.onSuccess(result);
+    }
+}
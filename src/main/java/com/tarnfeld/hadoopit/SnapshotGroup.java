@@ -0,0 +1,288 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.joda.time.DateTime;
+
+/**
+ * SnapshotGroup takes snapshots of several related directories together,
+ * so they can be restored to a consistent point in time.
+ *
+ * Every member is snapshotted with the same name, and so the same
+ * timestamp. The createSnapshot calls are released together from a barrier
+ * to keep them as close as possible, and if any of them fails the snapshots
+ * that were created are deleted again. Retention applies to whole groups,
+ * a group snapshot is outdated (and deleted from every member) when its
+ * timestamp is outdated.
+ *
+ * Every member must have the same frequency, retention policy and label.
+ */
+public class SnapshotGroup {
+    private static final Log LOG = LogFactory.getLog(SnapshotGroup.class);
+
+    private String name;
+    private List<SnapshotManager> members;
+
+    private Integer frequency;
+    private RetentionPolicy retention;
+    private String label;
+
+    public SnapshotGroup(String name, List<SnapshotManager> members) {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("The group " + name + " has no members");
+        }
+
+        SnapshotManager first = members.get(0);
+        for (SnapshotManager member : members) {
+            if (!member.getFrequency().equals(first.getFrequency()) ||
+                    !member.getRetention().toString().equals(first.getRetention().toString()) ||
+                    !equals(member.getLabel(), first.getLabel())) {
+                throw new IllegalArgumentException("Every member of the group " + name +
+                                                   " must have the same frequency, retention" +
+                                                   " and label");
+            }
+        }
+
+        this.name = name;
+        this.members = members;
+        this.frequency = first.getFrequency();
+        this.retention = first.getRetention();
+        this.label = first.getLabel();
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public List<SnapshotManager> getMembers() {
+        return this.members;
+    }
+
+    /**
+     * Return the creation time of the newest group snapshot that every
+     * member has, or null if there isn't one.
+     */
+    public DateTime getLatestSnapshotTime() throws IOException {
+        Long latest = null;
+        for (Map.Entry<String, GroupSnapshot> entry : listGroupSnapshots().entrySet()) {
+            GroupSnapshot snapshot = entry.getValue();
+            if (snapshot.members.size() == this.members.size() &&
+                    (latest == null || snapshot.created > latest)) {
+                latest = snapshot.created;
+            }
+        }
+
+        return latest == null ? null : new DateTime(latest);
+    }
+
+    public DateTime getNextSnapshotTime() throws IOException {
+        DateTime latest = getLatestSnapshotTime();
+        return latest == null ? new DateTime(now()) : latest.plusMinutes(this.frequency);
+    }
+
+    public boolean needToTakeSnapshot() throws IOException {
+        return !getNextSnapshotTime().isAfter(now());
+    }
+
+    /**
+     * Snapshot every member if a group snapshot is due, returning the name of
+     * the new snapshot or null if none was due.
+     */
+    public String takeSnapshot() throws IOException, InterruptedException {
+        if (!needToTakeSnapshot()) {
+            SnapshotMetrics.get().snapshotSkipped();
+            return null;
+        }
+
+        return createSnapshot(new DateTime(now()));
+    }
+
+    /**
+     * Snapshot every member at once with a name for the given time. If any
+     * member fails the others are rolled back and an IOException is thrown.
+     */
+    public String createSnapshot(final DateTime created) throws IOException, InterruptedException {
+        String snapshotName = SnapshotNameCodec.encode(this.frequency, created.getMillis(), this.label);
+        LOG.info("Creating group snapshot " + snapshotName + " of " + this.name);
+
+        final CyclicBarrier barrier = new CyclicBarrier(this.members.size());
+        ExecutorService executor = Executors.newFixedThreadPool(this.members.size());
+
+        List<Future<Path>> creates = new ArrayList<Future<Path>>();
+        try {
+            for (final SnapshotManager member : this.members) {
+                creates.add(executor.submit(new Callable<Path>() {
+                    @Override
+                    public Path call() throws IOException, InterruptedException,
+                                              BrokenBarrierException {
+                        barrier.await();
+                        return member.createSnapshot(created);
+                    }
+                }));
+            }
+
+            List<SnapshotManager> snapshotted = new ArrayList<SnapshotManager>();
+            IOException failure = null;
+            for (int i = 0; i < creates.size(); i++) {
+                try {
+                    creates.get(i).get();
+                    snapshotted.add(this.members.get(i));
+                } catch (ExecutionException e) {
+                    LOG.error("Failed to snapshot " + this.members.get(i).getDirectory() +
+                              " for group " + this.name, e.getCause());
+                    if (failure == null) {
+                        failure = new IOException("Failed to snapshot " +
+                                                  this.members.get(i).getDirectory() +
+                                                  " for group " + this.name, e.getCause());
+                    }
+                }
+            }
+
+            if (failure != null) {
+                rollback(snapshotName, snapshotted);
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return snapshotName;
+    }
+
+    /**
+     * Return the names of group snapshots that are outdated, oldest first.
+     */
+    public List<String> listOutdatedSnapshots() throws IOException {
+        List<Map.Entry<String, GroupSnapshot>> snapshots =
+            new ArrayList<Map.Entry<String, GroupSnapshot>>(listGroupSnapshots().entrySet());
+
+        long[] created = new long[snapshots.size()];
+        for (int i = 0; i < created.length; i++) {
+            created[i] = snapshots.get(i).getValue().created;
+        }
+
+        List<Map.Entry<String, GroupSnapshot>> outdated =
+            new ArrayList<Map.Entry<String, GroupSnapshot>>();
+        for (int i : this.retention.selectOutdated(created, created.length,
+                                                   now())) {
+            outdated.add(snapshots.get(i));
+        }
+
+        Collections.sort(outdated, new Comparator<Map.Entry<String, GroupSnapshot>>() {
+            @Override
+            public int compare(Map.Entry<String, GroupSnapshot> a, Map.Entry<String, GroupSnapshot> b) {
+                return Long.compare(a.getValue().created, b.getValue().created);
+            }
+        });
+
+        List<String> names = new ArrayList<String>();
+        for (Map.Entry<String, GroupSnapshot> entry : outdated) {
+            names.add(entry.getKey());
+        }
+
+        return names;
+    }
+
+    /**
+     * Delete outdated group snapshots from every member that has them,
+     * returning the number of group snapshots removed.
+     */
+    public Integer cleanupOutdatedSnapshots() throws IOException {
+        Map<String, GroupSnapshot> snapshots = listGroupSnapshots();
+
+        Integer removed = 0;
+        for (String snapshotName : listOutdatedSnapshots()) {
+            for (SnapshotManager member : snapshots.get(snapshotName).members) {
+                member.deleteSnapshot(snapshotName);
+            }
+
+            removed++;
+        }
+
+        return removed;
+    }
+
+    private void rollback(String snapshotName, List<SnapshotManager> snapshotted) {
+        for (SnapshotManager member : snapshotted) {
+            try {
+                member.deleteSnapshot(snapshotName);
+            } catch (IOException e) {
+                LOG.error("Failed to roll back snapshot " + snapshotName + " of " +
+                          member.getDirectory() + ", it will be removed by retention", e);
+            }
+        }
+    }
+
+    /**
+     * List every group snapshot by name, with the members that have it.
+     */
+    private Map<String, GroupSnapshot> listGroupSnapshots() throws IOException {
+        Map<String, GroupSnapshot> snapshots = new LinkedHashMap<String, GroupSnapshot>();
+        for (SnapshotManager member : this.members) {
+            for (Snapshot snapshot : member.listAllSnapshots()) {
+                if (!equals(snapshot.getLabel(), this.label)) {
+                    continue;
+                }
+
+                GroupSnapshot group = snapshots.get(snapshot.getName());
+                if (group == null) {
+                    group = new GroupSnapshot(snapshot.getCreatedMillis());
+                    snapshots.put(snapshot.getName(), group);
+                }
+
+                group.members.add(member);
+            }
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * Members are expected to share a clock, the first one's is used.
+     */
+    private long now() {
+        return this.members.get(0).getClock().currentTimeMillis();
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public String toString() {
+        List<Path> directories = new ArrayList<Path>();
+        for (SnapshotManager member : this.members) {
+            directories.add(member.getDirectory());
+        }
+
+        return this.name + directories;
+    }
+
+    /**
+     * A single group snapshot, and the members that have it.
+     */
+    private static class GroupSnapshot {
+        private long created;
+        private List<SnapshotManager> members = new ArrayList<SnapshotManager>();
+
+        public GroupSnapshot(long created) {
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
+import org.joda.time.DateTime;
+
+/**
+ * SnapshotIndex lists the hadoopit snapshots of a snapshottable directory
+ * once, grouped by frequency, so every tier of the directory can be served
+ * from the same listing.
+ *
+ * The listing is kept until it is invalidated, which must happen whenever a
+ * snapshot is created or deleted.
+ *
+ * If a SnapshotCatalog is set the listing is served from the catalog while
+ * it is fresh, and HDFS is only listed to reconcile the catalog.
+ */
+public class SnapshotIndex {
+    private static final Log LOG = LogFactory.getLog(SnapshotIndex.class);
+
+    private SnapshotStore store;
+    private SnapshottableDirectoryStatus directoryStatus;
+    private SnapshotCatalog catalog; // Optional local record of snapshots
+
+    // Snapshots keyed by frequency, in listing order. Null until loaded.
+    private Map<Integer, SnapshotTier> snapshots;
+
+    // Snapshots not made by hadoopit, as of the latest HDFS listing
+    private int foreign = 0;
+
+    // Frequencies of the tiers managed, so emptied tiers are still reported
+    private Set<Integer> frequencies = new HashSet<Integer>();
+
+    // When each frequency was last found unchanged since its newest snapshot
+    private Map<Integer, Long> unchanged = new HashMap<Integer, Long>();
+
+    private Clock clock = Clock.SYSTEM;
+
+    public SnapshotIndex(DistributedFileSystem fs,
+                         SnapshottableDirectoryStatus directoryStatus) {
+        this(new HdfsSnapshotStore(fs), directoryStatus);
+    }
+
+    public SnapshotIndex(SnapshotStore store,
+                         SnapshottableDirectoryStatus directoryStatus) {
+        this.store = store;
+        this.directoryStatus = directoryStatus;
+    }
+
+    public SnapshotStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * Use the given clock to decide when the catalog needs reconciling.
+     */
+    public synchronized void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    public SnapshottableDirectoryStatus getSnapshottableDirectoryStatus() {
+        return this.directoryStatus;
+    }
+
+    public Path getDirectory() {
+        return this.directoryStatus.getFullPath();
+    }
+
+    /**
+     * Record that a tier of the given frequency is managed, so its metrics
+     * are reset once it has no snapshots left.
+     */
+    public synchronized void addTier(Integer frequency) {
+        this.frequencies.add(frequency);
+    }
+
+    public synchronized void setCatalog(SnapshotCatalog catalog) {
+        this.catalog = catalog;
+        this.snapshots = null;
+    }
+
+    /**
+     * Return the snapshots taken at the given frequency, newest first. The
+     * returned list is a copy and can be modified by the caller.
+     */
+    public synchronized List<Snapshot> getSnapshots(Integer frequency) throws IOException {
+        SnapshotTier tier = getTier(frequency);
+        List<Snapshot> snapshots = new ArrayList<Snapshot>(tier.size);
+        for (int i = 0; i < tier.size; i++) {
+            snapshots.add(tier.getSnapshot(i));
+        }
+
+        Collections.sort(snapshots, Collections.reverseOrder(new SnapshotComparator()));
+        return snapshots;
+    }
+
+    /**
+     * Return the newest snapshot taken at the given frequency, or null.
+     */
+    public synchronized Snapshot getLatestSnapshot(Integer frequency) throws IOException {
+        SnapshotTier tier = getTier(frequency);
+        int newest = RetentionSelector.selectNewest(tier.created, tier.size);
+        if (newest < 0) {
+            return null;
+        }
+
+        return tier.getSnapshot(newest);
+    }
+
+    /**
+     * Return the snapshots taken at the given frequency that are outdated
+     * according to the retention policy, newest first. Only the outdated
+     * snapshots are sorted.
+     */
+    public synchronized List<Snapshot> getOutdatedSnapshots(Integer frequency,
+                                                            RetentionPolicy retention)
+                                                                    throws IOException {
+        SnapshotTier tier = getTier(frequency);
+        long now = this.clock.currentTimeMillis();
+        int[] outdated = retention.selectOutdated(tier.created, tier.size, now);
+
+        List<Snapshot> snapshots = new ArrayList<Snapshot>(outdated.length);
+        for (int i : outdated) {
+            snapshots.add(tier.getSnapshot(i));
+        }
+
+        Collections.sort(snapshots, Collections.reverseOrder(new SnapshotComparator()));
+        return snapshots;
+    }
+
+    /**
+     * Return the newest snapshot of any frequency, or null.
+     */
+    public synchronized Snapshot getNewestSnapshot() throws IOException {
+        if (this.snapshots == null) {
+            this.snapshots = load();
+        }
+
+        SnapshotTier newestTier = null;
+        int newest = -1;
+        for (SnapshotTier tier : this.snapshots.values()) {
+            int i = RetentionSelector.selectNewest(tier.created, tier.size);
+            if (i >= 0 && (newestTier == null || tier.created[i] > newestTier.created[newest])) {
+                newestTier = tier;
+                newest = i;
+            }
+        }
+
+        return newestTier == null ? null : newestTier.getSnapshot(newest);
+    }
+
+    /**
+     * Return the snapshots of every frequency, newest first.
+     */
+    public synchronized List<Snapshot> getAllSnapshots() throws IOException {
+        if (this.snapshots == null) {
+            this.snapshots = load();
+        }
+
+        List<Snapshot> snapshots = new ArrayList<Snapshot>();
+        for (SnapshotTier tier : this.snapshots.values()) {
+            for (int i = 0; i < tier.size; i++) {
+                snapshots.add(tier.getSnapshot(i));
+            }
+        }
+
+        Collections.sort(snapshots, Collections.reverseOrder(new SnapshotComparator()));
+        return snapshots;
+    }
+
+    /**
+     * Return the number of snapshots of the directory, including any not
+     * made by hadoopit as of the latest HDFS listing.
+     */
+    public synchronized int getSnapshotCount() throws IOException {
+        if (this.snapshots == null) {
+            this.snapshots = load();
+        }
+
+        int count = this.foreign;
+        for (SnapshotTier tier : this.snapshots.values()) {
+            count += tier.size;
+        }
+
+        return count;
+    }
+
+    /**
+     * Return the newest snapshot of any frequency taken at or before the
+     * given time, or null if there isn't one.
+     */
+    public synchronized Snapshot getSnapshotAsOf(long time) throws IOException {
+        if (this.snapshots == null) {
+            this.snapshots = load();
+        }
+
+        SnapshotTier newestTier = null;
+        int newest = -1;
+        for (SnapshotTier tier : this.snapshots.values()) {
+            for (int i = 0; i < tier.size; i++) {
+                if (tier.created[i] <= time &&
+                        (newestTier == null || tier.created[i] > newestTier.created[newest])) {
+                    newestTier = tier;
+                    newest = i;
+                }
+            }
+        }
+
+        return newestTier == null ? null : newestTier.getSnapshot(newest);
+    }
+
+    public synchronized void invalidate() {
+        this.snapshots = null;
+    }
+
+    /**
+     * Record that a snapshot was created, and invalidate the listing.
+     */
+    public synchronized void snapshotCreated(String name, Integer frequency,
+                                             DateTime created, String label)
+                                                     throws IOException {
+        this.snapshots = null;
+        if (this.catalog != null) {
+            this.catalog.recordCreated(getDirectory(), name, frequency,
+                                       created.getMillis(), label);
+        }
+    }
+
+    /**
+     * Record that a snapshot was deleted, and invalidate the listing.
+     */
+    public synchronized void snapshotDeleted(String name) throws IOException {
+        this.snapshots = null;
+        if (this.catalog != null) {
+            this.catalog.recordDeleted(getDirectory(), name);
+        }
+    }
+
+    /**
+     * Record that the directory was found unchanged since the newest
+     * snapshot of the given frequency, so no snapshot was taken.
+     */
+    public synchronized void recordUnchanged(Integer frequency, long checked)
+            throws IOException {
+        this.unchanged.put(frequency, checked);
+        if (this.catalog != null) {
+            this.catalog.recordUnchanged(getDirectory(), frequency, checked);
+        }
+    }
+
+    /**
+     * Return when the directory was last found unchanged since the newest
+     * snapshot of the given frequency, or 0 if it never was.
+     */
+    public synchronized long getLastUnchanged(Integer frequency) {
+        Long checked = this.unchanged.get(frequency);
+        if (checked == null && this.catalog != null) {
+            return this.catalog.getLastUnchanged(getDirectory(), frequency);
+        }
+
+        return checked == null ? 0 : checked;
+    }
+
+    /**
+     * Record that HDFS didn't match the listing (a snapshot already existed
+     * or was already gone) so the next listing comes from HDFS.
+     */
+    public synchronized void markDrift() {
+        this.snapshots = null;
+        if (this.catalog != null) {
+            this.catalog.markDrift(getDirectory());
+        }
+    }
+
+    private SnapshotTier getTier(Integer frequency) throws IOException {
+        if (this.snapshots == null) {
+            this.snapshots = load();
+        }
+
+        SnapshotTier tier = this.snapshots.get(frequency);
+        if (tier == null) {
+            return new SnapshotTier();
+        }
+
+        return tier;
+    }
+
+    private Map<Integer, SnapshotTier> load() throws IOException {
+        long now = this.clock.currentTimeMillis();
+        Map<Integer, SnapshotTier> loaded;
+
+        if (this.catalog != null && this.catalog.isFresh(getDirectory(), now)) {
+            loaded = loadFromCatalog();
+        } else {
+            List<CatalogEntry> entries = new ArrayList<CatalogEntry>();
+            loaded = loadFromFileSystem(entries);
+
+            if (this.catalog != null) {
+                this.catalog.reconcile(getDirectory(), entries, this.foreign, now);
+            }
+        }
+
+        for (Map.Entry<Integer, SnapshotTier> entry : loaded.entrySet()) {
+            SnapshotTier tier = entry.getValue();
+            int newest = RetentionSelector.selectNewest(tier.created, tier.size);
+            SnapshotMetrics.get().updateTier(getDirectory(), entry.getKey(), tier.size,
+                                             tier.created[newest]);
+        }
+
+        for (Integer frequency : this.frequencies) {
+            if (!loaded.containsKey(frequency)) {
+                SnapshotMetrics.get().updateTier(getDirectory(), frequency, 0, 0);
+            }
+        }
+
+        return loaded;
+    }
+
+    private Map<Integer, SnapshotTier> loadFromCatalog() {
+        Map<Integer, SnapshotTier> loaded = new HashMap<Integer, SnapshotTier>();
+        for (CatalogEntry entry : this.catalog.getSnapshots(getDirectory())) {
+            getOrCreateTier(loaded, entry.getFrequency()).add(entry.getName(),
+                                                              entry.getCreatedMillis());
+        }
+
+        this.foreign = this.catalog.getForeignCount(getDirectory());
+        return loaded;
+    }
+
+    private Map<Integer, SnapshotTier> loadFromFileSystem(List<CatalogEntry> entries)
+            throws IOException {
+        Map<Integer, SnapshotTier> loaded = new HashMap<Integer, SnapshotTier>();
+
+        FileStatus[] files;
+        long start = System.nanoTime();
+        try {
+            files = this.store.listSnapshots(getDirectory());
+        } finally {
+            SnapshotMetrics.get().getGlobStatusLatency().record(System.nanoTime() - start);
+        }
+
+        int found = 0;
+        int foreign = 0;
+        if (files != null) {
+            for (FileStatus status : files) {
+                if (!status.isDirectory()) {
+                    continue;
+                }
+
+                String name = status.getPath().getName();
+                if (!name.startsWith(SnapshotNameCodec.PREFIX)) {
+                    foreign++;
+                    continue;
+                }
+
+                SnapshotName parsed;
+                try {
+                    parsed = SnapshotNameCodec.decode(name);
+                } catch (InvalidSnapshotNameException e) {
+                    LOG.warn("Ignoring snapshot " + status.getPath() + ": " + e.getMessage());
+                    foreign++;
+                    continue;
+                }
+
+                getOrCreateTier(loaded, parsed.getFrequency()).add(name, parsed.getCreatedMillis());
+                if (this.catalog != null) {
+                    entries.add(new CatalogEntry(name, parsed.getFrequency(),
+                                                 parsed.getCreatedMillis(), parsed.getLabel()));
+                }
+
+                found++;
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Found snapshot " + status.getPath());
+                }
+            }
+        }
+
+        LOG.info("Found " + found + " snapshots of " + getDirectory() +
+                 (foreign > 0 ? " and " + foreign + " not made by hadoopit" : ""));
+        this.foreign = foreign;
+        return loaded;
+    }
+
+    private SnapshotTier getOrCreateTier(Map<Integer, SnapshotTier> loaded, int frequency) {
+        SnapshotTier tier = loaded.get(frequency);
+        if (tier == null) {
+            tier = new SnapshotTier();
+            loaded.put(frequency, tier);
+        }
+
+        return tier;
+    }
+
+    /**
+     * SnapshotTier holds the listing of a single frequency as parallel
+     * arrays of names and creation times, not the FileStatus of each
+     * snapshot. Snapshot objects are only built (and then kept) for the
+     * entries a caller asks for.
+     */
+    private class SnapshotTier {
+        private String[] names = new String[0];
+        private long[] created = new long[0];
+        private Snapshot[] snapshots = new Snapshot[0];
+        private int size = 0;
+
+        private void add(String name, long createdMillis) {
+            if (this.size == this.names.length) {
+                int capacity = Math.max(16, this.size * 2);
+                this.names = Arrays.copyOf(this.names, capacity);
+                this.created = Arrays.copyOf(this.created, capacity);
+                this.snapshots = Arrays.copyOf(this.snapshots, capacity);
+            }
+
+            this.names[this.size] = name;
+            this.created[this.size] = createdMillis;
+            this.size++;
+        }
+
+        private Snapshot getSnapshot(int i) throws InvalidSnapshotNameException {
+            if (this.snapshots[i] == null) {
+                this.snapshots[i] = new Snapshot(directoryStatus, this.names[i]);
+            }
+
+            return this.snapshots[i];
+        }
+    }
+}
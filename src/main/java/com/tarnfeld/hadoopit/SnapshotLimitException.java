@@ -0,0 +1,50 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * SnapshotLimitException is thrown when a snapshot is refused because the
+ * directory, or every directory together, has reached its hard limit of
+ * snapshots (see SnapshotLimitGuard).
+ */
+public class SnapshotLimitException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private Path directory;
+    private long count;
+    private long limit;
+    private boolean namespace;
+
+    public SnapshotLimitException(Path directory, long count, long limit, boolean namespace) {
+        super("Refusing to snapshot " + directory + ", " +
+              (namespace ? "all directories together have " : "it has ") + count +
+              " snapshots and the limit is " + limit);
+        this.directory = directory;
+        this.count = count;
+        this.limit = limit;
+        this.namespace = namespace;
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public long getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * Return true if the namespace limit was reached, rather than the limit
+     * of the directory itself.
+     */
+    public boolean isNamespaceLimit() {
+        return this.namespace;
+    }
+}
@@ -0,0 +1,279 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * SnapshotLimitGuard keeps the number of snapshots of each directory, and of
+ * every directory it guards together, under a soft and a hard limit.
+ *
+ * HDFS refuses more than 65536 snapshots of a directory, and NameNode
+ * operations such as deletes and block reports slow down as snapshots pile
+ * up. Once a directory is over the soft limit its oldest snapshots, of any
+ * tier, are outdated until it's back under, whatever the retention policy
+ * says. The newest snapshot of each frequency is always kept, as are the
+ * snapshots of groups. At the hard limit new snapshots are refused with a
+ * SnapshotLimitException. The namespace soft limit is shared between
+ * directories in proportion to their snapshots.
+ *
+ * Counts include snapshots not made by hadoopit, which are never deleted.
+ * A limit of 0 is no limit.
+ */
+public class SnapshotLimitGuard {
+    private static final Log LOG = LogFactory.getLog(SnapshotLimitGuard.class);
+
+    public static final int HDFS_SNAPSHOT_LIMIT = 65536; // Most snapshots HDFS allows a directory
+
+    private int softLimit; // Snapshots of a directory before retention is tightened
+    private int hardLimit; // Snapshots of a directory before new ones are refused
+    private long namespaceSoftLimit;
+    private long namespaceHardLimit;
+
+    private Map<String, Integer> counts = new HashMap<String, Integer>(); // Latest count by directory
+    private Map<String, List<SnapshotManager>> tiers = new HashMap<String, List<SnapshotManager>>();
+    private Set<String> groupTiers = new HashSet<String>(); // "DIRECTORY:FREQUENCY" of group members
+
+    public SnapshotLimitGuard(int softLimit, int hardLimit,
+                              long namespaceSoftLimit, long namespaceHardLimit) {
+        if (softLimit < 0 || hardLimit < 0 || namespaceSoftLimit < 0 || namespaceHardLimit < 0) {
+            throw new IllegalArgumentException("Snapshot limits can't be negative");
+        }
+
+        if (softLimit > 0 && hardLimit > 0 && softLimit >= hardLimit) {
+            throw new IllegalArgumentException("The soft snapshot limit must be below the hard limit");
+        }
+
+        if (namespaceSoftLimit > 0 && namespaceHardLimit > 0 &&
+                namespaceSoftLimit >= namespaceHardLimit) {
+            throw new IllegalArgumentException("The soft namespace snapshot limit must be below " +
+                                               "the hard limit");
+        }
+
+        this.softLimit = softLimit;
+        this.hardLimit = hardLimit;
+        this.namespaceSoftLimit = namespaceSoftLimit;
+        this.namespaceHardLimit = namespaceHardLimit;
+    }
+
+    /**
+     * Guard a tier, whose snapshots may be evicted to keep its directory
+     * under the soft limit.
+     */
+    public synchronized void register(SnapshotManager manager) {
+        String key = key(manager.getDirectory());
+        if (!this.tiers.containsKey(key)) {
+            this.tiers.put(key, new ArrayList<SnapshotManager>());
+        }
+
+        this.tiers.get(key).add(manager);
+        seed(manager);
+        manager.setGuard(this);
+    }
+
+    /**
+     * Guard a member of a snapshot group. Group snapshots are kept or deleted
+     * from every member together, so they're never evicted.
+     */
+    public synchronized void registerGroupMember(SnapshotManager manager) {
+        this.groupTiers.add(key(manager.getDirectory()) + ":" + manager.getFrequency());
+        seed(manager);
+        manager.setGuard(this);
+    }
+
+    public synchronized int getSnapshotCount(Path directory) {
+        Integer count = this.counts.get(key(directory));
+        return count == null ? 0 : count;
+    }
+
+    public synchronized long getNamespaceSnapshotCount() {
+        long total = 0;
+        for (Integer count : this.counts.values()) {
+            total += count;
+        }
+
+        return total;
+    }
+
+    /**
+     * Check a snapshot of the manager's directory can be created, throwing a
+     * SnapshotLimitException if a hard limit has been reached.
+     */
+    public void checkCreate(SnapshotManager manager) throws IOException {
+        Path directory = manager.getDirectory();
+        int count = manager.getSnapshotIndex().getSnapshotCount();
+
+        synchronized (this) {
+            observe(directory, count);
+            long total = getNamespaceSnapshotCount();
+
+            if (this.hardLimit > 0 && count >= this.hardLimit) {
+                refuse(new SnapshotLimitException(directory, count, this.hardLimit, false));
+            } else if (this.namespaceHardLimit > 0 && total >= this.namespaceHardLimit) {
+                refuse(new SnapshotLimitException(directory, total, this.namespaceHardLimit, true));
+            }
+
+            if (this.softLimit > 0 && count >= this.softLimit) {
+                LOG.warn(directory + " has " + count + " snapshots, over the soft limit of " +
+                         this.softLimit);
+            } else if (this.namespaceSoftLimit > 0 && total >= this.namespaceSoftLimit) {
+                LOG.warn("All directories together have " + total + " snapshots, over the " +
+                         "soft limit of " + this.namespaceSoftLimit);
+            }
+        }
+    }
+
+    public synchronized void snapshotCreated(Path directory) {
+        observe(directory, getSnapshotCount(directory) + 1);
+    }
+
+    public synchronized void snapshotDeleted(Path directory) {
+        observe(directory, Math.max(0, getSnapshotCount(directory) - 1));
+    }
+
+    /**
+     * Return the snapshots the manager should delete, beyond those outdated
+     * by its own retention policy, to bring its directory under the soft
+     * limits. The snapshots to evict are chosen oldest first across every
+     * tier of the directory, and each is returned to the tier it belongs to,
+     * or to the first tier if its frequency isn't guarded.
+     */
+    public List<Snapshot> listEvictions(SnapshotManager manager) throws IOException {
+        Path directory = manager.getDirectory();
+        SnapshotIndex index = manager.getSnapshotIndex();
+        int count = index.getSnapshotCount();
+
+        long target;
+        List<SnapshotManager> directoryTiers;
+        synchronized (this) {
+            observe(directory, count);
+            target = getTarget(count);
+            if (target >= count) {
+                return new ArrayList<Snapshot>();
+            }
+
+            directoryTiers = new ArrayList<SnapshotManager>();
+            if (this.tiers.containsKey(key(directory))) {
+                directoryTiers.addAll(this.tiers.get(key(directory)));
+            }
+
+            if (!directoryTiers.contains(manager)) {
+                directoryTiers.add(manager);
+            }
+        }
+
+        // Snapshots outdated by the retention of any tier count towards the target
+        Set<String> expired = new HashSet<String>();
+        for (SnapshotManager tier : directoryTiers) {
+            for (Snapshot snapshot : tier.listExpiredSnapshots()) {
+                expired.add(snapshot.getName());
+            }
+        }
+
+        long remaining = count;
+        Set<Integer> newest = new HashSet<Integer>();
+        List<Snapshot> candidates = new ArrayList<Snapshot>();
+        for (Snapshot snapshot : index.getAllSnapshots()) {
+            Integer frequency = snapshot.getSnapshotFrequency();
+            if (expired.contains(snapshot.getName())) {
+                remaining--;
+            } else if (newest.add(frequency)) {
+                continue;
+            } else if (!isGroupTier(directory, frequency)) {
+                candidates.add(snapshot);
+            }
+        }
+
+        // Candidates are newest first, so evict from the end
+        List<Snapshot> evictions = new ArrayList<Snapshot>();
+        for (int i = candidates.size() - 1; i >= 0 && remaining > target; i--) {
+            Snapshot snapshot = candidates.get(i);
+            if (getOwner(directoryTiers, snapshot) == manager) {
+                evictions.add(snapshot);
+            }
+
+            remaining--;
+        }
+
+        if (remaining > target) {
+            LOG.warn("Can't bring " + directory + " under " + target + " snapshots, " +
+                     remaining + " would remain");
+        }
+
+        if (!evictions.isEmpty()) {
+            LOG.warn("Evicting " + evictions.size() + " snapshots of " + directory + " every " +
+                     manager.getFrequency() + " minutes, it has " + count + " snapshots and " +
+                     "the target is " + target);
+        }
+
+        return evictions;
+    }
+
+    /**
+     * Return the number of snapshots a directory holding the given number
+     * should be brought down to.
+     */
+    private long getTarget(int count) {
+        long target = count;
+        if (this.softLimit > 0) {
+            target = Math.min(target, this.softLimit);
+        }
+
+        long total = getNamespaceSnapshotCount();
+        if (this.namespaceSoftLimit > 0 && total > this.namespaceSoftLimit) {
+            long excess = total - this.namespaceSoftLimit;
+            long share = (excess * count + total - 1) / total;
+            target = Math.min(target, count - share);
+        }
+
+        return target;
+    }
+
+    private SnapshotManager getOwner(List<SnapshotManager> directoryTiers, Snapshot snapshot) {
+        for (SnapshotManager tier : directoryTiers) {
+            if (tier.getFrequency().equals(snapshot.getSnapshotFrequency())) {
+                return tier;
+            }
+        }
+
+        return directoryTiers.get(0);
+    }
+
+    private synchronized boolean isGroupTier(Path directory, Integer frequency) {
+        return this.groupTiers.contains(key(directory) + ":" + frequency);
+    }
+
+    private void refuse(SnapshotLimitException e) throws SnapshotLimitException {
+        LOG.error(e.getMessage());
+        SnapshotMetrics.get().snapshotRefused();
+        throw e;
+    }
+
+    /**
+     * Start from the count in the snapshottable directory listing, until the
+     * directory is next listed.
+     */
+    private void seed(SnapshotManager manager) {
+        if (!this.counts.containsKey(key(manager.getDirectory()))) {
+            observe(manager.getDirectory(),
+                    manager.getSnapshotIndex().getSnapshottableDirectoryStatus().getSnapshotNumber());
+        }
+    }
+
+    private void observe(Path directory, int count) {
+        this.counts.put(key(directory), count);
+        SnapshotMetrics.get().updateDirectory(new Path(key(directory)), count);
+    }
+
+    private static String key(Path path) {
+        return path.toUri().getPath();
+    }
+}
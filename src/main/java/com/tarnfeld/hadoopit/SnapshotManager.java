@@ -1,168 +1,415 @@
 
 package com.tarnfeld.hadoopit;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.SnapshotException;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 
 /**
  * SnapshotManager is an object that allows you to manage (create and cleanup)
  * snapshots of a snapshottable directory in HDFS.
  *
- * You provide a frequency and retention parameter, which is used to
- * automatically take new snapshots and clean up outdated ones.
+ * You provide a frequency and retention policy, which are used to
+ * automatically take new snapshots and clean up outdated ones. Snapshots are
+ * made through a SnapshotStore, and due as told by a Clock, so both can be
+ * simulated.
  */
 public class SnapshotManager {
     private static final Log LOG = LogFactory.getLog(SnapshotManager.class);
 
     private Path directory; // Root directory to snapshot
     private Integer frequency; // Frequency to perform snapshots in minutes
-    private Integer retention; // Number of snapshots to retain
+    private RetentionPolicy retention; // Which snapshots to retain
     private String label; // Custom human readable label for snapshots
 
-    private DistributedFileSystem filesystem;
+    private SnapshotStore store;
+    private DistributedFileSystem filesystem; // Null unless the store is HDFS
     private SnapshottableDirectoryStatus directoryStatus;
+    private SnapshotIndex index; // Listing of snapshots, shared between tiers
+    private ChangeDetector changeDetector; // Skips unchanged directories, if set
+    private ChangeWatcher watcher; // Takes snapshots early on change, if set
+    private int watchThreshold; // Changes that trigger an early snapshot
+    private SnapshotScheduler scheduler; // Spreads and limits snapshots, if set
+    private SnapshotLimitGuard guard; // Limits the number of snapshots, if set
+    private Clock clock = Clock.SYSTEM;
 
     public SnapshotManager(DistributedFileSystem fs, Path path,
                            Integer frequency, Integer retention, String label)
-                                   throws IOException, Exception {
+                                   throws IOException {
+        this(fs, path, frequency, new CountRetentionPolicy(retention), label);
+    }
+
+    public SnapshotManager(DistributedFileSystem fs, Path path, Integer frequency,
+                           RetentionPolicy retention, String label)
+                                   throws IOException {
+        this(new SnapshottableDirectoryResolver(fs, 0), path, frequency, retention, label);
+    }
+
+    /**
+     * Create a manager for a directory looked up through a resolver, which
+     * can be shared to build many managers from a single listing.
+     */
+    public SnapshotManager(SnapshottableDirectoryResolver resolver, Path path,
+                           Integer frequency, RetentionPolicy retention, String label)
+                                   throws IOException {
         this.directory = path;
         this.frequency = frequency;
         this.retention = retention;
         this.label = label;
+        this.store = resolver.getStore();
+        this.filesystem = resolver.getFileSystem();
+        this.directoryStatus = resolver.resolve(path);
+        this.index = new SnapshotIndex(this.store, this.directoryStatus);
+        this.index.addTier(frequency);
+    }
+
+    /**
+     * Create a manager for another tier of an already indexed directory. The
+     * index is shared, so all tiers are served from a single listing.
+     */
+    public SnapshotManager(DistributedFileSystem fs, SnapshotIndex index,
+                           Integer frequency, Integer retention, String label) {
+        this(fs, index, frequency, new CountRetentionPolicy(retention), label);
+    }
+
+    public SnapshotManager(DistributedFileSystem fs, SnapshotIndex index,
+                           Integer frequency, RetentionPolicy retention, String label) {
+        this(index, frequency, retention, label);
         this.filesystem = fs;
+    }
 
-        for (SnapshottableDirectoryStatus dir : fs.getSnapshottableDirListing()) {
-            if (dir.getFullPath().equals(this.directory)) {
-                this.directoryStatus = dir;
-                break;
-            }
-        }
+    public SnapshotManager(SnapshotIndex index, Integer frequency,
+                           RetentionPolicy retention, String label) {
+        this.directory = index.getDirectory();
+        this.frequency = frequency;
+        this.retention = retention;
+        this.label = label;
+        this.store = index.getStore();
+        this.filesystem = HdfsSnapshotStore.getFileSystem(this.store);
+        this.directoryStatus = index.getSnapshottableDirectoryStatus();
+        this.index = index;
+        this.index.addTier(frequency);
+    }
 
-        if (this.directoryStatus == null) {
-            throw new Exception("The directory " + this.directory + " is not snapshottable");
-        }
+    public SnapshotIndex getSnapshotIndex() {
+        return this.index;
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    public SnapshotStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * Return the HDFS filesystem of the directory, or null if the store
+     * isn't HDFS.
+     */
+    public DistributedFileSystem getFileSystem() {
+        return this.filesystem;
+    }
+
+    public Integer getFrequency() {
+        return this.frequency;
     }
 
-    public boolean needToTakeSnapshot() throws Exception {
+    public RetentionPolicy getRetention() {
+        return this.retention;
+    }
+
+    public String getLabel() {
+        return this.label;
+    }
+
+    /**
+     * Only take snapshots when the directory has changed since the latest
+     * one, as decided by the given detector. Pass null to always snapshot.
+     */
+    public void setChangeDetector(ChangeDetector detector) {
+        this.changeDetector = detector;
+    }
+
+    /**
+     * Also take a snapshot before one is due once the watcher has seen the
+     * given number of changes since the latest one. Pass null to only take
+     * snapshots on schedule.
+     */
+    public void setWatcher(ChangeWatcher watcher, int threshold) {
+        this.watcher = watcher;
+        this.watchThreshold = threshold;
+    }
+
+    public boolean isWatched() {
+        return this.watcher != null;
+    }
+
+    /**
+     * Schedule and rate limit snapshots with the given scheduler. Pass null
+     * to take snapshots as soon as they're due.
+     */
+    public void setScheduler(SnapshotScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Keep the number of snapshots under the limits of the given guard. Pass
+     * null to only be limited by retention. See SnapshotLimitGuard.register().
+     */
+    public void setGuard(SnapshotLimitGuard guard) {
+        this.guard = guard;
+    }
+
+    public Clock getClock() {
+        return this.clock;
+    }
+
+    /**
+     * Use the given clock to decide when snapshots are due and outdated. The
+     * clock is shared with the index, and so every tier of the directory.
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+        this.index.setClock(clock);
+    }
+
+    public boolean needToTakeSnapshot() throws IOException {
         Snapshot latestSnapshot = getLatestSnapshot();
         if (latestSnapshot == null) {
             return true;
         }
 
-        DateTime snapshotDue = latestSnapshot.getCreatedTime().plusMinutes(this.frequency);
+        if (getNextSnapshotTime(latestSnapshot).isBefore(this.clock.currentTimeMillis())) {
+            return true;
+        }
 
-        return snapshotDue.isBeforeNow();
+        return this.watcher != null &&
+               this.watcher.isTriggered(this.directory, this.frequency, this.label,
+                                        latestSnapshot, this.watchThreshold);
     }
 
-    public List<Snapshot> listAllSnapshots() throws Exception {
-        return listSnapshots(false);
-    }
+    public DateTime getNextSnapshotTime() throws IOException {
+        Snapshot latestSnapshot = getLatestSnapshot();
+        if (latestSnapshot == null) {
+            return new DateTime(this.clock.currentTimeMillis());
+        }
 
-    public List<Snapshot> listOutdatedSnapshots() throws Exception {
-        return listSnapshots(true);
+        return getNextSnapshotTime(latestSnapshot);
     }
 
-    public Snapshot getLatestSnapshot() throws Exception {
-        List<Snapshot> snapshots = listAllSnapshots();
-        if (snapshots.size() == 0) {
-            return null;
+    /**
+     * A snapshot is due one interval after the latest snapshot, or after the
+     * directory was last found unchanged, whichever is later. The scheduler
+     * may move this to the tier's slot.
+     */
+    private DateTime getNextSnapshotTime(Snapshot latestSnapshot) {
+        long checked = Math.max(latestSnapshot.getCreatedMillis(),
+                                this.index.getLastUnchanged(this.frequency));
+
+        if (this.scheduler != null) {
+            return this.scheduler.getNextSnapshotTime(this.directory, this.label,
+                                                      this.frequency, checked);
         }
 
-        return snapshots.get(0);
+        return new DateTime(checked).plusMinutes(this.frequency);
     }
 
-    private List<Snapshot> listSnapshots(boolean onlyOutdated) throws Exception {
-        Path snapshotsDir = new Path(this.directory + "/.snapshot/hadoopit-" +
-                                     this.frequency + "-*");
-        ArrayList<Snapshot> snapshots = new ArrayList<Snapshot>();
+    /**
+     * Check whether a due snapshot would be skipped because the directory
+     * hasn't changed since the latest snapshot.
+     */
+    public boolean isUnchanged() throws IOException {
+        Snapshot latestSnapshot = getLatestSnapshot();
+        if (this.changeDetector == null || latestSnapshot == null) {
+            return false;
+        }
 
-        FileStatus[] files = null;
-        try {
-            files = this.filesystem.globStatus(snapshotsDir);
-        } catch (FileNotFoundException e) { }
+        return !this.changeDetector.hasChanged(this.directory, latestSnapshot,
+                                               this.index.getNewestSnapshot());
+    }
 
-        if (files != null) {
-            for (FileStatus status : files) {
-                if (status.isDirectory()) {
-                    Snapshot snapshot = new Snapshot(this.directoryStatus, status);
-                    snapshots.add(snapshot);
+    public List<Snapshot> listAllSnapshots() throws IOException {
+        return this.index.getSnapshots(this.frequency);
+    }
 
-                    LOG.info("Found snapshot " + snapshot);
-                }
+    /**
+     * Return the snapshots of this tier to delete, those outdated by the
+     * retention policy and any evicted by the guard, newest first.
+     */
+    public List<Snapshot> listOutdatedSnapshots() throws IOException {
+        List<Snapshot> outdated = listExpiredSnapshots();
+        if (this.guard != null) {
+            Set<String> names = new HashSet<String>();
+            for (Snapshot snapshot : outdated) {
+                names.add(snapshot.getName());
             }
-        }
 
-        // Sort the snapshots to ensure they are in chronological order
-        Collections.sort(snapshots, new SnapshotComparator());
-        Collections.reverse(snapshots);
-
-        if (onlyOutdated) {
-            Integer retainedSnapshots = 0;
-            Iterator<Snapshot> iterator = snapshots.iterator();
-            while (iterator.hasNext()) {
-                iterator.next();
-                retainedSnapshots++;
-
-                if (retainedSnapshots <= this.retention) {
-                    iterator.remove();
+            for (Snapshot snapshot : this.guard.listEvictions(this)) {
+                if (names.add(snapshot.getName())) {
+                    outdated.add(snapshot);
                 }
             }
+
+            Collections.sort(outdated, Collections.reverseOrder(new SnapshotComparator()));
         }
 
-        return snapshots;
+        return outdated;
     }
 
-    public Path takeSnapshot() throws Exception {
-        if (needToTakeSnapshot()) {
-            DateTimeFormatter formatter = DateTimeFormat.forPattern(Snapshot.DATE_FORMAT);
+    /**
+     * Return the snapshots of this tier outdated by the retention policy
+     * alone, newest first.
+     */
+    public List<Snapshot> listExpiredSnapshots() throws IOException {
+        return this.index.getOutdatedSnapshots(this.frequency, this.retention);
+    }
 
-            String label = "";
-            if (this.label != null) {
-                label = "-" + this.label;
-            }
+    public Snapshot getLatestSnapshot() throws IOException {
+        return this.index.getLatestSnapshot(this.frequency);
+    }
 
-            String snapshotName = "hadoopit-" + this.frequency +
-                                  "-" + formatter.print(DateTime.now()) + label;
+    /**
+     * Return the snapshot (of any frequency) holding the state of the
+     * directory as of the given time, or null if there's none that old.
+     */
+    public Snapshot getSnapshotAsOf(DateTime time) throws IOException {
+        return this.index.getSnapshotAsOf(time.getMillis());
+    }
+
+    public Path takeSnapshot() throws IOException, InterruptedException {
+        SnapshotMetrics metrics = SnapshotMetrics.get();
+        if (!needToTakeSnapshot()) {
+            metrics.snapshotSkipped();
+            return null;
+        }
 
-            LOG.info("Creating snapshot with name " + snapshotName + " for path " + this.directory);
-            Path snapshot = this.filesystem.createSnapshot(this.directory, snapshotName);
+        if (isUnchanged()) {
+            LOG.info("Skipping snapshot of " + this.directory + ", unchanged since " +
+                     getLatestSnapshot().getName());
+            metrics.snapshotSkipped();
+            this.index.recordUnchanged(this.frequency, this.clock.currentTimeMillis());
+            return null;
+        }
 
-            if (snapshot != null) {
-                return snapshot;
-            }
+        if (this.scheduler != null && !this.scheduler.acquire()) {
+            LOG.info("Deferring snapshot of " + this.directory + ", the NameNode is slow");
+            metrics.snapshotSkipped();
+            return null;
         }
 
-        return null;
+        return createSnapshot(new DateTime(this.clock.currentTimeMillis()));
     }
 
-    public Integer cleanupOutdatedSnapshots() throws Exception {
-        if (this.retention == 0) {
-            return 0;
+    /**
+     * Create a snapshot named for the given time, whether or not one is due.
+     */
+    public Path createSnapshot(DateTime created) throws IOException {
+        SnapshotMetrics metrics = SnapshotMetrics.get();
+        String snapshotName = SnapshotNameCodec.encode(this.frequency,
+                                                       created.getMillis(),
+                                                       this.label);
+
+        if (this.guard != null) {
+            this.guard.checkCreate(this);
         }
 
+        LOG.info("Creating snapshot with name " + snapshotName + " for path " + this.directory);
+        Path snapshot;
+        long start = System.nanoTime();
+        try {
+            snapshot = this.store.createSnapshot(this.directory, snapshotName);
+        } catch (SnapshotException e) {
+            metrics.snapshotFailed();
+            this.index.markDrift();
+            throw e;
+        } catch (IOException e) {
+            metrics.snapshotFailed();
+            throw e;
+        } finally {
+            metrics.getCreateSnapshotLatency().record(System.nanoTime() - start);
+            this.index.invalidate();
+        }
+
+        metrics.snapshotCreated();
+        if (this.guard != null) {
+            this.guard.snapshotCreated(this.directory);
+        }
+
+        this.index.snapshotCreated(snapshotName, this.frequency, created, this.label);
+
+        return snapshot;
+    }
+
+    public Integer cleanupOutdatedSnapshots() throws IOException {
         Integer snapshotsRemoved = 0;
         List<Snapshot> outdatedSnapshots = listOutdatedSnapshots();
 
         for (Snapshot s : outdatedSnapshots) {
-            LOG.info("Deleting snapshot " + s.getPath());
-            this.filesystem.deleteSnapshot(this.directory, s.getName());
+            deleteSnapshot(s);
             snapshotsRemoved++;
         }
 
         return snapshotsRemoved;
     }
+
+    public void deleteSnapshot(Snapshot snapshot) throws IOException {
+        deleteSnapshot(snapshot.getName());
+    }
+
+    /**
+     * Delete the named snapshot. A snapshot that's already gone, deleted by
+     * an overlapping run, counts as deleted so cleanups are idempotent.
+     */
+    public void deleteSnapshot(String name) throws IOException {
+        SnapshotMetrics metrics = SnapshotMetrics.get();
+
+        LOG.info("Deleting snapshot " + name + " of " + this.directory);
+        long start = System.nanoTime();
+        try {
+            this.store.deleteSnapshot(this.directory, name);
+        } catch (SnapshotException e) {
+            if (isDeleted(name)) {
+                // Another run got there first, which is as good as deleting it
+                LOG.info("Snapshot " + name + " of " + this.directory + " was already deleted");
+                this.index.snapshotDeleted(name);
+                return;
+            }
+
+            metrics.snapshotFailed();
+            this.index.markDrift();
+            throw e;
+        } catch (IOException e) {
+            metrics.snapshotFailed();
+            throw e;
+        } finally {
+            metrics.getDeleteSnapshotLatency().record(System.nanoTime() - start);
+            this.index.invalidate();
+        }
+
+        metrics.snapshotDeleted();
+        if (this.guard != null) {
+            this.guard.snapshotDeleted(this.directory);
+        }
+
+        this.index.snapshotDeleted(name);
+    }
+
+    private boolean isDeleted(String name) {
+        try {
+            return !this.store.exists(new Path(this.directory + "/.snapshot/" + name));
+        } catch (IOException e) {
+            return false;
+        }
+    }
 }
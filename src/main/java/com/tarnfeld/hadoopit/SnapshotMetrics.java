@@ -0,0 +1,287 @@
+package com.tarnfeld.hadoopit;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * SnapshotMetrics collects process wide metrics about snapshot operations;
+ * NameNode call latencies, counts of snapshots created, deleted, skipped,
+ * failed and refused, per tier gauges of retained snapshots and the age of
+ * the newest one, and per directory gauges of the number of snapshots.
+ *
+ * Metrics are exported over JMX and in the Prometheus text format (see
+ * MetricsExporter).
+ */
+public class SnapshotMetrics implements SnapshotMetricsMXBean {
+
+    public static final String OBJECT_NAME = "com.tarnfeld.hadoopit:type=SnapshotMetrics";
+
+    private static final SnapshotMetrics INSTANCE = new SnapshotMetrics();
+
+    private LatencyHistogram globStatus = new LatencyHistogram();
+    private LatencyHistogram createSnapshot = new LatencyHistogram();
+    private LatencyHistogram deleteSnapshot = new LatencyHistogram();
+
+    private AtomicLong created = new AtomicLong();
+    private AtomicLong deleted = new AtomicLong();
+    private AtomicLong skipped = new AtomicLong();
+    private AtomicLong failed = new AtomicLong();
+    private AtomicLong refused = new AtomicLong();
+
+    private Map<TierKey, TierGauge> tiers = new ConcurrentHashMap<TierKey, TierGauge>();
+    private Map<String, Integer> directories = new ConcurrentHashMap<String, Integer>();
+
+    public static SnapshotMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Register the metrics with the platform MBean server, if they aren't
+     * already.
+     */
+    public synchronized void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(this, name);
+        }
+    }
+
+    public LatencyHistogram getGlobStatusLatency() {
+        return this.globStatus;
+    }
+
+    public LatencyHistogram getCreateSnapshotLatency() {
+        return this.createSnapshot;
+    }
+
+    public LatencyHistogram getDeleteSnapshotLatency() {
+        return this.deleteSnapshot;
+    }
+
+    public void snapshotCreated() {
+        this.created.incrementAndGet();
+    }
+
+    public void snapshotDeleted() {
+        this.deleted.incrementAndGet();
+    }
+
+    public void snapshotSkipped() {
+        this.skipped.incrementAndGet();
+    }
+
+    public void snapshotFailed() {
+        this.failed.incrementAndGet();
+    }
+
+    public void snapshotRefused() {
+        this.refused.incrementAndGet();
+    }
+
+    /**
+     * Update the gauges of a tier from a fresh listing. `newest` is the
+     * creation time of the newest snapshot in millis, or 0 if there are none.
+     */
+    public void updateTier(Path directory, int frequency, int retained, long newest) {
+        TierGauge gauge = new TierGauge();
+        gauge.retained = retained;
+        gauge.newest = newest;
+        this.tiers.put(new TierKey(directory.toString(), frequency), gauge);
+    }
+
+    /**
+     * Update the number of snapshots of every kind held by a directory.
+     */
+    public void updateDirectory(Path directory, int snapshots) {
+        this.directories.put(directory.toString(), snapshots);
+    }
+
+    @Override
+    public long getSnapshotsCreated() {
+        return this.created.get();
+    }
+
+    @Override
+    public long getSnapshotsDeleted() {
+        return this.deleted.get();
+    }
+
+    @Override
+    public long getSnapshotsSkipped() {
+        return this.skipped.get();
+    }
+
+    @Override
+    public long getSnapshotsFailed() {
+        return this.failed.get();
+    }
+
+    @Override
+    public long getSnapshotsRefused() {
+        return this.refused.get();
+    }
+
+    @Override
+    public long getGlobStatusCount() {
+        return this.globStatus.getCount();
+    }
+
+    @Override
+    public double getGlobStatusMeanMillis() {
+        return this.globStatus.getMeanMillis();
+    }
+
+    @Override
+    public long getCreateSnapshotCount() {
+        return this.createSnapshot.getCount();
+    }
+
+    @Override
+    public double getCreateSnapshotMeanMillis() {
+        return this.createSnapshot.getMeanMillis();
+    }
+
+    @Override
+    public long getDeleteSnapshotCount() {
+        return this.deleteSnapshot.getCount();
+    }
+
+    @Override
+    public double getDeleteSnapshotMeanMillis() {
+        return this.deleteSnapshot.getMeanMillis();
+    }
+
+    @Override
+    public Map<String, Integer> getRetainedSnapshots() {
+        Map<String, Integer> retained = new TreeMap<String, Integer>();
+        for (Map.Entry<TierKey, TierGauge> tier : this.tiers.entrySet()) {
+            retained.put(tier.getKey().toString(), tier.getValue().retained);
+        }
+
+        return retained;
+    }
+
+    @Override
+    public Map<String, Long> getNewestSnapshotAge() {
+        long now = System.currentTimeMillis();
+        Map<String, Long> ages = new TreeMap<String, Long>();
+        for (Map.Entry<TierKey, TierGauge> tier : this.tiers.entrySet()) {
+            if (tier.getValue().newest > 0) {
+                ages.put(tier.getKey().toString(), (now - tier.getValue().newest) / 1000);
+            }
+        }
+
+        return ages;
+    }
+
+    @Override
+    public Map<String, Integer> getDirectorySnapshots() {
+        return new TreeMap<String, Integer>(this.directories);
+    }
+
+    /**
+     * Return every metric in the Prometheus text exposition format.
+     */
+    public String toText() {
+        StringBuilder out = new StringBuilder();
+
+        out.append("# TYPE hadoopit_namenode_call_seconds histogram\n");
+        this.globStatus.writeText(out, "hadoopit_namenode_call_seconds", "call=\"globStatus\"");
+        this.createSnapshot.writeText(out, "hadoopit_namenode_call_seconds", "call=\"createSnapshot\"");
+        this.deleteSnapshot.writeText(out, "hadoopit_namenode_call_seconds", "call=\"deleteSnapshot\"");
+
+        out.append("# TYPE hadoopit_snapshots_total counter\n");
+        writeCounter(out, "created", this.created.get());
+        writeCounter(out, "deleted", this.deleted.get());
+        writeCounter(out, "skipped", this.skipped.get());
+        writeCounter(out, "failed", this.failed.get());
+        writeCounter(out, "refused", this.refused.get());
+
+        long now = System.currentTimeMillis();
+        out.append("# TYPE hadoopit_snapshots_retained gauge\n");
+        for (Map.Entry<TierKey, TierGauge> tier : this.tiers.entrySet()) {
+            out.append("hadoopit_snapshots_retained{").append(tier.getKey().toLabels())
+               .append("} ").append(tier.getValue().retained).append('\n');
+        }
+
+        out.append("# TYPE hadoopit_newest_snapshot_age_seconds gauge\n");
+        for (Map.Entry<TierKey, TierGauge> tier : this.tiers.entrySet()) {
+            if (tier.getValue().newest > 0) {
+                out.append("hadoopit_newest_snapshot_age_seconds{").append(tier.getKey().toLabels())
+                   .append("} ").append((now - tier.getValue().newest) / 1000.0).append('\n');
+            }
+        }
+
+        out.append("# TYPE hadoopit_directory_snapshots gauge\n");
+        for (Map.Entry<String, Integer> directory : this.directories.entrySet()) {
+            out.append("hadoopit_directory_snapshots{directory=\"").append(escape(directory.getKey()))
+               .append("\"} ").append(directory.getValue()).append('\n');
+        }
+
+        return out.toString();
+    }
+
+    private static void writeCounter(StringBuilder out, String result, long value) {
+        out.append("hadoopit_snapshots_total{result=\"").append(result).append("\"} ")
+           .append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * TierKey identifies the gauges of a single directory and frequency.
+     */
+    private static class TierKey {
+        private String directory;
+        private int frequency;
+
+        public TierKey(String directory, int frequency) {
+            this.directory = directory;
+            this.frequency = frequency;
+        }
+
+        public String toLabels() {
+            return "directory=\"" + escape(this.directory) + "\",frequency=\"" + this.frequency + "\"";
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof TierKey)) {
+                return false;
+            }
+
+            TierKey key = (TierKey) other;
+            return this.directory.equals(key.directory) && this.frequency == key.frequency;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.directory.hashCode() * 31 + this.frequency;
+        }
+
+        @Override
+        public String toString() {
+            return this.directory + ":" + this.frequency;
+        }
+    }
+
+    /**
+     * TierGauge holds the last seen state of a tier.
+     */
+    private static class TierGauge {
+        private int retained;
+        private long newest;
+    }
+}
@@ -0,0 +1,46 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.Map;
+
+/**
+ * SnapshotMetricsMXBean is the JMX view of SnapshotMetrics.
+ */
+public interface SnapshotMetricsMXBean {
+
+    long getSnapshotsCreated();
+
+    long getSnapshotsDeleted();
+
+    long getSnapshotsSkipped();
+
+    long getSnapshotsFailed();
+
+    long getSnapshotsRefused();
+
+    long getGlobStatusCount();
+
+    double getGlobStatusMeanMillis();
+
+    long getCreateSnapshotCount();
+
+    double getCreateSnapshotMeanMillis();
+
+    long getDeleteSnapshotCount();
+
+    double getDeleteSnapshotMeanMillis();
+
+    /**
+     * Snapshots retained, keyed by "DIRECTORY:FREQUENCY".
+     */
+    Map<String, Integer> getRetainedSnapshots();
+
+    /**
+     * Age of the newest snapshot in seconds, keyed by "DIRECTORY:FREQUENCY".
+     */
+    Map<String, Long> getNewestSnapshotAge();
+
+    /**
+     * Snapshots of every kind, keyed by directory.
+     */
+    Map<String, Integer> getDirectorySnapshots();
+}
@@ -0,0 +1,30 @@
+package com.tarnfeld.hadoopit;
+
+/**
+ * SnapshotName holds the fields decoded from a snapshot name by the
+ * SnapshotNameCodec.
+ */
+public class SnapshotName {
+
+    private int frequency;
+    private long created;
+    private String label;
+
+    public SnapshotName(int frequency, long created, String label) {
+        this.frequency = frequency;
+        this.created = created;
+        this.label = label;
+    }
+
+    public int getFrequency() {
+        return this.frequency;
+    }
+
+    public long getCreatedMillis() {
+        return this.created;
+    }
+
+    public String getLabel() {
+        return this.label;
+    }
+}
@@ -0,0 +1,140 @@
+package com.tarnfeld.hadoopit;
+
+import org.joda.time.chrono.ISOChronology;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * SnapshotNameCodec encodes and decodes snapshot names of the form
+ * `hadoopit-FREQUENCY-TIMESTAMP[-LABEL]`, where the timestamp is formatted
+ * with Snapshot.DATE_FORMAT in the default time zone.
+ *
+ * Names are encoded with a single shared formatter (Joda formatters are
+ * immutable and thread-safe) and decoded by hand, without regular
+ * expressions or intermediate strings for the numeric fields.
+ */
+public class SnapshotNameCodec {
+
+    public static final String PREFIX = "hadoopit-";
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormat.forPattern(Snapshot.DATE_FORMAT);
+
+    // Number of dot separated fields in Snapshot.DATE_FORMAT
+    private static final int TIMESTAMP_FIELDS = 7;
+
+    public static String encode(int frequency, long created, String label) {
+        StringBuffer name = new StringBuffer(48);
+        name.append(PREFIX).append(frequency).append('-');
+        FORMATTER.printTo(name, created);
+
+        if (label != null) {
+            name.append('-').append(label);
+        }
+
+        return name.toString();
+    }
+
+    public static SnapshotName decode(String name) throws InvalidSnapshotNameException {
+        if (!name.startsWith(PREFIX)) {
+            throw new InvalidSnapshotNameException(name, "expected prefix " + PREFIX);
+        }
+
+        int frequencyStart = PREFIX.length();
+        int frequencyEnd = name.indexOf('-', frequencyStart);
+        if (frequencyEnd < 0) {
+            throw new InvalidSnapshotNameException(name, "expected at least three parts");
+        }
+
+        int timestampEnd = name.indexOf('-', frequencyEnd + 1);
+        String label = null;
+        if (timestampEnd < 0) {
+            timestampEnd = name.length();
+        } else {
+            label = name.substring(timestampEnd + 1);
+        }
+
+        int frequency = (int) parseNumber(name, frequencyStart, frequencyEnd, "frequency");
+        long created = parseTimestamp(name, frequencyEnd + 1, timestampEnd);
+
+        return new SnapshotName(frequency, created, label);
+    }
+
+    /**
+     * Parse a timestamp in Snapshot.DATE_FORMAT between the given offsets
+     * into epoch millis in the default time zone.
+     */
+    public static long parseTimestamp(String name, int start, int end)
+            throws InvalidSnapshotNameException {
+        int[] fields = new int[TIMESTAMP_FIELDS];
+        int field = 0;
+        int fieldStart = start;
+
+        for (int i = start; i <= end; i++) {
+            if (i < end && name.charAt(i) != '.') {
+                continue;
+            }
+
+            if (field == TIMESTAMP_FIELDS) {
+                throw new InvalidSnapshotNameException(name, "too many timestamp fields");
+            }
+
+            if (field == TIMESTAMP_FIELDS - 1) {
+                fields[field] = parseFraction(name, fieldStart, i);
+            } else {
+                fields[field] = (int) parseNumber(name, fieldStart, i, "timestamp");
+            }
+
+            field++;
+            fieldStart = i + 1;
+        }
+
+        if (field != TIMESTAMP_FIELDS) {
+            throw new InvalidSnapshotNameException(name, "expected " + TIMESTAMP_FIELDS +
+                                                   " timestamp fields");
+        }
+
+        try {
+            return ISOChronology.getInstance().getDateTimeMillis(
+                fields[0], fields[1], fields[2], fields[3],
+                fields[4], fields[5], fields[6]);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidSnapshotNameException(name, e.getMessage());
+        }
+    }
+
+    private static long parseNumber(String name, int start, int end, String field)
+            throws InvalidSnapshotNameException {
+        if (start >= end || end - start > 9) {
+            throw new InvalidSnapshotNameException(name, "invalid " + field);
+        }
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new InvalidSnapshotNameException(name, "invalid " + field);
+            }
+
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    /**
+     * Parse the fraction of a second as millis, the same way the formatter
+     * does; "5" is 500ms and digits past the third are truncated.
+     */
+    private static int parseFraction(String name, int start, int end)
+            throws InvalidSnapshotNameException {
+        int digits = Math.min(end - start, 3);
+        int millis = (int) parseNumber(name, start, start + digits, "timestamp");
+        parseNumber(name, start, end, "timestamp");
+
+        for (int i = digits; i < 3; i++) {
+            millis *= 10;
+        }
+
+        return millis;
+    }
+}
@@ -0,0 +1,132 @@
+package com.tarnfeld.hadoopit;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * SnapshotPolicy describes a single tier of snapshots for a directory, the
+ * same frequency, retention policy and label you would otherwise pass on
+ * the command line.
+ *
+ * A policy can instead apply to every snapshottable directory matching a
+ * DirectoryPattern, in which case it's expanded with forDirectory() once
+ * the directories are known. A watched policy is also snapshotted ahead of
+ * schedule by the daemon once its directory has changed enough.
+ */
+public class SnapshotPolicy {
+
+    private Path directory; // Null if this policy has a pattern
+    private DirectoryPattern pattern; // Null if this policy has a directory
+    private Integer frequency;
+    private RetentionPolicy retention;
+    private String label;
+    private boolean onlyIfChanged;
+    private String group; // Name of the snapshot group this is part of, if any
+    private Integer watchThreshold; // Changes that trigger a snapshot, null if not watched
+
+    public SnapshotPolicy(Path directory, Integer frequency,
+                          RetentionPolicy retention, String label) {
+        this(directory, frequency, retention, label, false);
+    }
+
+    public SnapshotPolicy(Path directory, Integer frequency,
+                          RetentionPolicy retention, String label,
+                          boolean onlyIfChanged) {
+        this(directory, frequency, retention, label, onlyIfChanged, null);
+    }
+
+    public SnapshotPolicy(Path directory, Integer frequency,
+                          RetentionPolicy retention, String label,
+                          boolean onlyIfChanged, String group) {
+        this(directory, frequency, retention, label, onlyIfChanged, group, null);
+    }
+
+    public SnapshotPolicy(Path directory, Integer frequency,
+                          RetentionPolicy retention, String label,
+                          boolean onlyIfChanged, String group, Integer watchThreshold) {
+        this(directory, null, frequency, retention, label, onlyIfChanged, group, watchThreshold);
+    }
+
+    public SnapshotPolicy(DirectoryPattern pattern, Integer frequency,
+                          RetentionPolicy retention, String label,
+                          boolean onlyIfChanged, String group) {
+        this(pattern, frequency, retention, label, onlyIfChanged, group, null);
+    }
+
+    public SnapshotPolicy(DirectoryPattern pattern, Integer frequency,
+                          RetentionPolicy retention, String label,
+                          boolean onlyIfChanged, String group, Integer watchThreshold) {
+        this(null, pattern, frequency, retention, label, onlyIfChanged, group, watchThreshold);
+    }
+
+    private SnapshotPolicy(Path directory, DirectoryPattern pattern, Integer frequency,
+                           RetentionPolicy retention, String label,
+                           boolean onlyIfChanged, String group, Integer watchThreshold) {
+        this.directory = directory;
+        this.pattern = pattern;
+        this.frequency = frequency;
+        this.retention = retention;
+        this.label = label;
+        this.onlyIfChanged = onlyIfChanged;
+        this.group = group;
+        this.watchThreshold = watchThreshold;
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    public DirectoryPattern getPattern() {
+        return this.pattern;
+    }
+
+    public boolean isPattern() {
+        return this.pattern != null;
+    }
+
+    /**
+     * Return a copy of this policy for a single directory.
+     */
+    public SnapshotPolicy forDirectory(Path directory) {
+        return new SnapshotPolicy(directory, this.frequency, this.retention,
+                                  this.label, this.onlyIfChanged, this.group,
+                                  this.watchThreshold);
+    }
+
+    public Integer getFrequency() {
+        return this.frequency;
+    }
+
+    public RetentionPolicy getRetention() {
+        return this.retention;
+    }
+
+    public String getLabel() {
+        return this.label;
+    }
+
+    public boolean isOnlyIfChanged() {
+        return this.onlyIfChanged;
+    }
+
+    public String getGroup() {
+        return this.group;
+    }
+
+    /**
+     * Return the number of changes that trigger a snapshot before one is
+     * due, or null if the directory isn't watched.
+     */
+    public Integer getWatchThreshold() {
+        return this.watchThreshold;
+    }
+
+    @Override
+    public String toString() {
+        return (this.pattern != null ? this.pattern : this.directory) + "[freq=" + this.frequency +
+               ", retention=" + this.retention +
+               ", label=" + this.label +
+               ", onlyIfChanged=" + this.onlyIfChanged +
+               ", group=" + this.group +
+               ", watch=" + this.watchThreshold + "]";
+    }
+}
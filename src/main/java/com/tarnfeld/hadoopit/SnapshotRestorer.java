@@ -0,0 +1,173 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * SnapshotRestorer copies files or whole directory trees out of a
+ * snapshot, either back into place or to another destination.
+ *
+ * The tree is walked on a work stealing pool, each directory listing its
+ * children and forking a task for each, so large and unevenly shaped trees
+ * keep every thread busy. Files that already exist at the destination with
+ * the same length and checksum are left alone. A dry run walks the tree in
+ * the same way but only reports what would be copied.
+ *
+ * Files that exist at the destination but not in the snapshot are
+ * reported and never deleted.
+ */
+public class SnapshotRestorer {
+    private static final Log LOG = LogFactory.getLog(SnapshotRestorer.class);
+
+    private Integer bufferSize; // Bytes buffered for each file being copied
+    private ForkJoinPool pool;
+
+    public SnapshotRestorer(Integer threads, Integer bufferSize) {
+        this.bufferSize = bufferSize;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Restore a path from a snapshot to the given destination. The path is
+     * relative to the snapshotted directory, empty to restore all of it.
+     */
+    public RestoreSummary restore(FileSystem fs, Snapshot snapshot, String path,
+                                  Path destination, boolean dryRun) throws IOException {
+        Path source = path.isEmpty() ? snapshot.getPath() : new Path(snapshot.getPath(), path);
+        FileSystem target = destination.getFileSystem(fs.getConf());
+
+        LOG.info((dryRun ? "Previewing restore of " : "Restoring ") + source + " to " + destination);
+
+        RestoreSummary summary = new RestoreSummary();
+        this.pool.invoke(new RestoreTask(fs, target, fs.getFileStatus(source),
+                                         destination, dryRun, summary));
+
+        return summary;
+    }
+
+    public void shutdown() {
+        this.pool.shutdownNow();
+    }
+
+    /**
+     * RestoreTask restores a single file, or lists a directory and forks a
+     * task for each of its children.
+     */
+    private class RestoreTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private FileSystem fs;
+        private FileSystem target;
+        private FileStatus source;
+        private Path destination;
+        private boolean dryRun;
+        private RestoreSummary summary;
+
+        public RestoreTask(FileSystem fs, FileSystem target, FileStatus source,
+                           Path destination, boolean dryRun, RestoreSummary summary) {
+            this.fs = fs;
+            this.target = target;
+            this.source = source;
+            this.destination = destination;
+            this.dryRun = dryRun;
+            this.summary = summary;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (this.source.isDirectory()) {
+                    invokeAll(restoreDirectory());
+                } else if (isUnchanged()) {
+                    this.summary.addUnchanged(this.destination);
+                } else {
+                    if (!this.dryRun) {
+                        copy();
+                    }
+
+                    this.summary.addCopied(this.destination, this.source.getLen());
+                }
+            } catch (IOException e) {
+                LOG.error("Failed to restore " + this.source.getPath(), e);
+                this.summary.addFailed(this.destination, e);
+            }
+        }
+
+        private List<RestoreTask> restoreDirectory() throws IOException {
+            if (!this.dryRun) {
+                this.target.mkdirs(this.destination);
+            }
+
+            List<RestoreTask> children = new ArrayList<RestoreTask>();
+            Set<String> names = new HashSet<String>();
+            for (FileStatus child : this.fs.listStatus(this.source.getPath())) {
+                String name = child.getPath().getName();
+                names.add(name);
+                children.add(new RestoreTask(this.fs, this.target, child,
+                                             new Path(this.destination, name),
+                                             this.dryRun, this.summary));
+            }
+
+            if (this.target.exists(this.destination)) {
+                for (FileStatus existing : this.target.listStatus(this.destination)) {
+                    if (!names.contains(existing.getPath().getName())) {
+                        this.summary.addExtra(existing.getPath());
+                    }
+                }
+            }
+
+            return children;
+        }
+
+        private boolean isUnchanged() throws IOException {
+            FileStatus existing;
+            try {
+                existing = this.target.getFileStatus(this.destination);
+            } catch (FileNotFoundException e) {
+                return false;
+            }
+
+            if (existing.isDirectory() || existing.getLen() != this.source.getLen()) {
+                return false;
+            }
+
+            FileChecksum checksum = this.fs.getFileChecksum(this.source.getPath());
+            return checksum != null && checksum.equals(this.target.getFileChecksum(this.destination));
+        }
+
+        private void copy() throws IOException {
+            byte[] buffer = new byte[bufferSize];
+
+            InputStream in = this.fs.open(this.source.getPath());
+            try {
+                OutputStream out = this.target.create(this.destination, true);
+                try {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
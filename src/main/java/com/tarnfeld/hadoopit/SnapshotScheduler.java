@@ -0,0 +1,138 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.Path;
+import org.joda.time.DateTime;
+
+/**
+ * SnapshotScheduler keeps many directories from hitting the NameNode with
+ * snapshot operations at the same moment.
+ *
+ * When spreading is enabled each tier is given a fixed slot within its
+ * frequency, derived from a hash of its directory and label, and a snapshot
+ * is due at the first slot at least half an interval after the previous
+ * one. Snapshot creates and deletes are limited to a rate by a token
+ * bucket, and are deferred while the latency of recent NameNode calls is
+ * above a threshold.
+ */
+public class SnapshotScheduler {
+
+    private boolean spread; // Whether to give each tier its own slot
+    private double rate; // Operations per second, 0 for unlimited
+    private long latencyThreshold; // Millis of NameNode latency to defer at, 0 to never defer
+    private long latencyWindow; // Millis after which a latency no longer counts
+
+    private SnapshotMetrics metrics;
+
+    private double tokens; // Operations available without waiting
+    private long refilled; // When tokens were last added, in nanos
+
+    public SnapshotScheduler(boolean spread, double rate,
+                             long latencyThreshold, long latencyWindow,
+                             SnapshotMetrics metrics) {
+        this.spread = spread;
+        this.rate = rate;
+        this.latencyThreshold = latencyThreshold;
+        this.latencyWindow = latencyWindow;
+        this.metrics = metrics;
+        this.tokens = getBurst();
+        this.refilled = System.nanoTime();
+    }
+
+    /**
+     * Return the offset of a tier's slot from the start of each interval.
+     * This only depends on the directory, label and frequency, so every run
+     * (and every host) agrees on it.
+     */
+    public static long getOffset(Path directory, String label, int frequency) {
+        String key = directory.toUri().getPath() + "\t" + (label == null ? "" : label);
+
+        // Spread the bits of String.hashCode(), which is stable between JVMs
+        long hash = key.hashCode() * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 32;
+
+        long period = frequency * 60 * 1000L;
+        return ((hash % period) + period) % period;
+    }
+
+    /**
+     * Return when the next snapshot of a tier is due, given when it was last
+     * taken (or found unchanged).
+     */
+    public DateTime getNextSnapshotTime(Path directory, String label, int frequency, long last) {
+        long period = frequency * 60 * 1000L;
+        if (!this.spread) {
+            return new DateTime(last + period);
+        }
+
+        long earliest = last + period / 2;
+        long offset = getOffset(directory, label, frequency);
+        long slot = earliest - ((earliest - offset) % period + period) % period;
+        if (slot < earliest) {
+            slot += period;
+        }
+
+        return new DateTime(slot);
+    }
+
+    /**
+     * Wait for permission to perform a snapshot operation. Returns false
+     * without waiting if the NameNode is slow and the operation should be
+     * deferred.
+     */
+    public boolean acquire() throws InterruptedException {
+        if (isNameNodeSlow()) {
+            return false;
+        }
+
+        if (this.rate <= 0) {
+            return true;
+        }
+
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            this.tokens = Math.min(getBurst(), this.tokens + (now - this.refilled) * this.rate / 1e9);
+            this.refilled = now;
+
+            // Take the token now, so callers queue in the order they arrived
+            this.tokens -= 1;
+            wait = this.tokens >= 0 ? 0 : (long) (-this.tokens / this.rate * 1e9);
+        }
+
+        TimeUnit.NANOSECONDS.sleep(wait);
+        return true;
+    }
+
+    /**
+     * Whether a recent createSnapshot, deleteSnapshot or globStatus call was
+     * slower than the threshold.
+     */
+    public boolean isNameNodeSlow() {
+        if (this.latencyThreshold <= 0) {
+            return false;
+        }
+
+        return isSlow(this.metrics.getCreateSnapshotLatency()) ||
+               isSlow(this.metrics.getDeleteSnapshotLatency()) ||
+               isSlow(this.metrics.getGlobStatusLatency());
+    }
+
+    /**
+     * How long to wait before retrying deferred work. Latencies older than
+     * this are ignored, so the NameNode is tried again afterwards.
+     */
+    public long getDeferDelay() {
+        return this.latencyWindow;
+    }
+
+    private boolean isSlow(LatencyHistogram latency) {
+        long age = System.currentTimeMillis() - latency.getLastRecorded();
+        return age < this.latencyWindow && latency.getRecentMillis() > this.latencyThreshold;
+    }
+
+    private double getBurst() {
+        return Math.max(1, this.rate);
+    }
+}
@@ -0,0 +1,36 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
+
+/**
+ * SnapshotStore is the set of NameNode calls hadoopit makes to list, create
+ * and delete snapshots. HdfsSnapshotStore makes them against HDFS, while
+ * InMemorySnapshotStore simulates them for testing at scale.
+ */
+public interface SnapshotStore {
+
+    /**
+     * Return the URI of the store, the authority of which identifies the
+     * NameNode it talks to.
+     */
+    URI getUri();
+
+    SnapshottableDirectoryStatus[] getSnapshottableDirListing() throws IOException;
+
+    /**
+     * Return every snapshot of the directory, including those not made by
+     * hadoopit.
+     */
+    FileStatus[] listSnapshots(Path directory) throws IOException;
+
+    Path createSnapshot(Path directory, String name) throws IOException;
+
+    void deleteSnapshot(Path directory, String name) throws IOException;
+
+    boolean exists(Path path) throws IOException;
+}
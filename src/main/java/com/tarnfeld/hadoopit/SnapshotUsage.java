@@ -0,0 +1,40 @@
+package com.tarnfeld.hadoopit;
+
+/**
+ * SnapshotUsage is the space held by a single snapshot, in bytes of space
+ * consumed (including replication);
+ *
+ *   size        Everything the snapshot references, shared or not
+ *   exclusive   Data only this snapshot holds, freed by deleting it alone
+ *   cumulative  Data freed by deleting this snapshot and every older one
+ */
+public class SnapshotUsage {
+
+    private Snapshot snapshot;
+    private long size;
+    private long exclusive;
+    private long cumulative;
+
+    public SnapshotUsage(Snapshot snapshot, long size, long exclusive, long cumulative) {
+        this.snapshot = snapshot;
+        this.size = size;
+        this.exclusive = exclusive;
+        this.cumulative = cumulative;
+    }
+
+    public Snapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public long getExclusive() {
+        return this.exclusive;
+    }
+
+    public long getCumulative() {
+        return this.cumulative;
+    }
+}
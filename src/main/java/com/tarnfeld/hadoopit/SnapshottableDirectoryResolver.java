@@ -0,0 +1,136 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
+
+/**
+ * SnapshottableDirectoryResolver looks up the SnapshottableDirectoryStatus
+ * of directories, so many managers can be built from a single call to
+ * getSnapshottableDirListing().
+ *
+ * The listing is indexed by path and fetched again once it's older than
+ * the given TTL, or when a directory can't be found in it.
+ */
+public class SnapshottableDirectoryResolver {
+    private static final Log LOG = LogFactory.getLog(SnapshottableDirectoryResolver.class);
+
+    private SnapshotStore store;
+    private long ttl; // Millis before the listing is fetched again
+
+    private Map<String, SnapshottableDirectoryStatus> directories; // Null until fetched
+    private long fetched = 0; // When the listing was last fetched
+
+    public SnapshottableDirectoryResolver(DistributedFileSystem fs, long ttl) {
+        this(new HdfsSnapshotStore(fs), ttl);
+    }
+
+    public SnapshottableDirectoryResolver(SnapshotStore store, long ttl) {
+        this.store = store;
+        this.ttl = ttl;
+    }
+
+    public SnapshotStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * Return the HDFS filesystem directories are resolved from, or null if
+     * the store isn't HDFS.
+     */
+    public DistributedFileSystem getFileSystem() {
+        return HdfsSnapshotStore.getFileSystem(this.store);
+    }
+
+    public synchronized SnapshottableDirectoryStatus resolve(Path path) throws IOException {
+        String key = key(path);
+
+        boolean refreshed = false;
+        if (this.directories == null || System.currentTimeMillis() - this.fetched > this.ttl) {
+            refresh();
+            refreshed = true;
+        }
+
+        SnapshottableDirectoryStatus status = this.directories.get(key);
+        if (status == null && !refreshed) {
+            refresh();
+            status = this.directories.get(key);
+        }
+
+        if (status == null) {
+            throw new NotSnapshottableException(path, findSnapshottableRoot(key));
+        }
+
+        return status;
+    }
+
+    /**
+     * Return the path of every snapshottable directory, in order.
+     */
+    public synchronized List<Path> listDirectories() throws IOException {
+        if (this.directories == null || System.currentTimeMillis() - this.fetched > this.ttl) {
+            refresh();
+        }
+
+        List<String> keys = new ArrayList<String>(this.directories.keySet());
+        Collections.sort(keys);
+
+        List<Path> paths = new ArrayList<Path>();
+        for (String key : keys) {
+            paths.add(new Path(key));
+        }
+
+        return paths;
+    }
+
+    /**
+     * Drop the listing, so the next lookup fetches it again.
+     */
+    public synchronized void invalidate() {
+        this.directories = null;
+    }
+
+    private void refresh() throws IOException {
+        Map<String, SnapshottableDirectoryStatus> directories =
+            new HashMap<String, SnapshottableDirectoryStatus>();
+
+        SnapshottableDirectoryStatus[] listing = this.store.getSnapshottableDirListing();
+        if (listing != null) {
+            for (SnapshottableDirectoryStatus status : listing) {
+                directories.put(key(status.getFullPath()), status);
+            }
+        }
+
+        LOG.debug("Found " + directories.size() + " snapshottable directories");
+        this.directories = directories;
+        this.fetched = System.currentTimeMillis();
+    }
+
+    private Path findSnapshottableRoot(String key) {
+        for (Path parent = new Path(key).getParent(); parent != null; parent = parent.getParent()) {
+            SnapshottableDirectoryStatus status = this.directories.get(key(parent));
+            if (status != null) {
+                return status.getFullPath();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Paths are compared without their scheme and authority, so qualified
+     * and unqualified paths resolve to the same directory.
+     */
+    private static String key(Path path) {
+        return new Path(path.toUri().getPath()).toString();
+    }
+}
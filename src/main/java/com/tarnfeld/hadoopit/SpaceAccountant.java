@@ -0,0 +1,276 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffType;
+
+/**
+ * SpaceAccountant works out how much space the snapshots of a directory
+ * hold, from snapshot diff reports between each snapshot and the next and
+ * the sizes of the files they created, deleted or modified.
+ *
+ * Content summaries of directories within a snapshot count every version of
+ * their children (in every snapshot) on this version of HDFS, so sizes are
+ * summed from file statuses instead. Only the oldest snapshot is walked in
+ * full, the size of every later one follows from the changes made to it.
+ *
+ * Diffs and sizes are fetched in parallel on a bounded pool, and those of
+ * snapshots (which are immutable) are cached for the life of the
+ * accountant. Only the diff between the newest snapshot and the live
+ * directory is made every time.
+ *
+ * The accounting is an estimate. A version is attributed to the snapshots
+ * from where its path (or a parent directory) was last created or modified
+ * to where it was deleted or modified, and blocks shared by an appended
+ * file are counted again for each version.
+ */
+public class SpaceAccountant {
+    private static final Log LOG = LogFactory.getLog(SpaceAccountant.class);
+
+    private static final long MODIFIED_DIRECTORY = -1; // Has no space of its own
+
+    private ExecutorService executor;
+
+    // Cached by the path within a snapshot
+    private ConcurrentMap<String, Future<Long>> sizes = new ConcurrentHashMap<String, Future<Long>>();
+
+    // Cached by the directory and the names of the two snapshots
+    private ConcurrentMap<String, Future<List<DiffReportEntry>>> diffs =
+        new ConcurrentHashMap<String, Future<List<DiffReportEntry>>>();
+
+    public SpaceAccountant(Integer threads) {
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    public SpaceReport account(SnapshotIndex index, DistributedFileSystem fs)
+            throws IOException {
+        Path directory = index.getDirectory();
+        List<Snapshot> snapshots = index.getAllSnapshots();
+        Collections.sort(snapshots, new SnapshotComparator());
+
+        int count = snapshots.size();
+        if (count == 0) {
+            return new SpaceReport(snapshots, new long[0]);
+        }
+
+        Future<Long> oldest = getSize(fs, snapshots.get(0).getPath(), false);
+        List<Future<List<DiffReportEntry>>> changes = new ArrayList<Future<List<DiffReportEntry>>>();
+        for (int i = 0; i < count; i++) {
+            String next = i + 1 < count ? snapshots.get(i + 1).getName() : "";
+            changes.add(getDiff(fs, directory, snapshots.get(i).getName(), next));
+        }
+
+        // Paths created or modified in each snapshot, and their sizes
+        List<Set<String>> created = new ArrayList<Set<String>>();
+        List<List<Future<Long>>> createdSizes = new ArrayList<List<Future<Long>>>();
+        created.add(new HashSet<String>());
+        createdSizes.add(new ArrayList<Future<Long>>());
+
+        // Paths deleted or modified after each snapshot, and their sizes
+        List<List<String>> removed = new ArrayList<List<String>>();
+        List<List<Future<Long>>> removedSizes = new ArrayList<List<Future<Long>>>();
+
+        for (int i = 0; i < count; i++) {
+            Set<String> createdNext = new HashSet<String>();
+            List<Future<Long>> createdNextSizes = new ArrayList<Future<Long>>();
+            List<String> removedPaths = new ArrayList<String>();
+            List<Future<Long>> removedPathSizes = new ArrayList<Future<Long>>();
+
+            for (DiffReportEntry entry : get(changes.get(i))) {
+                String path = DFSUtil.bytes2String(entry.getRelativePath());
+                boolean modified = entry.getType() == DiffType.MODIFY;
+                if (path.isEmpty()) {
+                    continue;
+                }
+
+                if (entry.getType() == DiffType.DELETE || modified) {
+                    removedPaths.add(path);
+                    removedPathSizes.add(getSize(fs, new Path(snapshots.get(i).getPath(), path),
+                                                 modified));
+                }
+
+                if (entry.getType() == DiffType.CREATE || modified) {
+                    createdNext.add(path);
+                    if (i + 1 < count) {
+                        createdNextSizes.add(getSize(
+                            fs, new Path(snapshots.get(i + 1).getPath(), path), modified));
+                    }
+                }
+            }
+
+            created.add(createdNext);
+            createdSizes.add(createdNextSizes);
+            removed.add(removedPaths);
+            removedSizes.add(removedPathSizes);
+        }
+
+        long[] snapshotSizes = new long[count];
+        snapshotSizes[0] = get(oldest);
+        for (int i = 1; i < count; i++) {
+            snapshotSizes[i] = snapshotSizes[i - 1] - sum(removedSizes.get(i - 1)) +
+                               sum(createdSizes.get(i));
+        }
+
+        SpaceReport report = new SpaceReport(snapshots, snapshotSizes);
+        for (int last = 0; last < count; last++) {
+            for (int j = 0; j < removed.get(last).size(); j++) {
+                long size = get(removedSizes.get(last).get(j));
+                if (size != MODIFIED_DIRECTORY) {
+                    String path = removed.get(last).get(j);
+                    report.addVersion(findFirst(created, path, last), last, size);
+                }
+            }
+        }
+
+        return report;
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Return the index of the first snapshot holding the version of the path
+     * held by the given snapshot, the newest at or before it in which the
+     * path or one of its parents was created or modified.
+     */
+    private int findFirst(List<Set<String>> created, String path, int last) {
+        for (int i = last; i > 0; i--) {
+            Set<String> paths = created.get(i);
+            String parent = path;
+            while (true) {
+                if (paths.contains(parent)) {
+                    return i;
+                }
+
+                int slash = parent.lastIndexOf('/');
+                if (slash < 0) {
+                    break;
+                }
+
+                parent = parent.substring(0, slash);
+            }
+        }
+
+        return 0;
+    }
+
+    private long sum(List<Future<Long>> sizes) throws IOException {
+        long total = 0;
+        for (Future<Long> size : sizes) {
+            long value = get(size);
+            if (value != MODIFIED_DIRECTORY) {
+                total += value;
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Return the space consumed by the file or directory tree at the path.
+     * Modified directories only had their children changed (which are listed
+     * separately) so aren't walked.
+     */
+    private Future<Long> getSize(final DistributedFileSystem fs, final Path path,
+                                 final boolean modified) {
+        return submit(this.sizes, path + (modified ? "\tM" : ""), new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                FileStatus status = fs.getFileStatus(path);
+                if (status.isDirectory() && modified) {
+                    return MODIFIED_DIRECTORY;
+                }
+
+                return getSize(fs, status);
+            }
+        });
+    }
+
+    private long getSize(DistributedFileSystem fs, FileStatus status) throws IOException {
+        if (!status.isDirectory()) {
+            return status.getLen() * status.getReplication();
+        }
+
+        long size = 0;
+        for (FileStatus child : fs.listStatus(status.getPath())) {
+            size += getSize(fs, child);
+        }
+
+        return size;
+    }
+
+    private Future<List<DiffReportEntry>> getDiff(final DistributedFileSystem fs, final Path directory,
+                                                  final String from, final String to) {
+        Callable<List<DiffReportEntry>> diff = new Callable<List<DiffReportEntry>>() {
+            @Override
+            public List<DiffReportEntry> call() throws IOException {
+                return fs.getSnapshotDiffReport(directory, from, to).getDiffList();
+            }
+        };
+
+        // The live directory changes, so diffs against it aren't cached
+        if (to.isEmpty()) {
+            FutureTask<List<DiffReportEntry>> task = new FutureTask<List<DiffReportEntry>>(diff);
+            this.executor.execute(task);
+            return task;
+        }
+
+        return submit(this.diffs, directory + "\t" + from + "\t" + to, diff);
+    }
+
+    private <T> Future<T> submit(ConcurrentMap<String, Future<T>> cache, String key,
+                                 Callable<T> callable) {
+        Future<T> future = cache.get(key);
+        if (future == null) {
+            FutureTask<T> task = new FutureTask<T>(callable);
+            future = cache.putIfAbsent(key, task);
+            if (future == null) {
+                future = task;
+                this.executor.execute(task);
+            }
+        }
+
+        return future;
+    }
+
+    private <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while accounting for snapshots", e);
+        } catch (ExecutionException e) {
+            // Don't keep failures, so they're tried again next time
+            this.sizes.values().remove(future);
+            this.diffs.values().remove(future);
+
+            LOG.debug("Failed to account for snapshots", e.getCause());
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SpaceReport accounts for the space held by the snapshots of a single
+ * directory, across every tier.
+ *
+ * Every version of a file that has since been deleted or modified is held
+ * by a contiguous run of snapshots, from the first to include it to the
+ * last. It is freed once every snapshot in that run has been deleted, which
+ * is all the report needs to work out the space freed by deleting any set
+ * of snapshots.
+ */
+public class SpaceReport {
+
+    private List<Snapshot> snapshots; // Oldest first
+    private long[] sizes; // Space referenced by each snapshot
+
+    // Versions held by the snapshots between first and last (inclusive)
+    private int[] first = new int[0];
+    private int[] last = new int[0];
+    private long[] bytes = new long[0];
+    private int versions = 0;
+
+    public SpaceReport(List<Snapshot> snapshots, long[] sizes) {
+        this.snapshots = snapshots;
+        this.sizes = sizes;
+    }
+
+    /**
+     * Record a version held by the snapshots from first to last, indices of
+     * the snapshot list.
+     */
+    public void addVersion(int first, int last, long bytes) {
+        if (this.versions == this.bytes.length) {
+            int capacity = Math.max(16, this.versions * 2);
+            this.first = Arrays.copyOf(this.first, capacity);
+            this.last = Arrays.copyOf(this.last, capacity);
+            this.bytes = Arrays.copyOf(this.bytes, capacity);
+        }
+
+        this.first[this.versions] = first;
+        this.last[this.versions] = last;
+        this.bytes[this.versions] = bytes;
+        this.versions++;
+    }
+
+    public List<Snapshot> getSnapshots() {
+        return new ArrayList<Snapshot>(this.snapshots);
+    }
+
+    /**
+     * Return the usage of every snapshot taken at the given frequency, or
+     * every snapshot if null, oldest first.
+     */
+    public List<SnapshotUsage> getUsage(Integer frequency) {
+        int count = this.snapshots.size();
+        long[] exclusive = new long[count];
+        long[] freedUpTo = new long[count]; // By versions last held by each snapshot
+
+        for (int v = 0; v < this.versions; v++) {
+            freedUpTo[this.last[v]] += this.bytes[v];
+            if (this.first[v] == this.last[v]) {
+                exclusive[this.first[v]] += this.bytes[v];
+            }
+        }
+
+        List<SnapshotUsage> usage = new ArrayList<SnapshotUsage>();
+        long cumulative = 0;
+        for (int i = 0; i < count; i++) {
+            cumulative += freedUpTo[i];
+
+            Snapshot snapshot = this.snapshots.get(i);
+            if (frequency == null || frequency.equals(snapshot.getSnapshotFrequency())) {
+                usage.add(new SnapshotUsage(snapshot, this.sizes[i], exclusive[i], cumulative));
+            }
+        }
+
+        return usage;
+    }
+
+    /**
+     * Return the space that would be freed if only the newest `retention`
+     * snapshots of the given frequency were kept, and every other tier left
+     * as it is.
+     */
+    public long getFreedIfRetained(Integer frequency, int retention) {
+        int count = this.snapshots.size();
+        boolean[] deleted = new boolean[count];
+
+        int kept = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            if (frequency.equals(this.snapshots.get(i).getSnapshotFrequency())) {
+                deleted[i] = kept >= retention;
+                kept++;
+            }
+        }
+
+        // keptBefore[i] is the number of snapshots kept before index i
+        int[] keptBefore = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            keptBefore[i + 1] = keptBefore[i] + (deleted[i] ? 0 : 1);
+        }
+
+        long freed = 0;
+        for (int v = 0; v < this.versions; v++) {
+            if (keptBefore[this.last[v] + 1] == keptBefore[this.first[v]]) {
+                freed += this.bytes[v];
+            }
+        }
+
+        return freed;
+    }
+}
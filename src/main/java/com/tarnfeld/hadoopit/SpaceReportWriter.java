@@ -0,0 +1,130 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * SpaceReportWriter writes space reports for each directory and tier as CSV
+ * or JSON, including the space that would be freed by retaining fewer
+ * snapshots.
+ *
+ * CSV output has a row per snapshot (record `snapshot`) and per projected
+ * retention (record `projection`), while JSON output is an array with an
+ * object per directory and tier.
+ */
+public class SpaceReportWriter {
+
+    public static final String CSV = "csv";
+    public static final String JSON = "json";
+
+    private Writer out;
+    private String format;
+    private boolean first = true;
+
+    public SpaceReportWriter(Writer out, String format) throws IOException {
+        if (!format.equals(CSV) && !format.equals(JSON)) {
+            throw new IllegalArgumentException("Unknown report format " + format);
+        }
+
+        this.out = out;
+        this.format = format;
+
+        if (format.equals(CSV)) {
+            out.write("record,directory,frequency,label,snapshot,created," +
+                      "size,exclusive,cumulative,retention,freed\n");
+        } else {
+            out.write("[");
+        }
+    }
+
+    /**
+     * Write out the snapshots of the tier and the space that would be freed
+     * retaining each number of them, from one up to all of them.
+     */
+    public void write(Path directory, Integer frequency, String label, SpaceReport report)
+            throws IOException {
+        List<SnapshotUsage> usage = report.getUsage(frequency);
+        String dir = directory.toUri().getPath();
+        String labelValue = label == null ? "" : label;
+
+        if (this.format.equals(CSV)) {
+            String prefix = csv(dir) + "," + frequency + "," + csv(labelValue) + ",";
+            for (SnapshotUsage snapshot : usage) {
+                this.out.write("snapshot," + prefix + csv(snapshot.getSnapshot().getName()) + "," +
+                               snapshot.getSnapshot().getCreatedTime() + "," +
+                               snapshot.getSize() + "," + snapshot.getExclusive() + "," +
+                               snapshot.getCumulative() + ",,\n");
+            }
+
+            for (int retention = 1; retention <= usage.size(); retention++) {
+                this.out.write("projection," + prefix + ",,,,," + retention + "," +
+                               report.getFreedIfRetained(frequency, retention) + "\n");
+            }
+
+            return;
+        }
+
+        this.out.write(this.first ? "\n" : ",\n");
+        this.first = false;
+
+        this.out.write("  {\"directory\": " + json(dir) +
+                       ", \"frequency\": " + frequency +
+                       ", \"label\": " + (label == null ? "null" : json(label)) +
+                       ",\n   \"snapshots\": [");
+        for (int i = 0; i < usage.size(); i++) {
+            SnapshotUsage snapshot = usage.get(i);
+            this.out.write((i == 0 ? "\n" : ",\n") +
+                           "    {\"name\": " + json(snapshot.getSnapshot().getName()) +
+                           ", \"created\": " + json(snapshot.getSnapshot().getCreatedTime().toString()) +
+                           ", \"size\": " + snapshot.getSize() +
+                           ", \"exclusive\": " + snapshot.getExclusive() +
+                           ", \"cumulative\": " + snapshot.getCumulative() + "}");
+        }
+
+        this.out.write("],\n   \"projections\": [");
+        for (int retention = 1; retention <= usage.size(); retention++) {
+            this.out.write((retention == 1 ? "\n" : ",\n") +
+                           "    {\"retention\": " + retention +
+                           ", \"freed\": " + report.getFreedIfRetained(frequency, retention) + "}");
+        }
+
+        this.out.write("]}");
+    }
+
+    public void close() throws IOException {
+        if (this.format.equals(JSON)) {
+            this.out.write(this.first ? "]\n" : "\n]\n");
+        }
+
+        this.out.flush();
+    }
+
+    private static String csv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+
+        return value;
+    }
+
+    /**
+     * Return the value as a quoted and escaped JSON string.
+     */
+    static String json(String value) {
+        StringBuilder escaped = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+
+        return escaped.append('"').toString();
+    }
+}
@@ -0,0 +1,139 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.extensions.TestSetup;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+public class TestAsyncSnapshotManager extends TestCase {
+
+    private static MiniDFSCluster cluster;
+
+    private ExecutorService executor;
+    private ScheduledExecutorService timer;
+
+    public static Test suite() {
+        TestSetup setup = new TestSetup(new TestSuite(TestAsyncSnapshotManager.class)) {
+            @SuppressWarnings("deprecation")
+            @Override
+            protected void setUp() throws Exception {
+                Configuration conf = new Configuration();
+                cluster = new MiniDFSCluster(conf, 1, true, null);
+            }
+            @Override
+            protected void tearDown() throws Exception {
+                if (cluster != null) { cluster.shutdown(); }
+            }
+        };
+        return setup;
+    }
+
+    @Override
+    protected void setUp() {
+        this.executor = Executors.newFixedThreadPool(2);
+        this.timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @Override
+    protected void tearDown() {
+        this.executor.shutdownNow();
+        this.timer.shutdownNow();
+    }
+
+    public void testTakeSnapshotAsync() throws Exception {
+        DistributedFileSystem fs = cluster.getFileSystem();
+        Path dir = new Path("/async");
+        fs.mkdir(dir, null);
+        fs.allowSnapshot(dir);
+
+        AsyncSnapshotManager manager = new AsyncSnapshotManager(
+                new SnapshotManager(fs, dir, 1, 1, "async"), this.executor);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Path> created = new AtomicReference<Path>();
+        manager.takeSnapshotAsync().addCallback(new SnapshotCallback<Path>() {
+            @Override
+            public void onSuccess(Path result) {
+                created.set(result);
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertNotNull(created.get());
+
+        List<Snapshot> snapshots = manager.listAllSnapshotsAsync().getResult();
+        assertEquals(snapshots.size(), 1);
+        assertEquals(manager.cleanupOutdatedSnapshotsAsync().getResult(), (Integer) 0);
+    }
+
+    public void testFailure() throws Exception {
+        SnapshotFuture<Integer> future = new SnapshotFuture<Integer>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                throw new IOException("Failed");
+            }
+        });
+        this.executor.execute(future);
+
+        try {
+            future.getResult();
+            fail("Expected the operation to fail");
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), "Failed");
+        }
+    }
+
+    public void testTimeout() throws Exception {
+        SnapshotFuture<Integer> future = new SnapshotFuture<Integer>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws InterruptedException {
+                Thread.sleep(60000);
+                return 1;
+            }
+        });
+        future.cancelAfter(this.timer, 100, TimeUnit.MILLISECONDS);
+        this.executor.execute(future);
+
+        try {
+            future.getResult();
+            fail("Expected the operation to time out");
+        } catch (InterruptedIOException e) {
+            assertTrue(future.isTimedOut());
+        }
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        future.addCallback(new SnapshotCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer result) { }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                failure.set(cause);
+            }
+        });
+        assertTrue(failure.get() instanceof TimeoutException);
+    }
+}
@@ -0,0 +1,110 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.Path;
+import org.joda.time.DateTime;
+
+public class TestChangeWatcher extends TestCase {
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long START = 1388538000000L; // 2014-01-01 01:00 UTC
+
+    private ManualClock clock;
+    private CountingDetector detector;
+    private ChangeWatcher watcher;
+    private SnapshotManager manager;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.clock = new ManualClock(START);
+        this.detector = new CountingDetector();
+
+        InMemorySnapshotStore store = new InMemorySnapshotStore(this.clock);
+        store.allowSnapshot(new Path("/data"));
+
+        this.watcher = new ChangeWatcher(this.detector, 5 * MINUTE);
+        this.watcher.setClock(this.clock);
+
+        this.manager = new SnapshotManager(new SnapshottableDirectoryResolver(store, 0),
+                                           new Path("/data"), 1440, new CountRetentionPolicy(7),
+                                           null);
+        this.manager.setClock(this.clock);
+        this.manager.setWatcher(this.watcher, 100);
+        this.manager.createSnapshot(new DateTime(START));
+    }
+
+    public void testTriggerOnceSettled() throws Exception {
+        assertEquals(this.manager.needToTakeSnapshot(), false);
+
+        // A bulk load is over the threshold, but still running
+        this.clock.advance(MINUTE);
+        this.detector.changes = 150;
+        assertEquals(this.manager.needToTakeSnapshot(), false);
+
+        this.clock.advance(4 * MINUTE);
+        this.detector.changes = 400;
+        assertEquals(this.manager.needToTakeSnapshot(), false);
+
+        this.clock.advance(4 * MINUTE);
+        assertEquals(this.manager.needToTakeSnapshot(), false);
+
+        // Settled for the debounce period
+        this.clock.advance(MINUTE);
+        assertEquals(this.manager.needToTakeSnapshot(), true);
+        assertNotNull(this.manager.takeSnapshot());
+
+        // Counting starts again from the new snapshot
+        this.clock.advance(10 * MINUTE);
+        this.detector.changes = 0;
+        assertEquals(this.manager.needToTakeSnapshot(), false);
+        assertEquals(this.manager.listAllSnapshots().size(), 2);
+    }
+
+    public void testBelowThreshold() throws Exception {
+        this.detector.changes = 99;
+        for (int i = 0; i < 10; i++) {
+            this.clock.advance(10 * MINUTE);
+            assertEquals(this.manager.needToTakeSnapshot(), false);
+        }
+
+        // The frequency is the longest a directory goes without a snapshot
+        this.clock.set(START + 1441 * MINUTE);
+        assertEquals(this.manager.needToTakeSnapshot(), true);
+    }
+
+    public void testTiersOfOneDirectory() throws Exception {
+        SnapshotManager hourly = new SnapshotManager(this.manager.getSnapshotIndex(), 60,
+                                                     new CountRetentionPolicy(24), null);
+        hourly.setClock(this.clock);
+        hourly.setWatcher(this.watcher, 100);
+        hourly.createSnapshot(new DateTime(START));
+
+        // Polling one tier doesn't restart the debounce of the other
+        this.detector.changes = 150;
+        for (int i = 0; i < 5; i++) {
+            assertEquals(this.manager.needToTakeSnapshot(), false);
+            assertEquals(hourly.needToTakeSnapshot(), false);
+            this.clock.advance(MINUTE);
+        }
+
+        assertEquals(this.manager.needToTakeSnapshot(), true);
+        assertEquals(hourly.needToTakeSnapshot(), true);
+    }
+
+    private static class CountingDetector extends ChangeDetector {
+
+        private int changes = 0;
+
+        public CountingDetector() {
+            super(null);
+        }
+
+        @Override
+        public int countChanges(Path directory, Snapshot snapshot) throws IOException {
+            return this.changes;
+        }
+    }
+}
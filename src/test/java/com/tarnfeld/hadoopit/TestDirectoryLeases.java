@@ -0,0 +1,91 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+public class TestDirectoryLeases extends TestCase {
+
+    private static final long TTL = 60 * 60 * 1000L;
+
+    private File leaseDir;
+    private FileSystem fs;
+    private ManualClock clock;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.leaseDir = File.createTempFile("hadoopit-leases", "");
+        this.leaseDir.delete();
+        this.leaseDir.mkdirs();
+
+        this.fs = FileSystem.getLocal(new Configuration());
+        this.clock = new ManualClock(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.fs.delete(new Path(this.leaseDir.getPath()), true);
+    }
+
+    public void testExclusive() throws Exception {
+        DirectoryLeases first = createLeases();
+        DirectoryLeases second = createLeases();
+        Path dir = new Path("/data/raw");
+
+        assertTrue(first.tryAcquire(dir, 60, "hourly"));
+        assertTrue(first.tryAcquire(dir, 60, "hourly"));
+        assertTrue(first.isHeld(dir, 60, "hourly"));
+
+        assertFalse(second.tryAcquire(dir, 60, "hourly"));
+        assertTrue(second.tryAcquire(new Path("/data"), 60, "hourly"));
+
+        first.release(dir, 60, "hourly");
+        assertFalse(first.isHeld(dir, 60, "hourly"));
+        assertTrue(second.tryAcquire(dir, 60, "hourly"));
+
+        second.releaseAll();
+        assertTrue(first.tryAcquire(new Path("/data"), 60, "hourly"));
+    }
+
+    public void testTiersOfOneDirectory() throws Exception {
+        DirectoryLeases hourly = createLeases();
+        DirectoryLeases daily = createLeases();
+        Path dir = new Path("/data");
+
+        // Cron entries for each tier fire together at midnight
+        assertTrue(hourly.tryAcquire(dir, 60, "hourly"));
+        assertTrue(daily.tryAcquire(dir, 1440, "daily"));
+        assertTrue(daily.tryAcquire(dir, 60, null));
+
+        assertFalse(daily.tryAcquire(dir, 60, "hourly"));
+        assertFalse(hourly.tryAcquire(dir, 1440, "daily"));
+    }
+
+    public void testBreakExpiredLease() throws Exception {
+        DirectoryLeases dead = createLeases();
+        DirectoryLeases live = createLeases();
+        Path dir = new Path("/data");
+
+        assertTrue(dead.tryAcquire(dir, 60, null));
+
+        this.clock.advance(TTL - 1000);
+        assertFalse(live.tryAcquire(dir, 60, null));
+
+        this.clock.advance(2000);
+        assertTrue(live.tryAcquire(dir, 60, null));
+
+        // Releasing a broken lease leaves the new holder's in place
+        dead.release(dir, 60, null);
+        assertFalse(createLeases().tryAcquire(dir, 60, null));
+    }
+
+    private DirectoryLeases createLeases() {
+        DirectoryLeases leases = new DirectoryLeases(this.fs, new Path(this.leaseDir.getPath()), TTL);
+        leases.setClock(this.clock);
+        return leases;
+    }
+}
@@ -0,0 +1,137 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+
+public class TestInMemorySnapshotStore extends TestCase {
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long START = 1388538000000L; // 2014-01-01 01:00 UTC
+
+    private ManualClock clock;
+    private InMemorySnapshotStore store;
+    private Level level;
+
+    @Override
+    protected void setUp() {
+        this.clock = new ManualClock(START);
+        this.store = new InMemorySnapshotStore(this.clock);
+
+        // Logging every snapshot would dominate the run time at this scale
+        Logger logger = Logger.getLogger("com.tarnfeld.hadoopit");
+        this.level = logger.getLevel();
+        logger.setLevel(Level.WARN);
+    }
+
+    @Override
+    protected void tearDown() {
+        Logger.getLogger("com.tarnfeld.hadoopit").setLevel(this.level);
+    }
+
+    public void testTakeSnapshotsOnSchedule() throws Exception {
+        SnapshotManager manager = createManagers("/a", 1, 1, 1).get(0);
+
+        assertEquals(manager.needToTakeSnapshot(), true);
+        assertNotNull(manager.takeSnapshot());
+        assertEquals(manager.needToTakeSnapshot(), false);
+        assertNull(manager.takeSnapshot());
+
+        this.clock.advance(MINUTE + 1000);
+
+        assertEquals(manager.needToTakeSnapshot(), true);
+        assertNotNull(manager.takeSnapshot());
+        assertEquals(manager.listAllSnapshots().size(), 2);
+        assertEquals(manager.listOutdatedSnapshots().size(), 1);
+
+        assertEquals(manager.cleanupOutdatedSnapshots(), (Integer) 1);
+        assertEquals(manager.listAllSnapshots().size(), 1);
+        assertEquals(this.store.getSnapshotCount(new Path("/a")), 1);
+    }
+
+    public void testScale() throws Exception {
+        List<SnapshotManager> managers = createManagers("/scale", 10000, 60, 5);
+
+        // Ten hours of hourly snapshots, 100k in all
+        for (int hour = 0; hour < 10; hour++) {
+            for (SnapshotManager manager : managers) {
+                assertNotNull(manager.takeSnapshot());
+            }
+
+            this.clock.advance(60 * MINUTE + 1000);
+        }
+
+        SnapshotCleaner cleaner = new SnapshotCleaner(8, 8, 0, 0L);
+        CleanupSummary summary;
+        try {
+            summary = cleaner.cleanup(managers);
+        } finally {
+            cleaner.shutdown();
+        }
+
+        assertEquals(summary.getDeleted().size(), 50000);
+        assertEquals(summary.getFailed().size(), 0);
+        for (SnapshotManager manager : managers) {
+            assertEquals(this.store.getSnapshotCount(manager.getDirectory()), 5);
+        }
+    }
+
+    public void testCleanupWithFailures() throws Exception {
+        List<SnapshotManager> managers = createManagers("/failures", 100, 60, 2);
+        for (SnapshotManager manager : managers) {
+            for (int hour = 0; hour < 5; hour++) {
+                manager.createSnapshot(new DateTime(START + hour * 60 * MINUTE));
+            }
+        }
+
+        this.store.setFailureRate(0.2, 0);
+        this.store.setLatency(1);
+
+        // Failed listings and deletes are picked up again by later runs
+        SnapshotCleaner cleaner = new SnapshotCleaner(8, 4, 3, 0L);
+        int deleted = 0;
+        try {
+            for (int run = 0; run < 10 && deleted < 300; run++) {
+                deleted += cleaner.cleanup(managers).getDeleted().size();
+            }
+        } finally {
+            cleaner.shutdown();
+        }
+
+        this.store.setFailureRate(0, 0);
+        assertEquals(deleted, 300);
+        for (SnapshotManager manager : managers) {
+            assertEquals(this.store.getSnapshotCount(manager.getDirectory()), 2);
+        }
+    }
+
+    private List<SnapshotManager> createManagers(String prefix, int count, int frequency,
+                                                 int retention) throws Exception {
+        List<Path> directories = new ArrayList<Path>();
+        for (int i = 0; i < count; i++) {
+            Path dir = count == 1 ? new Path(prefix) : new Path(prefix + "/" + i);
+            this.store.allowSnapshot(dir);
+            directories.add(dir);
+        }
+
+        // Every manager is resolved from a single listing
+        SnapshottableDirectoryResolver resolver = new SnapshottableDirectoryResolver(
+            this.store, Long.MAX_VALUE);
+
+        List<SnapshotManager> managers = new ArrayList<SnapshotManager>();
+        for (Path dir : directories) {
+            SnapshotManager manager = new SnapshotManager(
+                resolver, dir, frequency, new CountRetentionPolicy(retention), null);
+            manager.setClock(this.clock);
+            managers.add(manager);
+        }
+
+        return managers;
+    }
+}
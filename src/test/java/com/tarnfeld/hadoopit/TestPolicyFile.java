@@ -0,0 +1,171 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.Path;
+
+public class TestPolicyFile extends TestCase {
+
+    public void testParsePolicies() throws Exception {
+        List<SnapshotPolicy> policies = PolicyFile.parse(new StringReader(
+            "# Hourly and daily snapshots of /data\n" +
+            "/data 60 24 hourly\n" +
+            "\n" +
+            "/data   1440\t7   daily\n" +
+            "/warehouse 10080 0\n" +
+            "/logs 60 gfs:hourly=24,daily=7\n" +
+            "/tmp 60 age:7d\n" +
+            "/quiet 60 24 only-if-changed=true\n" +
+            "/data/raw 60 24 group=data\n" +
+            "/landing 1440 7 daily watch=1000\n"
+        ));
+
+        assertEquals(policies.size(), 8);
+
+        assertEquals(policies.get(0).getDirectory(), new Path("/data"));
+        assertEquals(policies.get(0).getFrequency(), (Integer) 60);
+        assertEquals(policies.get(0).getRetention().toString(), "count:24");
+        assertEquals(policies.get(0).getLabel(), "hourly");
+
+        assertEquals(policies.get(1).getFrequency(), (Integer) 1440);
+        assertEquals(policies.get(1).getLabel(), "daily");
+
+        assertEquals(policies.get(2).getDirectory(), new Path("/warehouse"));
+        assertEquals(policies.get(2).getRetention().toString(), "count:0");
+        assertEquals(policies.get(2).getLabel(), null);
+
+        assertEquals(policies.get(3).getRetention().toString(),
+                     "gfs:hourly=24,daily=7,weekly=0,monthly=0");
+        assertEquals(policies.get(4).getRetention().toString(), "age:7d");
+
+        assertEquals(policies.get(0).isOnlyIfChanged(), false);
+        assertEquals(policies.get(5).isOnlyIfChanged(), true);
+        assertEquals(policies.get(5).getLabel(), null);
+        assertEquals(policies.get(5).getGroup(), null);
+
+        assertEquals(policies.get(6).getGroup(), "data");
+        assertEquals(policies.get(6).getLabel(), "data");
+
+        assertEquals(policies.get(0).getWatchThreshold(), null);
+        assertEquals(policies.get(7).getWatchThreshold(), (Integer) 1000);
+        assertEquals(policies.get(7).getLabel(), "daily");
+    }
+
+    public void testParseInvalidPolicies() throws Exception {
+        assertInvalid("/data 60\n");
+        assertInvalid("/data sixty 24\n");
+        assertInvalid("/data 0 24\n");
+        assertInvalid("/data 60 -1\n");
+        assertInvalid("/data 60 age:7y\n");
+        assertInvalid("/data 60 gfs:yearly=1\n");
+        assertInvalid("/data 60 24 hourly extra\n");
+        assertInvalid("/data 60 24 only-if-changed=yes\n");
+        assertInvalid("/data 60 24 unknown=true\n");
+        assertInvalid("/data 60 24 only-if-changed=true hourly\n");
+        assertInvalid("/data 60 24 watch=0\n");
+        assertInvalid("/data 60 24 watch=many\n");
+        assertInvalid("/data 60 24 group=data watch=10\n");
+        assertInvalid("/data/raw 60 24 hourly\n/data/raw 60 24 group=data\n");
+        assertInvalid("/data/raw 60 24 group=data\n/data/raw 60 24 group=other\n");
+        assertInvalid("/data/{raw 60 24\n");
+        assertInvalid("regex:/data/(raw 60 24\n");
+    }
+
+    public void testParsePatterns() throws Exception {
+        List<SnapshotPolicy> policies = PolicyFile.parse(new StringReader(
+            "/data/* 60 24 hourly\n" +
+            "regex:/logs/[0-9]+ 1440 7\n"
+        ));
+
+        assertEquals(policies.size(), 2);
+        assertTrue(policies.get(0).isPattern());
+        assertEquals(policies.get(0).getDirectory(), null);
+        assertEquals(policies.get(0).getPattern().toString(), "/data/*");
+        assertEquals(policies.get(0).getLabel(), "hourly");
+        assertEquals(policies.get(1).getPattern().toString(), "regex:/logs/[0-9]+");
+    }
+
+    public void testDirectoryPatterns() throws Exception {
+        assertTrue(DirectoryPattern.compile("/data/*").matches(new Path("/data/raw")));
+        assertFalse(DirectoryPattern.compile("/data/*").matches(new Path("/data/raw/2014")));
+        assertFalse(DirectoryPattern.compile("/data/*").matches(new Path("/data")));
+        assertTrue(DirectoryPattern.compile("/data/**").matches(new Path("/data/raw/2014")));
+        assertTrue(DirectoryPattern.compile("/data/?aw").matches(new Path("/data/raw")));
+        assertTrue(DirectoryPattern.compile("/data/[rd]*").matches(new Path("/data/derived")));
+        assertTrue(DirectoryPattern.compile("/{data,logs}/*").matches(new Path("/logs/app")));
+        assertFalse(DirectoryPattern.compile("/{data,logs}/*").matches(new Path("/tmp/app")));
+        assertTrue(DirectoryPattern.compile("/data.v1/*").matches(new Path("/data.v1/raw")));
+        assertFalse(DirectoryPattern.compile("/data.v1/*").matches(new Path("/dataxv1/raw")));
+        assertTrue(DirectoryPattern.compile("regex:/logs/[0-9]+").matches(
+            new Path("hdfs://namenode:8020/logs/2014")));
+        assertFalse(DirectoryPattern.compile("regex:/logs/[0-9]+").matches(new Path("/logs/app")));
+
+        assertFalse(DirectoryPattern.isPattern("/data/raw"));
+        assertTrue(DirectoryPattern.isPattern("/data/*"));
+        assertTrue(DirectoryPattern.isPattern("regex:/data"));
+    }
+
+    public void testExpandPatterns() throws Exception {
+        List<SnapshotPolicy> policies = PolicyFile.parse(new StringReader(
+            "/data/* 60 24 hourly\n" +
+            "/data/** 1440 7 daily\n" +
+            "/data/special 60 48 hourly\n" +
+            "/logs/* 60 24\n"
+        ));
+
+        List<Path> directories = Arrays.asList(
+            new Path("/data/raw"),
+            new Path("/data/raw/2014"),
+            new Path("/data/special"),
+            new Path("/warehouse")
+        );
+
+        List<SnapshotPolicy> expanded = PolicyDiscovery.expand(policies, directories);
+        assertEquals(expanded.size(), 4);
+
+        // Directories given their own policy are left out of every pattern
+        assertEquals(expanded.get(0).getDirectory(), new Path("/data/raw"));
+        assertEquals(expanded.get(0).getLabel(), "hourly");
+        assertEquals(expanded.get(1).getDirectory(), new Path("/data/raw"));
+        assertEquals(expanded.get(1).getLabel(), "daily");
+        assertEquals(expanded.get(2).getDirectory(), new Path("/data/raw/2014"));
+        assertEquals(expanded.get(2).getFrequency(), (Integer) 1440);
+        assertEquals(expanded.get(3).getDirectory(), new Path("/data/special"));
+        assertEquals(expanded.get(3).getRetention().toString(), "count:48");
+
+        for (SnapshotPolicy policy : expanded) {
+            assertFalse(policy.isPattern());
+        }
+
+        assertTrue(PolicyDiscovery.hasPatterns(policies));
+        assertFalse(PolicyDiscovery.hasPatterns(expanded));
+    }
+
+    public void testExpandGroupOverlap() throws Exception {
+        List<SnapshotPolicy> policies = PolicyFile.parse(new StringReader(
+            "/data/* 60 24 group=data\n" +
+            "/data/** 60 24 hourly\n"
+        ));
+
+        // Directories only one of the patterns matches are fine
+        List<Path> directories = Arrays.asList(new Path("/data/raw/2014"));
+        assertEquals(PolicyDiscovery.expand(policies, directories).size(), 1);
+
+        try {
+            PolicyDiscovery.expand(policies, Arrays.asList(new Path("/data/raw")));
+            fail("Expected a group member with an hourly tier of its own to be rejected");
+        } catch (IOException e) { }
+    }
+
+    private void assertInvalid(String policy) {
+        try {
+            PolicyFile.parse(new StringReader(policy));
+            fail("Expected policy to be rejected: " + policy);
+        } catch (IOException e) { }
+    }
+}
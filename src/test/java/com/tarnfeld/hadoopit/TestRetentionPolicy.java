@@ -0,0 +1,99 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+
+public class TestRetentionPolicy extends TestCase {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    public void testParse() throws Exception {
+        assertEquals(RetentionPolicies.parse("24").toString(), "count:24");
+        assertEquals(RetentionPolicies.parse("count:7").toString(), "count:7");
+        assertEquals(RetentionPolicies.parse("age:36h").toString(), "age:36h");
+        assertEquals(((MaxAgeRetentionPolicy) RetentionPolicies.parse("age:2w")).getMaxAge(),
+                     14 * 24 * HOUR);
+        assertEquals(RetentionPolicies.parse("gfs:daily=7,monthly=12").toString(),
+                     "gfs:hourly=0,daily=7,weekly=0,monthly=12");
+
+        for (String invalid : new String[] { "-1", "many", "age:7", "age:7y", "gfs:",
+                                             "gfs:daily", "gfs:yearly=1", "gfs:daily=0" }) {
+            try {
+                RetentionPolicies.parse(invalid);
+                fail("Expected retention to be rejected: " + invalid);
+            } catch (IllegalArgumentException e) { }
+        }
+    }
+
+    public void testCountRetention() throws Exception {
+        long[] created = new long[] { 3, 1, 2 };
+
+        assertOutdated(new CountRetentionPolicy(1).selectOutdated(created, 3, 0), 1, 2);
+        assertOutdated(new CountRetentionPolicy(0).selectOutdated(created, 3, 0));
+    }
+
+    public void testMaxAgeRetention() throws Exception {
+        long now = 100 * HOUR;
+        long[] created = new long[] { now - HOUR, now - 30 * HOUR, now - 10 * HOUR, now - 25 * HOUR };
+
+        RetentionPolicy policy = RetentionPolicies.parse("age:1d");
+        assertOutdated(policy.selectOutdated(created, 4, now), 1, 3);
+
+        // The newest snapshot is kept however old it is
+        assertOutdated(policy.selectOutdated(created, 4, now + 100 * HOUR), 1, 2, 3);
+    }
+
+    public void testGfsRetention() throws Exception {
+        // Hourly snapshots at half past every hour for 60 days
+        DateTime start = new DateTime(2014, 1, 1, 0, 30);
+        int size = 60 * 24;
+        long[] created = new long[size];
+        for (int i = 0; i < size; i++) {
+            created[i] = start.plusHours(i).getMillis();
+        }
+
+        long now = created[size - 1];
+        RetentionPolicy policy = RetentionPolicies.parse("gfs:hourly=24,daily=7,weekly=4,monthly=12");
+        int[] outdated = policy.selectOutdated(created, size, now);
+
+        boolean[] kept = new boolean[size];
+        Arrays.fill(kept, true);
+        for (int i : outdated) {
+            kept[i] = false;
+        }
+
+        // The last 24 hours are kept
+        for (int i = size - 24; i < size; i++) {
+            assertTrue(kept[i]);
+        }
+
+        // The last snapshot of each of the 6 days before is kept, and no
+        // other snapshot from those days
+        for (int day = 1; day < 7; day++) {
+            int last = size - 1 - day * 24;
+            assertTrue(kept[last]);
+            assertFalse(kept[last - 1]);
+        }
+
+        // January and February both keep their last snapshot
+        assertTrue(kept[31 * 24 - 1]);
+        assertFalse(kept[31 * 24 - 2]);
+
+        int keptCount = 0;
+        for (boolean k : kept) {
+            if (k) {
+                keptCount++;
+            }
+        }
+        assertEquals(keptCount + outdated.length, size);
+        assertTrue(keptCount <= 24 + 7 + 4 + 12);
+    }
+
+    private void assertOutdated(int[] outdated, int... expected) {
+        Arrays.sort(outdated);
+        assertTrue(Arrays.toString(outdated), Arrays.equals(outdated, expected));
+    }
+}
@@ -0,0 +1,68 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestRetentionSelector extends TestCase {
+
+    public void testSelectOutdated() throws Exception {
+        long[] created = new long[] { 30, 10, 50, 20, 40 };
+
+        assertSelected(RetentionSelector.selectOutdated(created, 5, 2), new int[] { 0, 1, 3 });
+        assertSelected(RetentionSelector.selectOutdated(created, 5, 4), new int[] { 1 });
+        assertSelected(RetentionSelector.selectOutdated(created, 5, 5), new int[0]);
+        assertSelected(RetentionSelector.selectOutdated(created, 5, 10), new int[0]);
+        assertSelected(RetentionSelector.selectOutdated(created, 3, 1), new int[] { 0, 1 });
+    }
+
+    public void testSelectOutdatedWithTies() throws Exception {
+        long[] created = new long[] { 10, 20, 20, 20, 30 };
+
+        int[] outdated = RetentionSelector.selectOutdated(created, 5, 2);
+        assertEquals(outdated.length, 3);
+
+        Arrays.sort(outdated);
+        assertEquals(outdated[0], 0);
+        assertEquals(created[outdated[1]], 20);
+        assertEquals(created[outdated[2]], 20);
+    }
+
+    public void testSelectOutdatedMatchesSort() throws Exception {
+        Random random = new Random(0);
+
+        for (int run = 0; run < 200; run++) {
+            int size = random.nextInt(500) + 1;
+            int retain = random.nextInt(size + 1);
+
+            long[] created = new long[size];
+            for (int i = 0; i < size; i++) {
+                created[i] = random.nextInt(size * 2);
+            }
+
+            long[] sorted = created.clone();
+            Arrays.sort(sorted);
+
+            int[] outdated = RetentionSelector.selectOutdated(created, size, retain);
+            long[] selected = new long[outdated.length];
+            for (int i = 0; i < outdated.length; i++) {
+                selected[i] = created[outdated[i]];
+            }
+            Arrays.sort(selected);
+
+            assertTrue(Arrays.equals(selected, Arrays.copyOfRange(sorted, 0, size - retain)));
+        }
+    }
+
+    public void testSelectNewest() throws Exception {
+        assertEquals(RetentionSelector.selectNewest(new long[] { 30, 10, 50, 20 }, 4), 2);
+        assertEquals(RetentionSelector.selectNewest(new long[] { 30, 10, 50, 20 }, 2), 0);
+        assertEquals(RetentionSelector.selectNewest(new long[0], 0), -1);
+    }
+
+    private void assertSelected(int[] selected, int[] expected) {
+        Arrays.sort(selected);
+        assertTrue(Arrays.toString(selected), Arrays.equals(selected, expected));
+    }
+}
@@ -0,0 +1,107 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.Path;
+
+public class TestRunJournal extends TestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.directory = File.createTempFile("hadoopit-journal", "");
+        this.directory.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : this.directory.listFiles()) {
+            file.delete();
+        }
+
+        this.directory.delete();
+    }
+
+    public void testFinishedRun() throws Exception {
+        Path dir = new Path("/data");
+
+        RunJournal journal = new RunJournal(this.directory, 1, 1000);
+        assertFalse(journal.isResumed());
+        journal.recordCreated(dir, "hadoopit-60-2014.01.01.03.00.00.000");
+        journal.recordPlanned(dir, "hadoopit-60-2014.01.01.01.00.00.000");
+        journal.recordPlanned(dir, "hadoopit-60-2014.01.01.02.00.00.000");
+        journal.recordDeleted(dir, "hadoopit-60-2014.01.01.01.00.00.000");
+        journal.recordFailed(dir, "hadoopit-60-2014.01.01.02.00.00.000");
+
+        RunReport report = journal.finish(2000);
+        assertEquals(report.getCreated(), 1);
+        assertEquals(report.getDeleted(), 1);
+        assertEquals(report.getFailed(), 1);
+        assertEquals(report.getRemaining(), 0);
+        assertTrue(new File(this.directory, "last-run.report").exists());
+
+        journal = new RunJournal(this.directory, 1, 3000);
+        assertFalse(journal.isResumed());
+        assertFalse(journal.hasCarried(dir));
+        journal.finish(4000);
+    }
+
+    public void testLocked() throws Exception {
+        RunJournal journal = RunJournal.open(this.directory, 1, 1000);
+        assertNotNull(journal);
+        journal.recordPlanned(new Path("/data"), "hadoopit-60-2014.01.01.01.00.00.000");
+
+        // An overlapping run can't take over the live run's journal
+        assertNull(RunJournal.open(this.directory, 1, 2000));
+        journal.recordDeleted(new Path("/data"), "hadoopit-60-2014.01.01.01.00.00.000");
+        journal.finish(3000);
+
+        journal = RunJournal.open(this.directory, 1, 4000);
+        assertNotNull(journal);
+        assertFalse(journal.isResumed());
+        assertFalse(journal.hasCarried(new Path("/data")));
+        journal.finish(5000);
+    }
+
+    public void testInterruptedRun() throws Exception {
+        Path dir = new Path("/data");
+        Path other = new Path("/other");
+
+        RunJournal journal = new RunJournal(this.directory, 100, 1000);
+        journal.recordPlanned(dir, "hadoopit-60-2014.01.01.01.00.00.000");
+        journal.recordPlanned(dir, "hadoopit-60-2014.01.01.02.00.00.000");
+        journal.recordPlanned(other, "hadoopit-60-2014.01.01.01.00.00.000");
+        journal.recordDeleted(dir, "hadoopit-60-2014.01.01.01.00.00.000");
+        journal.sync();
+        journal.close();
+
+        // Simulate a crash part way through writing a record
+        FileOutputStream stream = new FileOutputStream(new File(this.directory, "journal.log"), true);
+        stream.write("D\t/data\thadoopit-60".getBytes("UTF-8"));
+        stream.close();
+
+        journal = new RunJournal(this.directory, 100, 2000);
+        assertTrue(journal.isResumed());
+        assertTrue(journal.hasCarried(dir));
+        assertEquals(journal.claimCarried(dir).size(), 1);
+        assertFalse(journal.hasCarried(dir));
+
+        // The claimed delete is left pending, the unclaimed one abandoned
+        RunReport report = journal.finish(3000);
+        assertTrue(report.isResumed());
+        assertEquals(report.getCarried(), 2);
+        assertEquals(report.getAbandoned(), 1);
+        assertEquals(report.getRemaining(), 1);
+
+        journal = new RunJournal(this.directory, 100, 4000);
+        assertFalse(journal.isResumed());
+        assertTrue(journal.hasCarried(dir));
+        assertFalse(journal.hasCarried(other));
+        assertEquals(journal.claimCarried(dir).get(0), "hadoopit-60-2014.01.01.02.00.00.000");
+        journal.finish(5000);
+    }
+}
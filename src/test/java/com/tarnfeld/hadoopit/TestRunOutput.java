@@ -0,0 +1,100 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.Path;
+import org.joda.time.DateTime;
+
+public class TestRunOutput extends TestCase {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long START = 1388538000000L; // 2014-01-01 01:00 UTC
+
+    public void testRecords() throws Exception {
+        StringWriter out = new StringWriter();
+        RunOutput output = new RunOutput(out, false);
+
+        output.tier(new Path("hdfs://namenode/data"), 60, "hourly", RunOutput.CREATE,
+                    "hadoopit-60-2014.01.01.1.0.0.000-hourly", null, 1500000L, null);
+        output.tier(new Path("/logs"), 1440, null, RunOutput.ERROR, null, null, 0L,
+                    new IOException("Directory \"/logs\" is not snapshottable"));
+        output.group("data", Arrays.asList(new Path("/a"), new Path("/b")), RunOutput.SKIP,
+                     null, null, 2, 0L, null);
+        output.delete(new Path("/data"), "hadoopit-60-2013.12.31.1.0.0.000-hourly", 2000000L, null);
+        output.summary(1);
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(lines.length, 5);
+        assertEquals(lines[0], "{\"type\": \"tier\", \"directory\": \"/data\", \"frequency\": 60, " +
+                               "\"label\": \"hourly\", \"dry_run\": false, \"action\": \"create\", " +
+                               "\"snapshot\": \"hadoopit-60-2014.01.01.1.0.0.000-hourly\", " +
+                               "\"latency_ms\": 1.5, \"error\": null}");
+        assertEquals(lines[1], "{\"type\": \"tier\", \"directory\": \"/logs\", \"frequency\": 1440, " +
+                               "\"label\": null, \"dry_run\": false, \"action\": \"error\", " +
+                               "\"snapshot\": null, \"latency_ms\": 0.0, " +
+                               "\"error\": \"Directory \\\"/logs\\\" is not snapshottable\"}");
+        assertEquals(lines[2], "{\"type\": \"group\", \"group\": \"data\", \"directories\": " +
+                               "[\"/a\", \"/b\"], \"dry_run\": false, \"action\": \"skip\", " +
+                               "\"snapshot\": null, \"latency_ms\": 0.0, \"error\": null, " +
+                               "\"deleted\": 2}");
+        assertEquals(lines[3], "{\"type\": \"delete\", \"directory\": \"/data\", " +
+                               "\"snapshot\": \"hadoopit-60-2013.12.31.1.0.0.000-hourly\", " +
+                               "\"latency_ms\": 2.0, \"error\": null}");
+        assertTrue(lines[4].startsWith("{\"type\": \"summary\", \"dry_run\": false, \"created\": 1, " +
+                                       "\"skipped\": 1, \"errors\": 1, \"deleted\": 3, " +
+                                       "\"delete_failures\": 0, \"elapsed_ms\": "));
+        assertTrue(lines[4].endsWith(", \"exit_code\": 1}"));
+    }
+
+    public void testDryRunPlan() throws Exception {
+        StringWriter out = new StringWriter();
+        RunOutput output = new RunOutput(out, true);
+
+        List<Snapshot> deletes = new ArrayList<Snapshot>();
+        output.tier(new Path("/data"), 60, null, RunOutput.SKIP, null, deletes, 0L, null);
+        output.group("data", Arrays.asList(new Path("/a")), RunOutput.CREATE, "hadoopit-60-x",
+                     Arrays.asList("hadoopit-60-y"), 0, 0L, null);
+
+        String[] lines = out.toString().split("\n");
+        assertTrue(lines[0].contains("\"dry_run\": true"));
+        assertTrue(lines[0].endsWith(", \"delete\": []}"));
+        assertTrue(lines[1].endsWith(", \"deleted\": 0, \"delete\": [\"hadoopit-60-y\"]}"));
+    }
+
+    public void testCleanupStreamsDeletes() throws Exception {
+        ManualClock clock = new ManualClock(START + 10 * HOUR);
+        InMemorySnapshotStore store = new InMemorySnapshotStore(clock);
+        store.allowSnapshot(new Path("/data"));
+
+        SnapshotManager manager = new SnapshotManager(
+            new SnapshottableDirectoryResolver(store, 0), new Path("/data"), 60,
+            new CountRetentionPolicy(1), null);
+        manager.setClock(clock);
+        for (int hour = 0; hour < 3; hour++) {
+            manager.createSnapshot(new DateTime(START + hour * HOUR));
+        }
+
+        StringWriter out = new StringWriter();
+        SnapshotCleaner cleaner = new SnapshotCleaner(2, 2, 0, 0L);
+        cleaner.setOutput(new RunOutput(out, false));
+        try {
+            cleaner.cleanup(Arrays.asList(manager));
+        } finally {
+            cleaner.shutdown();
+        }
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(lines.length, 2);
+        for (String line : lines) {
+            assertTrue(line.startsWith("{\"type\": \"delete\", \"directory\": \"/data\", " +
+                                       "\"snapshot\": \"hadoopit-60-2014.01.01."));
+            assertTrue(line.endsWith(", \"error\": null}"));
+        }
+    }
+}
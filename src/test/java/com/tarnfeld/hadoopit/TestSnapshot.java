@@ -18,13 +18,12 @@ public class TestSnapshot extends TestCase {
         Snapshot snapshot = new Snapshot(dir, status);
 
         assertEquals(snapshot.getSnapshottableDirectoryStatus(), dir);
-        assertEquals(snapshot.getDirectoryStatus(), status);
         assertEquals(snapshot.getPath(), path);
 
         assertEquals(snapshot.getName(), "hadoopit-10-2014.01.01.01.01.01.000-test");
         assertEquals(snapshot.getCreatedTime(), new DateTime(2014, 01, 01, 01, 01, 01));
         assertEquals(snapshot.getSnapshotFrequency(), (Integer) 10);
-        assertEquals(snapshot.toString(), "/foo/bar[2014-01-01T01:01:01.000Z]");
+        assertEquals(snapshot.toString(), "/foo/bar/hadoopit-10-2014.01.01.01.01.01.000-test");
         assertEquals(snapshot.getLabel(), "test");
     }
 
@@ -36,16 +35,31 @@ public class TestSnapshot extends TestCase {
         Snapshot snapshot = new Snapshot(dir, status);
 
         assertEquals(snapshot.getSnapshottableDirectoryStatus(), dir);
-        assertEquals(snapshot.getDirectoryStatus(), status);
         assertEquals(snapshot.getPath(), path);
 
         assertEquals(snapshot.getName(), "hadoopit-10-2014.01.01.01.01.01.000");
         assertEquals(snapshot.getCreatedTime(), new DateTime(2014, 01, 01, 01, 01, 01));
         assertEquals(snapshot.getSnapshotFrequency(), (Integer) 10);
-        assertEquals(snapshot.toString(), "/foo/bar[2014-01-01T01:01:01.000Z]");
+        assertEquals(snapshot.toString(), "/foo/bar/hadoopit-10-2014.01.01.01.01.01.000");
         assertEquals(snapshot.getLabel(), null);
     }
 
+    public void testSnapshotFromName() throws Exception {
+        SnapshottableDirectoryStatus dir = getDirectoryStatus(new Path("/foo/bar"));
+        Snapshot snapshot = new Snapshot(dir, "hadoopit-10-2014.01.01.01.01.01.000-test");
+
+        assertEquals(snapshot.getPath(),
+                     new Path("/foo/bar/.snapshot/hadoopit-10-2014.01.01.01.01.01.000-test"));
+        assertEquals(snapshot.getCreatedTime(), new DateTime(2014, 01, 01, 01, 01, 01));
+        assertEquals(snapshot.getSnapshotFrequency(), (Integer) 10);
+        assertEquals(snapshot.getLabel(), "test");
+
+        try {
+            new Snapshot(dir, "manual");
+            fail("Expected an invalid snapshot name to be rejected");
+        } catch (InvalidSnapshotNameException e) { }
+    }
+
     private SnapshottableDirectoryStatus getDirectoryStatus(Path path) {
         return new SnapshottableDirectoryStatus(0, 0, null, null, null, path.toString().getBytes(), 0, 0, 1, 1, new byte[0]);
     }
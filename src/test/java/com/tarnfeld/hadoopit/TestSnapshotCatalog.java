@@ -0,0 +1,193 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.Path;
+
+public class TestSnapshotCatalog extends TestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.directory = File.createTempFile("hadoopit-catalog", "");
+        this.directory.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : this.directory.listFiles()) {
+            file.delete();
+        }
+
+        this.directory.delete();
+    }
+
+    public void testRecordAndReplay() throws Exception {
+        Path dir = new Path("/data");
+
+        SnapshotCatalog catalog = new SnapshotCatalog(this.directory, 60000, 1000);
+        catalog.recordCreated(dir, "hadoopit-60-2014.01.01.01.00.00.000-hourly", 60, 1000, "hourly");
+        catalog.recordCreated(dir, "hadoopit-60-2014.01.01.02.00.00.000-hourly", 60, 2000, "hourly");
+        catalog.recordCreated(dir, "hadoopit-1440-2014.01.01.02.00.00.000", 1440, 2000, null);
+        catalog.recordDeleted(dir, "hadoopit-60-2014.01.01.01.00.00.000-hourly");
+        catalog.close();
+
+        catalog = new SnapshotCatalog(this.directory, 60000, 1000);
+        List<CatalogEntry> snapshots = catalog.getSnapshots(dir);
+        catalog.close();
+
+        assertEquals(snapshots.size(), 2);
+        for (CatalogEntry entry : snapshots) {
+            if (entry.getFrequency() == 60) {
+                assertEquals(entry.getName(), "hadoopit-60-2014.01.01.02.00.00.000-hourly");
+                assertEquals(entry.getCreatedMillis(), 2000);
+                assertEquals(entry.getLabel(), "hourly");
+            } else {
+                assertEquals(entry.getFrequency(), 1440);
+                assertEquals(entry.getLabel(), null);
+            }
+        }
+    }
+
+    public void testCompaction() throws Exception {
+        Path dir = new Path("/data");
+
+        SnapshotCatalog catalog = new SnapshotCatalog(this.directory, 60000, 3);
+        for (int i = 0; i < 10; i++) {
+            catalog.recordCreated(dir, "hadoopit-1-" + i, 1, i, null);
+        }
+        catalog.close();
+
+        assertTrue(new File(this.directory, "catalog.checkpoint").exists());
+        assertEquals(new File(this.directory, "catalog.log").length(),
+                     "C\t/data\thadoopit-1-9\t1\t9\t\n".length());
+
+        catalog = new SnapshotCatalog(this.directory, 60000, 3);
+        assertEquals(catalog.getSnapshots(dir).size(), 10);
+        catalog.close();
+    }
+
+    public void testFreshnessAndDrift() throws Exception {
+        Path dir = new Path("/data");
+
+        SnapshotCatalog catalog = new SnapshotCatalog(this.directory, 60000, 1000);
+        assertFalse(catalog.isFresh(dir, 0));
+
+        List<CatalogEntry> found = new ArrayList<CatalogEntry>();
+        found.add(new CatalogEntry("hadoopit-1-a", 1, 10, null));
+        catalog.reconcile(dir, found, 0, 100000);
+
+        assertTrue(catalog.isFresh(dir, 100000));
+        assertTrue(catalog.isFresh(dir, 159999));
+        assertFalse(catalog.isFresh(dir, 160000));
+
+        catalog.markDrift(dir);
+        assertFalse(catalog.isFresh(dir, 100000));
+
+        catalog.reconcile(dir, new ArrayList<CatalogEntry>(), 0, 100000);
+        assertTrue(catalog.isFresh(dir, 100000));
+        assertEquals(catalog.getSnapshots(dir).size(), 0);
+        catalog.close();
+    }
+
+    public void testReconcileCompactsOnce() throws Exception {
+        Path dir = new Path("/data");
+
+        SnapshotCatalog catalog = new SnapshotCatalog(this.directory, 60000, 10);
+        List<CatalogEntry> found = new ArrayList<CatalogEntry>();
+        for (int i = 0; i < 50; i++) {
+            found.add(new CatalogEntry("hadoopit-1-" + i, 1, i, null));
+        }
+
+        catalog.reconcile(dir, found, 0, 100000);
+        assertEquals(new File(this.directory, "catalog.log").length(), 0);
+
+        // Nothing has changed, so only the reconciliation is logged
+        catalog.reconcile(dir, found, 0, 200000);
+        assertEquals(new File(this.directory, "catalog.log").length(),
+                     "R\t/data\t200000\t0\n".length());
+
+        found.remove(0);
+        found.add(new CatalogEntry("hadoopit-1-50", 1, 50, null));
+        catalog.reconcile(dir, found, 0, 300000);
+        catalog.close();
+
+        catalog = new SnapshotCatalog(this.directory, 60000, 10);
+        assertEquals(catalog.getSnapshots(dir).size(), 50);
+        assertTrue(catalog.isFresh(dir, 300000));
+        catalog.close();
+    }
+
+    public void testForeignCount() throws Exception {
+        Path dir = new Path("/data");
+        InMemorySnapshotStore store = new InMemorySnapshotStore(Clock.SYSTEM);
+        store.allowSnapshot(dir);
+        store.createSnapshot(dir, "manual");
+        store.createSnapshot(dir, "hadoopit-60-2014.01.01.01.00.00.000");
+
+        SnapshotCatalog catalog = new SnapshotCatalog(this.directory, 60000, 1000);
+        assertEquals(createIndex(store, catalog).getSnapshotCount(), 2);
+        catalog.close();
+
+        // A later run is served from the catalog, and still counts it
+        catalog = new SnapshotCatalog(this.directory, 60000, 1000);
+        assertEquals(catalog.getForeignCount(dir), 1);
+        assertEquals(createIndex(store, catalog).getSnapshotCount(), 2);
+        catalog.close();
+    }
+
+    public void testLocked() throws Exception {
+        SnapshotCatalog catalog = SnapshotCatalog.open(this.directory, 60000, 1000);
+        assertNotNull(catalog);
+        assertNull(SnapshotCatalog.open(this.directory, 60000, 1000));
+
+        try {
+            new SnapshotCatalog(this.directory, 60000, 1000);
+            fail("Opened a catalog that's in use");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        catalog.close();
+        catalog = SnapshotCatalog.open(this.directory, 60000, 1000);
+        assertNotNull(catalog);
+        catalog.close();
+    }
+
+    public void testTruncatedRecordIgnored() throws Exception {
+        Path dir = new Path("/data");
+
+        SnapshotCatalog catalog = new SnapshotCatalog(this.directory, 60000, 1000);
+        catalog.recordCreated(dir, "hadoopit-1-a", 1, 10, null);
+        catalog.close();
+
+        FileOutputStream log = new FileOutputStream(new File(this.directory, "catalog.log"), true);
+        log.write("C\t/data\thadoopit-1-b\t1".getBytes("UTF-8"));
+        log.close();
+
+        catalog = new SnapshotCatalog(this.directory, 60000, 1000);
+        assertEquals(catalog.getSnapshots(dir).size(), 1);
+        catalog.recordCreated(dir, "hadoopit-1-c", 1, 20, null);
+        catalog.close();
+
+        catalog = new SnapshotCatalog(this.directory, 60000, 1000);
+        assertEquals(catalog.getSnapshots(dir).size(), 2);
+        catalog.close();
+    }
+
+    private SnapshotIndex createIndex(SnapshotStore store, SnapshotCatalog catalog)
+            throws Exception {
+        SnapshotManager manager = new SnapshotManager(new SnapshottableDirectoryResolver(store, 0),
+                                                      new Path("/data"), 60,
+                                                      new CountRetentionPolicy(24), null);
+        manager.getSnapshotIndex().setCatalog(catalog);
+        return manager.getSnapshotIndex();
+    }
+}
@@ -0,0 +1,271 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.extensions.TestSetup;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+public class TestSnapshotCleaner extends TestCase {
+
+    private static MiniDFSCluster cluster;
+
+    public static Test suite() {
+        TestSetup setup = new TestSetup(new TestSuite(TestSnapshotCleaner.class)) {
+            @SuppressWarnings("deprecation")
+            @Override
+            protected void setUp() throws Exception {
+                Configuration conf = new Configuration();
+                cluster = new MiniDFSCluster(conf, 1, true, null);
+            }
+            @Override
+            protected void tearDown() throws Exception {
+                if (cluster != null) { cluster.shutdown(); }
+            }
+        };
+        return setup;
+    }
+
+    public void testCleanupMultipleDirectories() throws Exception {
+        DistributedFileSystem fs = cluster.getFileSystem();
+        List<SnapshotManager> managers = new ArrayList<SnapshotManager>();
+
+        for (String name : new String[] { "/a", "/b", "/c" }) {
+            Path dir = new Path(name);
+            fs.mkdir(dir, null);
+            fs.allowSnapshot(dir);
+
+            for (int i = 1; i <= 5; i++) {
+                fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.0" + i + ".000");
+            }
+
+            managers.add(new SnapshotManager(fs, dir, 1, 2, null));
+        }
+
+        SnapshotCleaner cleaner = new SnapshotCleaner(4, 2, 0, 0L);
+        CleanupSummary summary;
+        try {
+            summary = cleaner.cleanup(managers);
+        } finally {
+            cleaner.shutdown();
+        }
+
+        assertEquals(summary.getDeleted().size(), 9);
+        assertEquals(summary.getFailed().size(), 0);
+        assertEquals(summary.getSkipped().size(), 0);
+
+        for (SnapshotManager manager : managers) {
+            List<Snapshot> snapshots = manager.listAllSnapshots();
+            assertEquals(snapshots.size(), 2);
+            assertEquals(snapshots.get(0).getName(), "hadoopit-1-2014.01.01.01.01.05.000");
+            assertEquals(snapshots.get(1).getName(), "hadoopit-1-2014.01.01.01.01.04.000");
+        }
+    }
+
+    public void testCleanupRecordsFailures() throws Exception {
+        ManualClock clock = new ManualClock(1388538000000L);
+        InMemorySnapshotStore store = new InMemorySnapshotStore(clock);
+        Path dir = new Path("/d");
+
+        store.allowSnapshot(dir);
+        store.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.01.000");
+        store.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.02.000");
+
+        SnapshotManager manager = new SnapshotManager(
+            new SnapshottableDirectoryResolver(store, 0), dir, 1, new CountRetentionPolicy(1), null);
+        manager.setClock(clock);
+        assertEquals(manager.listOutdatedSnapshots().size(), 1);
+
+        // Every NameNode call fails from here on
+        store.setFailureRate(1.0, 0);
+
+        List<SnapshotManager> managers = new ArrayList<SnapshotManager>();
+        managers.add(manager);
+
+        SnapshotCleaner cleaner = new SnapshotCleaner(1, 1, 3, 0L);
+        CleanupSummary summary;
+        try {
+            summary = cleaner.cleanup(managers);
+        } finally {
+            cleaner.shutdown();
+        }
+
+        assertEquals(summary.getDeleted().size(), 0);
+        assertEquals(summary.getFailed().size(), 1);
+    }
+
+    public void testCleanupRecordsListingFailures() throws Exception {
+        ManualClock clock = new ManualClock(1388538000000L);
+        InMemorySnapshotStore store = new InMemorySnapshotStore(clock);
+        Path dir = new Path("/d");
+
+        store.allowSnapshot(dir);
+        store.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.01.000");
+        store.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.02.000");
+
+        SnapshotManager manager = new SnapshotManager(
+            new SnapshottableDirectoryResolver(store, 0), dir, 1, new CountRetentionPolicy(1), null);
+        manager.setClock(clock);
+
+        // The directory can't even be listed
+        store.setFailureRate(1.0, 0);
+
+        List<SnapshotManager> managers = new ArrayList<SnapshotManager>();
+        managers.add(manager);
+
+        SnapshotCleaner cleaner = new SnapshotCleaner(1, 1, 3, 0L);
+        CleanupSummary summary;
+        try {
+            summary = cleaner.cleanup(managers);
+        } finally {
+            cleaner.shutdown();
+        }
+
+        assertEquals(summary.getDeleted().size(), 0);
+        assertEquals(summary.getFailed().size(), 0);
+        assertEquals(summary.getFailedDirectories().keySet().iterator().next(), dir);
+        assertTrue(summary.hasFailures());
+    }
+
+    public void testBackoffReleasesNameNodeLimit() throws Exception {
+        final ManualClock clock = new ManualClock(1388538000000L);
+        final AtomicLong deletedAt = new AtomicLong();
+        InMemorySnapshotStore store = new InMemorySnapshotStore(clock) {
+            @Override
+            public void deleteSnapshot(Path directory, String name) throws IOException {
+                if (directory.toUri().getPath().equals("/failing")) {
+                    throw new IOException("Simulated failure");
+                }
+
+                super.deleteSnapshot(directory, name);
+                deletedAt.set(System.nanoTime());
+            }
+        };
+
+        List<SnapshotManager> managers = new ArrayList<SnapshotManager>();
+        for (String name : new String[] { "/failing", "/working" }) {
+            Path dir = new Path(name);
+            store.allowSnapshot(dir);
+            store.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.01.000");
+            store.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.02.000");
+
+            SnapshotManager manager = new SnapshotManager(
+                new SnapshottableDirectoryResolver(store, 0), dir, 1,
+                new CountRetentionPolicy(1), null);
+            manager.setClock(clock);
+            managers.add(manager);
+        }
+
+        // One delete at a time, so a retry backing off mustn't hold the permit
+        SnapshotCleaner cleaner = new SnapshotCleaner(2, 1, 1, 2000L);
+        long start = System.nanoTime();
+        CleanupSummary summary;
+        try {
+            summary = cleaner.cleanup(managers);
+        } finally {
+            cleaner.shutdown();
+        }
+
+        assertEquals(summary.getDeleted().size(), 1);
+        assertEquals(summary.getFailed().size(), 1);
+        assertTrue(deletedAt.get() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+    }
+
+    public void testCleanupAlreadyDeleted() throws Exception {
+        DistributedFileSystem fs = cluster.getFileSystem();
+        Path dir = new Path("/d");
+
+        fs.mkdir(dir, null);
+        fs.allowSnapshot(dir);
+        fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.01.000");
+        fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.02.000");
+
+        SnapshotManager manager = new SnapshotManager(fs, dir, 1, 1, null);
+        List<Snapshot> outdated = manager.listOutdatedSnapshots();
+        assertEquals(outdated.size(), 1);
+
+        // An overlapping run deletes the snapshot first, which isn't a failure
+        fs.deleteSnapshot(dir, outdated.get(0).getName());
+
+        List<SnapshotManager> managers = new ArrayList<SnapshotManager>();
+        managers.add(manager);
+
+        SnapshotCleaner cleaner = new SnapshotCleaner(1, 1, 3, 0L);
+        CleanupSummary summary;
+        try {
+            summary = cleaner.cleanup(managers);
+        } finally {
+            cleaner.shutdown();
+        }
+
+        assertEquals(summary.getDeleted().size(), 1);
+        assertEquals(summary.getFailed().size(), 0);
+        assertEquals(manager.listAllSnapshots().size(), 1);
+    }
+
+    public void testResumeFromJournal() throws Exception {
+        DistributedFileSystem fs = cluster.getFileSystem();
+        Path dir = new Path("/e");
+
+        fs.mkdir(dir, null);
+        fs.allowSnapshot(dir);
+        fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.01.000");
+        fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.02.000");
+        fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.03.000");
+
+        File journalDir = File.createTempFile("hadoopit-journal", "");
+        journalDir.delete();
+
+        try {
+            // A run plans two deletes, makes one and dies before journaling it
+            RunJournal journal = new RunJournal(journalDir, 100, 1000);
+            journal.recordPlanned(dir, "hadoopit-1-2014.01.01.01.01.01.000");
+            journal.recordPlanned(dir, "hadoopit-1-2014.01.01.01.01.02.000");
+            journal.sync();
+            journal.close();
+            fs.deleteSnapshot(dir, "hadoopit-1-2014.01.01.01.01.01.000");
+
+            // Retaining everything, only the journaled deletes are made
+            List<SnapshotManager> managers = new ArrayList<SnapshotManager>();
+            managers.add(new SnapshotManager(fs, dir, 1, 0, null));
+
+            journal = new RunJournal(journalDir, 100, 2000);
+            assertTrue(journal.isResumed());
+
+            SnapshotCleaner cleaner = new SnapshotCleaner(1, 1, 0, 0L);
+            cleaner.setJournal(journal);
+            CleanupSummary summary;
+            try {
+                summary = cleaner.cleanup(managers);
+            } finally {
+                cleaner.shutdown();
+            }
+
+            assertEquals(summary.getDeleted().size(), 2);
+            assertEquals(summary.getFailed().size(), 0);
+            assertEquals(managers.get(0).listAllSnapshots().size(), 1);
+
+            RunReport report = journal.finish(3000);
+            assertEquals(report.getCarried(), 2);
+            assertEquals(report.getDeleted(), 2);
+            assertEquals(report.getRemaining(), 0);
+        } finally {
+            for (File file : journalDir.listFiles()) {
+                file.delete();
+            }
+
+            journalDir.delete();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import junit.extensions.TestSetup;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+public class TestSnapshotExporter extends TestCase {
+
+    private static MiniDFSCluster cluster;
+
+    public static Test suite() {
+        TestSetup setup = new TestSetup(new TestSuite(TestSnapshotExporter.class)) {
+            @SuppressWarnings("deprecation")
+            @Override
+            protected void setUp() throws Exception {
+                Configuration conf = new Configuration();
+                cluster = new MiniDFSCluster(conf, 1, true, null);
+            }
+            @Override
+            protected void tearDown() throws Exception {
+                if (cluster != null) { cluster.shutdown(); }
+            }
+        };
+        return setup;
+    }
+
+    public void testExportChanges() throws Exception {
+        DistributedFileSystem fs = cluster.getFileSystem();
+        Path dir = new Path("/a");
+
+        fs.mkdir(dir, null);
+        fs.allowSnapshot(dir);
+        write(fs, new Path(dir, "x"), "one");
+        write(fs, new Path(dir, "sub/y"), "two");
+        fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.01.000");
+
+        File targetDir = File.createTempFile("hadoopit-export", "");
+        targetDir.delete();
+
+        FileSystem target = FileSystem.getLocal(new Configuration());
+        Path root = new Path(targetDir.getAbsolutePath());
+        Path data = new Path(root, "a/data");
+
+        SnapshotManager manager = new SnapshotManager(fs, dir, 1, 10, null);
+        SnapshotExporter exporter = new SnapshotExporter(target, root, 2, 4);
+        try {
+            // The first export copies everything
+            assertEquals(exporter.export(manager, manager.getLatestSnapshot()), 2);
+            assertEquals(read(target, new Path(data, "x")), "one");
+            assertEquals(read(target, new Path(data, "sub/y")), "two");
+
+            fs.delete(new Path(dir, "x"), false);
+            write(fs, new Path(dir, "sub/y"), "three");
+            write(fs, new Path(dir, "sub/z"), "four");
+            write(fs, new Path(dir, "new/w"), "five");
+            fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.02.000");
+            manager.getSnapshotIndex().invalidate();
+
+            // Later exports only copy what changed
+            Snapshot latest = manager.getLatestSnapshot();
+            assertEquals(exporter.export(manager, latest), 3);
+            assertFalse(target.exists(new Path(data, "x")));
+            assertEquals(read(target, new Path(data, "sub/y")), "three");
+            assertEquals(read(target, new Path(data, "sub/z")), "four");
+            assertEquals(read(target, new Path(data, "new/w")), "five");
+
+            assertEquals(read(target, new Path(root, "a/LATEST")), latest.getName() + "\n");
+            assertTrue(target.exists(new Path(root, "a/manifests/" + latest.getName())));
+
+            assertEquals(exporter.export(manager, latest), 0);
+        } finally {
+            exporter.shutdown();
+            target.delete(root, true);
+        }
+    }
+
+    private void write(FileSystem fs, Path path, String content) throws IOException {
+        OutputStream out = fs.create(path, true);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private String read(FileSystem fs, Path path) throws IOException {
+        byte[] buffer = new byte[(int) fs.getFileStatus(path).getLen()];
+        InputStream in = fs.open(path);
+        try {
+            int offset = 0;
+            while (offset < buffer.length) {
+                offset += in.read(buffer, offset, buffer.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+
+        return new String(buffer, "UTF-8");
+    }
+}
@@ -0,0 +1,102 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.extensions.TestSetup;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.joda.time.DateTime;
+
+public class TestSnapshotGroup extends TestCase {
+
+    private static MiniDFSCluster cluster;
+
+    public static Test suite() {
+        TestSetup setup = new TestSetup(new TestSuite(TestSnapshotGroup.class)) {
+            @SuppressWarnings("deprecation")
+            @Override
+            protected void setUp() throws Exception {
+                Configuration conf = new Configuration();
+                cluster = new MiniDFSCluster(conf, 1, true, null);
+            }
+            @Override
+            protected void tearDown() throws Exception {
+                if (cluster != null) { cluster.shutdown(); }
+            }
+        };
+        return setup;
+    }
+
+    public void testTakeGroupSnapshot() throws Exception {
+        SnapshotGroup group = createGroup("first", 2, "/a", "/b");
+
+        assertEquals(group.needToTakeSnapshot(), true);
+        String name = group.takeSnapshot();
+        assertNotNull(name);
+
+        for (SnapshotManager member : group.getMembers()) {
+            assertEquals(member.getLatestSnapshot().getName(), name);
+        }
+
+        assertEquals(group.needToTakeSnapshot(), false);
+        assertNull(group.takeSnapshot());
+    }
+
+    public void testRollback() throws Exception {
+        SnapshotGroup group = createGroup("second", 2, "/c", "/d");
+        DateTime created = new DateTime(2014, 1, 1, 1, 1, 1);
+
+        // A snapshot of the same name makes creating the second member fail
+        DistributedFileSystem fs = cluster.getFileSystem();
+        fs.createSnapshot(new Path("/d"), SnapshotNameCodec.encode(1, created.getMillis(), "second"));
+
+        try {
+            group.createSnapshot(created);
+            fail("Expected the group snapshot to fail");
+        } catch (IOException e) { }
+
+        assertEquals(group.getMembers().get(0).listAllSnapshots().size(), 0);
+        assertEquals(group.getMembers().get(1).listAllSnapshots().size(), 1);
+        assertNull(group.getLatestSnapshotTime());
+    }
+
+    public void testGroupRetention() throws Exception {
+        SnapshotGroup group = createGroup("third", 2, "/e", "/f");
+
+        String oldest = group.createSnapshot(new DateTime(2014, 1, 1, 1, 1, 1));
+        group.createSnapshot(new DateTime(2014, 1, 1, 1, 2, 1));
+        group.createSnapshot(new DateTime(2014, 1, 1, 1, 3, 1));
+
+        List<String> outdated = group.listOutdatedSnapshots();
+        assertEquals(outdated.size(), 1);
+        assertEquals(outdated.get(0), oldest);
+
+        assertEquals(group.cleanupOutdatedSnapshots(), (Integer) 1);
+        for (SnapshotManager member : group.getMembers()) {
+            assertEquals(member.listAllSnapshots().size(), 2);
+        }
+    }
+
+    private SnapshotGroup createGroup(String name, int retention, String... directories)
+            throws Exception {
+        DistributedFileSystem fs = cluster.getFileSystem();
+        List<SnapshotManager> members = new ArrayList<SnapshotManager>();
+        for (String directory : directories) {
+            Path dir = new Path(directory);
+            fs.mkdir(dir, null);
+            fs.allowSnapshot(dir);
+
+            members.add(new SnapshotManager(fs, dir, 1, retention, name));
+        }
+
+        return new SnapshotGroup(name, members);
+    }
+}
@@ -0,0 +1,185 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.Path;
+import org.joda.time.DateTime;
+
+public class TestSnapshotLimitGuard extends TestCase {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long START = 1388538000000L; // 2014-01-01 01:00 UTC
+
+    private ManualClock clock;
+    private InMemorySnapshotStore store;
+    private SnapshottableDirectoryResolver resolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.clock = new ManualClock(START + 100 * 24 * HOUR);
+        this.store = new InMemorySnapshotStore(this.clock);
+        for (String dir : new String[] { "/a", "/b" }) {
+            this.store.allowSnapshot(new Path(dir));
+        }
+
+        this.resolver = new SnapshottableDirectoryResolver(this.store, Long.MAX_VALUE);
+    }
+
+    public void testRefuseAtHardLimit() throws Exception {
+        SnapshotLimitGuard guard = new SnapshotLimitGuard(0, 3, 0, 5);
+        SnapshotManager a = createManager(guard, "/a", 60, 0);
+        SnapshotManager b = createManager(guard, "/b", 60, 0);
+
+        for (int hour = 0; hour < 3; hour++) {
+            a.createSnapshot(new DateTime(START + hour * HOUR));
+        }
+
+        long refused = SnapshotMetrics.get().getSnapshotsRefused();
+        try {
+            a.createSnapshot(new DateTime(START + 3 * HOUR));
+            fail("Expected the snapshot to be refused");
+        } catch (SnapshotLimitException e) {
+            assertEquals(e.getDirectory(), new Path("/a"));
+            assertEquals(e.getCount(), 3);
+            assertEquals(e.isNamespaceLimit(), false);
+        }
+
+        assertEquals(this.store.getSnapshotCount(new Path("/a")), 3);
+        assertEquals(SnapshotMetrics.get().getSnapshotsRefused(), refused + 1);
+
+        b.createSnapshot(new DateTime(START));
+        b.createSnapshot(new DateTime(START + HOUR));
+        assertEquals(guard.getNamespaceSnapshotCount(), 5);
+
+        try {
+            b.createSnapshot(new DateTime(START + 2 * HOUR));
+            fail("Expected the snapshot to be refused");
+        } catch (SnapshotLimitException e) {
+            assertEquals(e.getCount(), 5);
+            assertEquals(e.isNamespaceLimit(), true);
+        }
+
+        // Deleting frees up room again
+        a.deleteSnapshot(a.listAllSnapshots().get(2));
+        assertEquals(guard.getSnapshotCount(new Path("/a")), 2);
+        assertNotNull(b.createSnapshot(new DateTime(START + 2 * HOUR)));
+    }
+
+    public void testEvictOldestAcrossTiers() throws Exception {
+        SnapshotLimitGuard guard = new SnapshotLimitGuard(4, 100, 0, 0);
+        SnapshotManager hourly = createManager(guard, "/a", 60, 0);
+        SnapshotManager daily = createManager(guard, "/a", 1440, 0);
+
+        // Snapshots not made by hadoopit count, but are never evicted
+        this.store.createSnapshot(new Path("/a"), "manual");
+
+        for (int day = 0; day < 3; day++) {
+            daily.createSnapshot(new DateTime(START + day * 24 * HOUR));
+        }
+
+        for (int hour = 1; hour < 4; hour++) {
+            hourly.createSnapshot(new DateTime(START + hour * HOUR));
+        }
+
+        assertEquals(names(hourly.listOutdatedSnapshots()),
+                     Arrays.asList(name(60, 2), name(60, 1)));
+        assertEquals(names(daily.listOutdatedSnapshots()),
+                     Arrays.asList(name(1440, 0)));
+
+        SnapshotCleaner cleaner = new SnapshotCleaner(2, 2, 0, 0L);
+        try {
+            cleaner.cleanup(Arrays.asList(hourly, daily));
+        } finally {
+            cleaner.shutdown();
+        }
+
+        assertEquals(this.store.getSnapshotCount(new Path("/a")), 4);
+        assertEquals(guard.getSnapshotCount(new Path("/a")), 4);
+        assertEquals(hourly.listOutdatedSnapshots().size(), 0);
+        assertEquals(daily.listOutdatedSnapshots().size(), 0);
+    }
+
+    public void testEvictionsCountRetention() throws Exception {
+        SnapshotLimitGuard guard = new SnapshotLimitGuard(4, 100, 0, 0);
+        SnapshotManager hourly = createManager(guard, "/a", 60, 2);
+        SnapshotManager daily = createManager(guard, "/a", 1440, 0);
+
+        for (int day = 0; day < 3; day++) {
+            daily.createSnapshot(new DateTime(START + day * 24 * HOUR));
+        }
+
+        for (int hour = 1; hour < 4; hour++) {
+            hourly.createSnapshot(new DateTime(START + hour * HOUR));
+        }
+
+        // The hourly retention already removes one of the two over the limit
+        assertEquals(names(hourly.listOutdatedSnapshots()), Arrays.asList(name(60, 1)));
+        assertEquals(names(daily.listOutdatedSnapshots()), Arrays.asList(name(1440, 0)));
+    }
+
+    public void testNamespaceSoftLimit() throws Exception {
+        SnapshotLimitGuard guard = new SnapshotLimitGuard(0, 0, 6, 0);
+        SnapshotManager a = createManager(guard, "/a", 60, 0);
+        SnapshotManager b = createManager(guard, "/b", 60, 0);
+
+        for (int hour = 0; hour < 6; hour++) {
+            a.createSnapshot(new DateTime(START + hour * HOUR));
+        }
+
+        for (int hour = 0; hour < 2; hour++) {
+            b.createSnapshot(new DateTime(START + hour * HOUR));
+        }
+
+        // The two snapshots over the limit are shared in proportion
+        assertEquals(names(a.listOutdatedSnapshots()), Arrays.asList(name(60, 1), name(60, 0)));
+        assertEquals(names(b.listOutdatedSnapshots()), Arrays.asList(name(60, 0)));
+    }
+
+    public void testGroupSnapshotsAreNotEvicted() throws Exception {
+        SnapshotLimitGuard guard = new SnapshotLimitGuard(2, 100, 0, 0);
+        SnapshotManager hourly = createManager(guard, "/a", 60, 0);
+        SnapshotManager member = new SnapshotManager(
+            this.resolver, new Path("/a"), 1440, new CountRetentionPolicy(0), "group");
+        member.setClock(this.clock);
+        guard.registerGroupMember(member);
+
+        for (int day = 0; day < 3; day++) {
+            member.createSnapshot(new DateTime(START + day * 24 * HOUR));
+        }
+
+        for (int hour = 1; hour < 4; hour++) {
+            hourly.createSnapshot(new DateTime(START + hour * HOUR));
+        }
+
+        assertEquals(names(hourly.listOutdatedSnapshots()), Arrays.asList(name(60, 2), name(60, 1)));
+        assertEquals(member.listOutdatedSnapshots().size(), 0);
+    }
+
+    private SnapshotManager createManager(SnapshotLimitGuard guard, String dir, int frequency,
+                                          int retention) throws Exception {
+        SnapshotManager manager = new SnapshotManager(
+            this.resolver, new Path(dir), frequency, new CountRetentionPolicy(retention), null);
+        manager.setClock(this.clock);
+        guard.register(manager);
+
+        return manager;
+    }
+
+    private static String name(int frequency, int offset) {
+        long created = frequency == 60 ? START + offset * HOUR : START + offset * 24 * HOUR;
+        return SnapshotNameCodec.encode(frequency, created, null);
+    }
+
+    private static List<String> names(List<Snapshot> snapshots) {
+        List<String> names = new ArrayList<String>();
+        for (Snapshot snapshot : snapshots) {
+            names.add(snapshot.getName());
+        }
+
+        return names;
+    }
+}
@@ -1,6 +1,7 @@
 
 package com.tarnfeld.hadoopit;
 
+import java.io.File;
 import java.util.List;
 
 import junit.extensions.TestSetup;
@@ -196,4 +197,157 @@ public class TestSnapshotManager extends TestCase {
 
         assertEquals(manager.listOutdatedSnapshots().size(), 0);
     }
+
+    public void testSharedSnapshotIndex() throws Exception {
+        DistributedFileSystem fs = cluster.getFileSystem();
+        Path dir = new Path("/f");
+
+        fs.mkdir(dir, null);
+        fs.allowSnapshot(dir);
+
+        SnapshotManager minutely = new SnapshotManager(fs, dir, 1, 1, null);
+        SnapshotManager hourly = new SnapshotManager(fs, minutely.getSnapshotIndex(), 60, 1, "hourly");
+
+        assertSame(minutely.getSnapshotIndex(), hourly.getSnapshotIndex());
+
+        assertNotNull(minutely.takeSnapshot());
+        assertEquals(minutely.listAllSnapshots().size(), 1);
+        assertEquals(hourly.listAllSnapshots().size(), 0);
+
+        assertNotNull(hourly.takeSnapshot());
+        assertEquals(minutely.listAllSnapshots().size(), 1);
+        assertEquals(hourly.listAllSnapshots().size(), 1);
+        assertEquals(hourly.getLatestSnapshot().getLabel(), "hourly");
+    }
+
+    public void testSnapshotCatalog() throws Exception {
+        DistributedFileSystem fs = cluster.getFileSystem();
+        Path dir = new Path("/g");
+
+        fs.mkdir(dir, null);
+        fs.allowSnapshot(dir);
+
+        File catalogDir = File.createTempFile("hadoopit-catalog", "");
+        catalogDir.delete();
+
+        SnapshotCatalog catalog = new SnapshotCatalog(catalogDir, 60 * 60 * 1000, 1000);
+        SnapshotManager manager = new SnapshotManager(fs, dir, 1, 1, null);
+        manager.getSnapshotIndex().setCatalog(catalog);
+
+        assertEquals(manager.listAllSnapshots().size(), 0);
+        assertNotNull(manager.takeSnapshot());
+        assertEquals(manager.listAllSnapshots().size(), 1);
+        assertEquals(catalog.getSnapshots(dir).size(), 1);
+
+        // Snapshots created outside of hadoopit aren't seen until the catalog
+        // is reconciled
+        fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.01.000");
+        manager.getSnapshotIndex().invalidate();
+        assertEquals(manager.listAllSnapshots().size(), 1);
+
+        catalog.markDrift(dir);
+        manager.getSnapshotIndex().invalidate();
+        assertEquals(manager.listAllSnapshots().size(), 2);
+        assertEquals(manager.listOutdatedSnapshots().size(), 1);
+
+        assertEquals(manager.cleanupOutdatedSnapshots(), (Integer) 1);
+        assertEquals(catalog.getSnapshots(dir).size(), 1);
+
+        catalog.close();
+        for (File file : catalogDir.listFiles()) {
+            file.delete();
+        }
+        catalogDir.delete();
+    }
+
+    public void testOnlyIfChanged() throws Exception {
+        DistributedFileSystem fs = cluster.getFileSystem();
+        Path dir = new Path("/h");
+
+        fs.mkdir(dir, null);
+        fs.mkdir(new Path(dir, "child"), null);
+        fs.allowSnapshot(dir);
+
+        // An old snapshot, so a new one is due
+        fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.01.000");
+
+        SnapshotManager manager = new SnapshotManager(fs, dir, 1, 1, null);
+        manager.setChangeDetector(new ChangeDetector(fs));
+
+        assertEquals(manager.needToTakeSnapshot(), true);
+        assertNull(manager.takeSnapshot());
+        assertEquals(manager.listAllSnapshots().size(), 1);
+
+        // The skip is remembered until the next interval
+        assertEquals(manager.needToTakeSnapshot(), false);
+
+        // Changes below the root are found through the snapshot diff
+        fs.create(new Path(dir, "child/file")).close();
+
+        manager = new SnapshotManager(fs, dir, 1, 1, null);
+        manager.setChangeDetector(new ChangeDetector(fs));
+        assertEquals(new ChangeDetector(fs).countChanges(dir, manager.getLatestSnapshot()), 2);
+
+        assertNotNull(manager.takeSnapshot());
+        assertEquals(manager.listAllSnapshots().size(), 2);
+
+        // A snapshot of another tier sets the modification time of the
+        // directory, but isn't a change
+        Path tiered = new Path("/h2");
+        fs.mkdir(tiered, null);
+        fs.mkdir(new Path(tiered, "child"), null);
+        fs.allowSnapshot(tiered);
+        fs.createSnapshot(tiered, "hadoopit-1440-2014.01.01.01.01.01.000");
+
+        SnapshotManager hourly = new SnapshotManager(fs, tiered, 60, 24, null);
+        SnapshotManager daily = new SnapshotManager(fs, hourly.getSnapshotIndex(), 1440, 7, null);
+        daily.setChangeDetector(new ChangeDetector(fs));
+
+        assertNotNull(hourly.takeSnapshot());
+        assertEquals(daily.needToTakeSnapshot(), true);
+        assertEquals(daily.isUnchanged(), true);
+        assertNull(daily.takeSnapshot());
+
+        fs.create(new Path(tiered, "child/file")).close();
+        assertEquals(daily.isUnchanged(), false);
+    }
+
+    public void testSnapshottableDirectoryResolver() throws Exception {
+        DistributedFileSystem fs = cluster.getFileSystem();
+        Path dir = new Path("/i");
+        Path other = new Path("/j");
+
+        fs.mkdir(dir, null);
+        fs.mkdir(new Path(dir, "child"), null);
+        fs.allowSnapshot(dir);
+
+        SnapshottableDirectoryResolver resolver = new SnapshottableDirectoryResolver(
+            fs, 60 * 60 * 1000);
+
+        assertEquals(resolver.resolve(dir).getFullPath(), dir);
+        assertEquals(resolver.resolve(fs.makeQualified(dir)).getFullPath(), dir);
+
+        // Directories missing from the listing cause it to be fetched again
+        fs.mkdir(other, null);
+        fs.allowSnapshot(other);
+        assertEquals(resolver.resolve(other).getFullPath(), other);
+
+        SnapshotManager manager = new SnapshotManager(
+            resolver, dir, 1, new CountRetentionPolicy(1), null);
+        assertNotNull(manager.takeSnapshot());
+
+        try {
+            resolver.resolve(new Path(dir, "child"));
+            fail("Expected a NotSnapshottableException");
+        } catch (NotSnapshottableException e) {
+            assertEquals(e.getSnapshottableRoot(), dir);
+        }
+
+        try {
+            new SnapshotManager(fs, new Path("/missing"), 1, 1, null);
+            fail("Expected a NotSnapshottableException");
+        } catch (NotSnapshottableException e) {
+            assertNull(e.getSnapshottableRoot());
+        }
+    }
 }
@@ -0,0 +1,86 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.Path;
+import org.joda.time.DateTime;
+
+public class TestSnapshotMetrics extends TestCase {
+
+    public void testLatencyHistogram() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500 * 1000L); // 0.5ms
+        histogram.record(3 * 1000000L); // 3ms
+        histogram.record(60 * 1000000000L); // 60s
+
+        assertEquals(histogram.getCount(), 3);
+
+        StringBuilder out = new StringBuilder();
+        histogram.writeText(out, "latency_seconds", "call=\"test\"");
+        String text = out.toString();
+
+        assertTrue(text.contains("latency_seconds_bucket{call=\"test\",le=\"0.001\"} 1\n"));
+        assertTrue(text.contains("latency_seconds_bucket{call=\"test\",le=\"0.002\"} 1\n"));
+        assertTrue(text.contains("latency_seconds_bucket{call=\"test\",le=\"0.005\"} 2\n"));
+        assertTrue(text.contains("latency_seconds_bucket{call=\"test\",le=\"30.0\"} 2\n"));
+        assertTrue(text.contains("latency_seconds_bucket{call=\"test\",le=\"+Inf\"} 3\n"));
+        assertTrue(text.contains("latency_seconds_count{call=\"test\"} 3\n"));
+    }
+
+    public void testExportText() throws Exception {
+        SnapshotMetrics metrics = SnapshotMetrics.get();
+        metrics.snapshotCreated();
+        metrics.updateTier(new Path("/metrics\"test"), 60, 24, System.currentTimeMillis());
+
+        String text = metrics.toText();
+        assertTrue(text.contains("hadoopit_snapshots_total{result=\"created\"} "));
+        assertTrue(text.contains("hadoopit_snapshots_retained{directory=\"/metrics\\\"test\",frequency=\"60\"} 24\n"));
+        assertTrue(text.contains("hadoopit_newest_snapshot_age_seconds{directory=\"/metrics\\\"test\",frequency=\"60\"} "));
+
+        assertEquals(metrics.getRetainedSnapshots().get("/metrics\"test:60"), (Integer) 24);
+    }
+
+    public void testEmptiedTier() throws Exception {
+        ManualClock clock = new ManualClock(1388538000000L);
+        InMemorySnapshotStore store = new InMemorySnapshotStore(clock);
+        Path dir = new Path("/metrics-emptied");
+        store.allowSnapshot(dir);
+
+        SnapshotManager manager = new SnapshotManager(new SnapshottableDirectoryResolver(store, 0),
+                                                      dir, 60, new CountRetentionPolicy(24), null);
+        manager.setClock(clock);
+        manager.createSnapshot(new DateTime(clock.currentTimeMillis()));
+        assertEquals(manager.listAllSnapshots().size(), 1);
+
+        SnapshotMetrics metrics = SnapshotMetrics.get();
+        assertEquals(metrics.getRetainedSnapshots().get("/metrics-emptied:60"), (Integer) 1);
+        assertTrue(metrics.getNewestSnapshotAge().containsKey("/metrics-emptied:60"));
+
+        // The tier's last snapshot goes, and the gauges go with it
+        manager.deleteSnapshot(manager.getLatestSnapshot());
+        assertEquals(manager.listAllSnapshots().size(), 0);
+        assertEquals(metrics.getRetainedSnapshots().get("/metrics-emptied:60"), (Integer) 0);
+        assertFalse(metrics.getNewestSnapshotAge().containsKey("/metrics-emptied:60"));
+    }
+
+    public void testExportFile() throws Exception {
+        File file = File.createTempFile("hadoopit-metrics", ".prom");
+        SnapshotMetrics.get().registerMBean();
+
+        MetricsExporter exporter = new MetricsExporter(SnapshotMetrics.get(), file, null);
+        exporter.start(60);
+        exporter.stop();
+
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            assertEquals(reader.readLine(), "# TYPE hadoopit_namenode_call_seconds histogram");
+        } finally {
+            reader.close();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.tarnfeld.hadoopit;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+public class TestSnapshotNameCodec extends TestCase {
+
+    public void testEncode() throws Exception {
+        long created = new DateTime(2014, 1, 1, 1, 1, 1, 5).getMillis();
+
+        assertEquals(SnapshotNameCodec.encode(10, created, null),
+                     "hadoopit-10-2014.01.01.1.1.1.005");
+        assertEquals(SnapshotNameCodec.encode(10, created, "daily"),
+                     "hadoopit-10-2014.01.01.1.1.1.005-daily");
+    }
+
+    public void testDecode() throws Exception {
+        SnapshotName name = SnapshotNameCodec.decode("hadoopit-1440-2014.01.01.01.01.01.000-daily");
+
+        assertEquals(name.getFrequency(), 1440);
+        assertEquals(name.getCreatedMillis(), new DateTime(2014, 1, 1, 1, 1, 1).getMillis());
+        assertEquals(name.getLabel(), "daily");
+
+        name = SnapshotNameCodec.decode("hadoopit-60-2014.12.31.23.59.59.999");
+
+        assertEquals(name.getFrequency(), 60);
+        assertEquals(name.getCreatedMillis(), new DateTime(2014, 12, 31, 23, 59, 59, 999).getMillis());
+        assertEquals(name.getLabel(), null);
+    }
+
+    public void testDecodeLabelWithDashes() throws Exception {
+        SnapshotName name = SnapshotNameCodec.decode("hadoopit-60-2014.01.01.1.1.1.000-before-upgrade");
+
+        assertEquals(name.getLabel(), "before-upgrade");
+    }
+
+    public void testDecodeMatchesFormatter() throws Exception {
+        DateTimeFormatter formatter = DateTimeFormat.forPattern(Snapshot.DATE_FORMAT);
+        Random random = new Random(0);
+
+        for (int i = 0; i < 1000; i++) {
+            long created = Math.abs(random.nextLong() % (100L * 365 * 24 * 60 * 60 * 1000));
+            String name = SnapshotNameCodec.encode(60, created, null);
+            String timestamp = name.substring(name.lastIndexOf('-') + 1);
+
+            assertEquals(SnapshotNameCodec.decode(name).getCreatedMillis(),
+                         formatter.parseMillis(timestamp));
+        }
+
+        assertEquals(SnapshotNameCodec.parseTimestamp("2014.01.01.1.1.1.5", 0, 18),
+                     formatter.parseMillis("2014.01.01.1.1.1.5"));
+    }
+
+    public void testDecodeInvalidNames() throws Exception {
+        assertInvalid("snapshot-60-2014.01.01.1.1.1.000");
+        assertInvalid("hadoopit-60");
+        assertInvalid("hadoopit-sixty-2014.01.01.1.1.1.000");
+        assertInvalid("hadoopit--2014.01.01.1.1.1.000");
+        assertInvalid("hadoopit-60-2014.01.01.1.1.1");
+        assertInvalid("hadoopit-60-2014.01.01.1.1.1.000.1");
+        assertInvalid("hadoopit-60-2014.13.01.1.1.1.000");
+        assertInvalid("hadoopit-60-2014.01..1.1.1.000");
+    }
+
+    private void assertInvalid(String name) {
+        try {
+            SnapshotNameCodec.decode(name);
+            fail("Expected name to be rejected: " + name);
+        } catch (InvalidSnapshotNameException e) {
+            assertEquals(e.getName(), name);
+        }
+    }
+}
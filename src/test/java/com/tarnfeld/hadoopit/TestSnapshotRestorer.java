@@ -0,0 +1,130 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import junit.extensions.TestSetup;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.joda.time.DateTime;
+
+public class TestSnapshotRestorer extends TestCase {
+
+    private static MiniDFSCluster cluster;
+
+    public static Test suite() {
+        TestSetup setup = new TestSetup(new TestSuite(TestSnapshotRestorer.class)) {
+            @SuppressWarnings("deprecation")
+            @Override
+            protected void setUp() throws Exception {
+                Configuration conf = new Configuration();
+                cluster = new MiniDFSCluster(conf, 1, true, null);
+            }
+            @Override
+            protected void tearDown() throws Exception {
+                if (cluster != null) { cluster.shutdown(); }
+            }
+        };
+        return setup;
+    }
+
+    public void testSnapshotAsOf() throws Exception {
+        DistributedFileSystem fs = cluster.getFileSystem();
+        Path dir = new Path("/a");
+
+        fs.mkdir(dir, null);
+        fs.allowSnapshot(dir);
+        fs.createSnapshot(dir, "hadoopit-60-2014.01.01.01.00.00.000");
+        fs.createSnapshot(dir, "hadoopit-1440-2014.01.01.12.00.00.000");
+        fs.createSnapshot(dir, "hadoopit-60-2014.01.01.13.00.00.000");
+
+        SnapshotManager manager = new SnapshotManager(fs, dir, 60, 24, null);
+
+        assertNull(manager.getSnapshotAsOf(new DateTime(2014, 1, 1, 0, 0, 0)));
+        assertEquals(manager.getSnapshotAsOf(new DateTime(2014, 1, 1, 11, 0, 0)).getName(),
+                     "hadoopit-60-2014.01.01.01.00.00.000");
+        assertEquals(manager.getSnapshotAsOf(new DateTime(2014, 1, 1, 12, 30, 0)).getName(),
+                     "hadoopit-1440-2014.01.01.12.00.00.000");
+        assertEquals(manager.getSnapshotAsOf(DateTime.now()).getName(),
+                     "hadoopit-60-2014.01.01.13.00.00.000");
+        assertEquals(manager.getSnapshotIndex().getAllSnapshots().size(), 3);
+    }
+
+    public void testRestore() throws Exception {
+        DistributedFileSystem fs = cluster.getFileSystem();
+        Path dir = new Path("/b");
+
+        fs.mkdir(dir, null);
+        fs.allowSnapshot(dir);
+        write(fs, new Path(dir, "x"), "one");
+        write(fs, new Path(dir, "sub/y"), "two");
+        write(fs, new Path(dir, "sub/deep/z"), "three");
+        fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.01.000");
+
+        fs.delete(new Path(dir, "sub/deep"), true);
+        write(fs, new Path(dir, "sub/y"), "changed");
+        write(fs, new Path(dir, "sub/new"), "four");
+
+        SnapshotManager manager = new SnapshotManager(fs, dir, 1, 1, null);
+        Snapshot snapshot = manager.getSnapshotAsOf(DateTime.now());
+
+        SnapshotRestorer restorer = new SnapshotRestorer(4, 4);
+        try {
+            // A dry run reports the changes without making them
+            RestoreSummary preview = restorer.restore(fs, snapshot, "sub", new Path(dir, "sub"), true);
+            assertEquals(preview.getCopied().size(), 2);
+            assertEquals(preview.getUnchanged().size(), 0);
+            assertEquals(preview.getExtra().size(), 1);
+            assertEquals(read(fs, new Path(dir, "sub/y")), "changed");
+            assertFalse(fs.exists(new Path(dir, "sub/deep/z")));
+
+            RestoreSummary summary = restorer.restore(fs, snapshot, "sub", new Path(dir, "sub"), false);
+            assertEquals(summary.getCopied().size(), 2);
+            assertEquals(summary.getFailed().size(), 0);
+            assertEquals(read(fs, new Path(dir, "sub/y")), "two");
+            assertEquals(read(fs, new Path(dir, "sub/deep/z")), "three");
+            assertEquals(read(fs, new Path(dir, "sub/new")), "four");
+
+            // Files that already match are skipped
+            summary = restorer.restore(fs, snapshot, "", new Path("/restored"), false);
+            assertEquals(summary.getCopied().size(), 3);
+            summary = restorer.restore(fs, snapshot, "", new Path("/restored"), false);
+            assertEquals(summary.getCopied().size(), 0);
+            assertEquals(summary.getUnchanged().size(), 3);
+        } finally {
+            restorer.shutdown();
+        }
+    }
+
+    private void write(FileSystem fs, Path path, String content) throws IOException {
+        OutputStream out = fs.create(path, true);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private String read(FileSystem fs, Path path) throws IOException {
+        byte[] buffer = new byte[(int) fs.getFileStatus(path).getLen()];
+        InputStream in = fs.open(path);
+        try {
+            int offset = 0;
+            while (offset < buffer.length) {
+                offset += in.read(buffer, offset, buffer.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+
+        return new String(buffer, "UTF-8");
+    }
+}
@@ -0,0 +1,73 @@
+package com.tarnfeld.hadoopit;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.Path;
+import org.joda.time.DateTime;
+
+public class TestSnapshotScheduler extends TestCase {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    public void testOffset() throws Exception {
+        long offset = SnapshotScheduler.getOffset(new Path("/data"), "hourly", 60);
+
+        assertTrue(offset >= 0 && offset < HOUR);
+        assertEquals(SnapshotScheduler.getOffset(new Path("/data"), "hourly", 60), offset);
+        assertEquals(SnapshotScheduler.getOffset(new Path("hdfs://nn:8020/data"), "hourly", 60), offset);
+        assertTrue(SnapshotScheduler.getOffset(new Path("/other"), "hourly", 60) != offset);
+    }
+
+    public void testNextSnapshotTime() throws Exception {
+        Path dir = new Path("/data");
+        long offset = SnapshotScheduler.getOffset(dir, null, 60);
+
+        SnapshotScheduler strict = new SnapshotScheduler(false, 0, 0, 0, new SnapshotMetrics());
+        assertEquals(strict.getNextSnapshotTime(dir, null, 60, 1000).getMillis(), 1000 + HOUR);
+
+        SnapshotScheduler spread = new SnapshotScheduler(true, 0, 0, 0, new SnapshotMetrics());
+        for (long last = 0; last < 3 * HOUR; last += 7 * 60 * 1000L) {
+            DateTime next = spread.getNextSnapshotTime(dir, null, 60, last);
+
+            // Always in the tier's slot, between half and one and a half intervals later
+            assertEquals(next.getMillis() % HOUR, offset);
+            assertTrue(next.getMillis() >= last + HOUR / 2);
+            assertTrue(next.getMillis() < last + HOUR / 2 + HOUR);
+        }
+    }
+
+    public void testRateLimit() throws Exception {
+        SnapshotScheduler scheduler = new SnapshotScheduler(false, 20, 0, 0, new SnapshotMetrics());
+
+        // The first 20 operations are a burst, the next 10 take half a second
+        long start = System.nanoTime();
+        for (int i = 0; i < 30; i++) {
+            assertTrue(scheduler.acquire());
+        }
+
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        assertTrue("Took " + elapsed + "ms", elapsed >= 400 && elapsed < 2000);
+    }
+
+    public void testDeferWhenSlow() throws Exception {
+        SnapshotMetrics metrics = new SnapshotMetrics();
+        SnapshotScheduler scheduler = new SnapshotScheduler(false, 0, 1000, 60 * 1000L, metrics);
+
+        assertTrue(scheduler.acquire());
+
+        metrics.getCreateSnapshotLatency().record(5 * 1000000000L);
+        assertTrue(scheduler.isNameNodeSlow());
+        assertFalse(scheduler.acquire());
+
+        // Fast calls bring the average back down
+        for (int i = 0; i < 50; i++) {
+            metrics.getCreateSnapshotLatency().record(1000000L);
+        }
+        assertTrue(scheduler.acquire());
+
+        // Slow calls stop counting once they're older than the window
+        metrics.getDeleteSnapshotLatency().record(5 * 1000000000L);
+        assertFalse(new SnapshotScheduler(false, 0, 1000, 60 * 1000L, metrics).acquire());
+        assertTrue(new SnapshotScheduler(false, 0, 1000, 0, metrics).acquire());
+    }
+}
@@ -0,0 +1,100 @@
+package com.tarnfeld.hadoopit;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import junit.extensions.TestSetup;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+public class TestSpaceAccountant extends TestCase {
+
+    private static MiniDFSCluster cluster;
+
+    public static Test suite() {
+        TestSetup setup = new TestSetup(new TestSuite(TestSpaceAccountant.class)) {
+            @SuppressWarnings("deprecation")
+            @Override
+            protected void setUp() throws Exception {
+                Configuration conf = new Configuration();
+                cluster = new MiniDFSCluster(conf, 1, true, null);
+            }
+            @Override
+            protected void tearDown() throws Exception {
+                if (cluster != null) { cluster.shutdown(); }
+            }
+        };
+        return setup;
+    }
+
+    public void testAccounting() throws Exception {
+        DistributedFileSystem fs = cluster.getFileSystem();
+        Path dir = new Path("/space");
+        fs.mkdir(dir, null);
+        fs.allowSnapshot(dir);
+
+        DFSTestUtil.createFile(fs, new Path(dir, "old/a"), 1000, (short) 1, 0);
+        fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.01.000");
+
+        fs.delete(new Path(dir, "old"), true);
+        DFSTestUtil.createFile(fs, new Path(dir, "b"), 2000, (short) 1, 0);
+        fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.02.000");
+
+        DFSTestUtil.createFile(fs, new Path(dir, "c"), 4000, (short) 1, 0);
+        fs.createSnapshot(dir, "hadoopit-1-2014.01.01.01.01.03.000");
+        fs.delete(new Path(dir, "b"), false);
+
+        SnapshotManager manager = new SnapshotManager(fs, dir, 1, 0, null);
+        SpaceAccountant accountant = new SpaceAccountant(2);
+        SpaceReport report;
+        try {
+            report = accountant.account(manager.getSnapshotIndex(), fs);
+        } finally {
+            accountant.shutdown();
+        }
+
+        // The first snapshot alone holds old/a, and the last two share b
+        List<SnapshotUsage> usage = report.getUsage(1);
+        assertEquals(usage.size(), 3);
+        assertEquals(usage.get(0).getSize(), 1000);
+        assertEquals(usage.get(0).getExclusive(), 1000);
+        assertEquals(usage.get(0).getCumulative(), 1000);
+        assertEquals(usage.get(1).getSize(), 2000);
+        assertEquals(usage.get(1).getExclusive(), 0);
+        assertEquals(usage.get(1).getCumulative(), 1000);
+        assertEquals(usage.get(2).getSize(), 6000);
+        assertEquals(usage.get(2).getExclusive(), 0);
+        assertEquals(usage.get(2).getCumulative(), 3000);
+
+        assertEquals(report.getFreedIfRetained(1, 1), 1000);
+        assertEquals(report.getFreedIfRetained(1, 2), 1000);
+        assertEquals(report.getFreedIfRetained(1, 3), 0);
+
+        StringWriter csv = new StringWriter();
+        SpaceReportWriter writer = new SpaceReportWriter(csv, SpaceReportWriter.CSV);
+        writer.write(dir, 1, null, report);
+        writer.close();
+
+        String[] lines = csv.toString().split("\n");
+        assertEquals(lines.length, 7);
+        assertTrue(lines[1].startsWith("snapshot,/space,1,,hadoopit-1-2014.01.01.01.01.01.000,"));
+        assertTrue(lines[1].endsWith(",1000,1000,1000,,"));
+        assertEquals(lines[4], "projection,/space,1,,,,,,,1,1000");
+
+        StringWriter json = new StringWriter();
+        writer = new SpaceReportWriter(json, SpaceReportWriter.JSON);
+        writer.write(dir, 1, null, report);
+        writer.close();
+
+        assertTrue(json.toString().startsWith("[\n  {\"directory\": \"/space\", \"frequency\": 1"));
+        assertTrue(json.toString().contains("{\"retention\": 1, \"freed\": 1000}"));
+        assertTrue(json.toString().endsWith("]}\n]\n"));
+    }
+}